@@ -0,0 +1,79 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.sps.ColorUtils.ColorDistance;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures naming colors with the lookup tables of {@link ColorUtils}, against computing the
+ * distance to every known color, as done before the tables.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ColorUtilsBenchmark {
+  private static final int COLOR_COUNT = 1024;
+
+  @Param({"RGB", "CIELAB"})
+  public ColorDistance distance;
+
+  private final int[] colors = new int[COLOR_COUNT];
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42);
+    for (int i = 0; i < COLOR_COUNT; i++) {
+      colors[i] = random.nextInt(1 << 24);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(COLOR_COUNT)
+  public void lookupTable(Blackhole blackhole) {
+    for (int color : colors) {
+      blackhole.consume(ColorUtils.getColorNameFromRGB(
+          color >> 16 & 0xFF, color >> 8 & 0xFF, color & 0xFF, distance));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(COLOR_COUNT)
+  public void linearScan(Blackhole blackhole) {
+    for (int color : colors) {
+      blackhole.consume(ColorUtils.findClosestColorName(
+          color >> 16 & 0xFF, color >> 8 & 0xFF, color & 0xFF, distance));
+    }
+  }
+}
@@ -0,0 +1,136 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.cloud.vision.v1.DominantColorsAnnotation;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures extracting the dominant colors of product photos locally, from photos of the sizes
+ * the extractor is given: shrunk for product detection (640), shrunk for text detection (1600),
+ * and as uploaded from a phone (4000).
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DominantColorExtractorBenchmark {
+
+  @Param({"640", "1600", "4000"})
+  public int longestEdge;
+
+  @Param({"1", "4"})
+  public int threads;
+
+  @Param({"128", "256"})
+  public int maxEdge;
+
+  private ForkJoinPool pool;
+  private DominantColorExtractor dominantColorExtractor;
+  private ImageBuffer photo;
+
+  @Setup
+  public void setUp() throws IOException {
+    pool = new ForkJoinPool(threads);
+    dominantColorExtractor = new DominantColorExtractor(pool, maxEdge, 5);
+    photo = createProductPhoto(longestEdge, longestEdge * 3 / 4);
+  }
+
+  @TearDown
+  public void tearDown() {
+    pool.shutdownNow();
+  }
+
+  /**
+   * Returns a JPEG photo of a product on a table: a can, with a label, over a shaded background,
+   * with sensor noise.
+   */
+  private static ImageBuffer createProductPhoto(int width, int height) throws IOException {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Graphics2D graphics = image.createGraphics();
+    graphics.setPaint(
+        new GradientPaint(0, 0, new Color(0xE8E4DC), 0, height, new Color(0x9A8F80)));
+    graphics.fillRect(0, 0, width, height);
+    graphics.setColor(new Color(0xB22222));
+    graphics.fillRoundRect(width / 3, height / 6, width / 3, height * 2 / 3, width / 10, width / 20);
+    graphics.setColor(new Color(0xF5F5F5));
+    graphics.fillRect(width / 3, height * 2 / 5, width / 3, height / 6);
+    graphics.dispose();
+
+    Random random = new Random(42);
+    for (int i = 0; i < width * height / 8; i++) {
+      int x = random.nextInt(width);
+      int y = random.nextInt(height);
+      int noise = random.nextInt(25) - 12;
+      int rgb = image.getRGB(x, y);
+      image.setRGB(
+          x,
+          y,
+          new Color(
+                  clamp((rgb >> 16 & 0xFF) + noise),
+                  clamp((rgb >> 8 & 0xFF) + noise),
+                  clamp((rgb & 0xFF) + noise))
+              .getRGB());
+    }
+
+    ByteArrayOutputStream imageBytes = new ByteArrayOutputStream();
+    ImageIO.write(image, "jpg", imageBytes);
+    return ImageBuffer.wrap(imageBytes.toByteArray());
+  }
+
+  private static int clamp(int channel) {
+    return Math.max(0, Math.min(255, channel));
+  }
+
+  /** Extracts the colors on the thread of the request, counting the tiles on the pool. */
+  @Benchmark
+  public DominantColorsAnnotation extract() {
+    return dominantColorExtractor.extract(photo);
+  }
+
+  /** Extracts the colors on the pool, as done while Cloud Vision API detects the labels. */
+  @Benchmark
+  public DominantColorsAnnotation extractAsync() {
+    return dominantColorExtractor.extractAsync(photo).join();
+  }
+}
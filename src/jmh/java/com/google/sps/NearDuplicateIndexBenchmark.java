@@ -0,0 +1,122 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures looking up hashes in a full {@link NearDuplicateIndex}, against comparing the query
+ * to every hash. Hashes are either uniformly random, or clustered around a few thousand photos,
+ * as the hashes of similar photos share most of their bits.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NearDuplicateIndexBenchmark {
+  private static final int QUERY_COUNT = 1024;
+  private static final int CLUSTER_COUNT = 2000;
+
+  @Param({"100000", "300000"})
+  public int entryCount;
+
+  @Param({"5"})
+  public int maxDistance;
+
+  @Param({"false", "true"})
+  public boolean clustered;
+
+  private NearDuplicateIndex<Integer> index;
+  private long[] hashes;
+  private final long[] queries = new long[QUERY_COUNT];
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42);
+    long[] clusterHashes = new long[CLUSTER_COUNT];
+    for (int i = 0; i < CLUSTER_COUNT; i++) {
+      clusterHashes[i] = random.nextLong();
+    }
+
+    index = new NearDuplicateIndex<>(maxDistance, entryCount);
+    hashes = new long[entryCount];
+    for (int i = 0; i < entryCount; i++) {
+      hashes[i] =
+          clustered
+              ? flipBits(clusterHashes[random.nextInt(CLUSTER_COUNT)], 2 * maxDistance, random)
+              : random.nextLong();
+      index.put(hashes[i], i);
+    }
+    // Half the queries are near a stored hash, half are new photos.
+    for (int i = 0; i < QUERY_COUNT; i++) {
+      queries[i] =
+          i % 2 == 0
+              ? flipBits(hashes[random.nextInt(entryCount)], maxDistance, random)
+              : clustered
+                  ? flipBits(clusterHashes[random.nextInt(CLUSTER_COUNT)], 4 * maxDistance, random)
+                  : random.nextLong();
+    }
+  }
+
+  private static long flipBits(long hash, int maxFlips, Random random) {
+    for (int flips = random.nextInt(maxFlips + 1); flips > 0; flips--) {
+      hash ^= 1L << random.nextInt(Long.SIZE);
+    }
+    return hash;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(QUERY_COUNT)
+  public void find(Blackhole blackhole) {
+    for (long query : queries) {
+      blackhole.consume(index.find(query));
+    }
+  }
+
+  /** Compares the query to every hash, for the first queries only, as it is much slower. */
+  @Benchmark
+  @OperationsPerInvocation(16)
+  public void linearScan(Blackhole blackhole) {
+    for (int i = 0; i < 16; i++) {
+      int closestDistance = maxDistance + 1;
+      int closestIndex = -1;
+      for (int j = 0; j < hashes.length; j++) {
+        int distance = PerceptualHash.distance(queries[i], hashes[j]);
+        if (distance < closestDistance) {
+          closestDistance = distance;
+          closestIndex = j;
+        }
+      }
+      blackhole.consume(closestIndex);
+    }
+  }
+}
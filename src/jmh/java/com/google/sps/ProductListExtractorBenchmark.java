@@ -0,0 +1,98 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.sps.data.Product;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures extracting the products from Google Shopping results pages, built by repeating the
+ * products of a mock shopping results file.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProductListExtractorBenchmark {
+
+  @Param({"complete-data.html", "product-rating-missing.html"})
+  public String fixture;
+
+  @Param({"10", "100", "1000", "5000"})
+  public int productCount;
+
+  private final ProductListExtractor productListExtractor = new ProductListExtractor();
+  private String html;
+  private Document doc;
+
+  @Setup
+  public void setUp() throws IOException {
+    String fixtureHtml = new String(
+        Files.readAllBytes(Paths.get("src/main/webapp/mock-shopping-results", fixture)),
+        StandardCharsets.UTF_8);
+    html = ShoppingResultsPageGenerator.generateFromFixture(fixtureHtml, productCount);
+    doc = Jsoup.parse(html);
+  }
+
+  /** Extracts the products from the already parsed page. */
+  @Benchmark
+  public List<Product> extractFromDocument() {
+    return productListExtractor.extract(doc);
+  }
+
+  /** Extracts the products from the already parsed page, with a select() for each field. */
+  @Benchmark
+  public List<Product> extractWithSelectors() {
+    return SelectorProductListExtractor.extract(doc);
+  }
+
+  /** Parses the whole page, then extracts the products from it. */
+  @Benchmark
+  public List<Product> parseAndExtract() {
+    return productListExtractor.extract(Jsoup.parse(html));
+  }
+
+  /** Extracts the products while the page is being parsed, as done for fetched pages. */
+  @Benchmark
+  public List<Product> streamAndExtract() throws IOException {
+    return productListExtractor.extract(new StringReader(html), "", Integer.MAX_VALUE);
+  }
+}
@@ -0,0 +1,115 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.sps.data.ShoppingListTextEntry;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures extracting the shopping list from the words detected in a photo, returned by a
+ * {@link FakeTextDetectionAPIImpl}, against the previous algorithm, which concatenated the
+ * words of each line into a string. Words are laid out as a receipt, short product names each
+ * followed by a price, or as a single long line of text, slightly skewed.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ShoppingListLineAssemblerBenchmark {
+  private static final String[] WORDS = {"Organic", "whole", "milk", "2.99"};
+
+  @Param({"100", "1000", "10000"})
+  public int wordCount;
+
+  @Param({"receipt", "skewedLine"})
+  public String layout;
+
+  private ImageTextDectector imageTextDectector;
+  private List<ShoppingListTextEntry> detectedText;
+
+  @Setup
+  public void setUp() {
+    detectedText = new ArrayList<>();
+    // Cloud Vision API returns all the text first, which is skipped.
+    detectedText.add(ShoppingListTextEntry.create("Organic whole milk 2.99", 0, 0));
+    for (int i = 0; i < wordCount; i++) {
+      int column = i % WORDS.length;
+      int top;
+      int left;
+      if ("receipt".equals(layout)) {
+        top = i / WORDS.length * 20;
+        left = column == WORDS.length - 1 ? 600 : column * 80;
+      } else {
+        top = i;
+        left = i * 80;
+      }
+      detectedText.add(
+          ShoppingListTextEntry.create(WORDS[column], top, top + 15, left, left + 70));
+    }
+
+    FakeTextDetectionAPIImpl textDetectionAPI = new FakeTextDetectionAPIImpl();
+    textDetectionAPI.setReturnValue(detectedText);
+    imageTextDectector = new ImageTextDectector(textDetectionAPI);
+  }
+
+  @Benchmark
+  public List<String> extractShoppingList() throws IOException, PhotoDetectionException {
+    return imageTextDectector.extractShoppingList(null);
+  }
+
+  @Benchmark
+  public List<String> concatenateLines() {
+    // The previous algorithm, comparing the upper boundary of each word to the lower boundary of
+    // the previous one.
+    List<String> shoppingQueries = new ArrayList<>();
+    String sentence = "";
+    int prevLowerYBoundary = detectedText.get(1).getLowerYBoundary();
+    for (ShoppingListTextEntry detectedWord : detectedText.subList(1, detectedText.size())) {
+      if (detectedWord.getUpperYBoundary() <= prevLowerYBoundary) {
+        sentence += detectedWord.getText() + " ";
+      } else {
+        addQuery(sentence, shoppingQueries);
+        sentence = detectedWord.getText() + " ";
+      }
+      prevLowerYBoundary = detectedWord.getLowerYBoundary();
+    }
+    addQuery(sentence, shoppingQueries);
+    return shoppingQueries;
+  }
+
+  private static void addQuery(String sentence, List<String> shoppingQueries) {
+    String query = PhotoShoppingUtil.formatQuery(sentence);
+    if (!query.isEmpty()) {
+      shoppingQueries.add(query);
+    }
+  }
+}
@@ -0,0 +1,77 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures cleaning up the shopping queries built from the photo detection results, and encoding
+ * them for the search URL, against the regular expressions used before {@link QueryNormalizer}.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ShoppingQueryBenchmark {
+
+  @Param({
+      "Fountain Pen",
+      "  TWSBI   Eco - Fountain Pen, Clear; Extra-Fine!  ",
+      "Faber-Castell Grip 2011 Fountain Pen Medium Nib Silver Blue Ink Cartridges Pack of 6 "
+          + "Refillable Converter Included Gift Box \"Limited Edition\" #2011 <New> |Sale| ~~~"
+  })
+  public String query;
+
+  @Benchmark
+  public String toUrlParameter() {
+    return QueryNormalizer.toUrlParameter(query);
+  }
+
+  @Benchmark
+  public String format() {
+    return QueryNormalizer.format(query);
+  }
+
+  @Benchmark
+  public String regexPolishShoppingQuery() {
+    // Validated, then cleaned up and with its spaces encoded, as by GoogleShoppingQuerier before.
+    if (!query.matches(".*[a-zA-Z1-9].*")) {
+      return null;
+    }
+    return query
+        .replaceAll("\\s+", " ")
+        .trim()
+        .replaceAll(" ", "%20")
+        .replaceAll("[-+=,\n._^\";:~#></|!*]", "");
+  }
+
+  @Benchmark
+  public String regexFormatQuery() {
+    return query.replaceAll("\\s+", " ").replaceAll("[-+=,\n._^\";:~#></|!*]", "").trim();
+  }
+}
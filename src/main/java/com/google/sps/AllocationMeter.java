@@ -0,0 +1,89 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adds up the bytes of heap memory allocated by threads while doing some work, e.g. detecting
+ * the content of an uploaded photo, to tell how much garbage each request leaves behind.
+ *
+ * Only the allocations of the measuring thread are counted, not those of the threads it hands
+ * work to. Nothing is measured on JVMs which cannot report the allocations of a thread.
+ */
+public class AllocationMeter {
+  private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN = getThreadMXBean();
+
+  private final AtomicLong measurementCount = new AtomicLong();
+  private final AtomicLong allocatedByteCount = new AtomicLong();
+
+  /**
+   * Returns the number of bytes allocated so far by the current thread, to pass to
+   * {@link #record(long)} once the work is done, or -1 if it is not known.
+   */
+  public static long getCurrentThreadAllocatedBytes() {
+    if (THREAD_MX_BEAN == null) {
+      return -1;
+    }
+    return THREAD_MX_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  /**
+   * Records the bytes allocated by the current thread since
+   * {@link #getCurrentThreadAllocatedBytes()} returned {@code startAllocatedBytes}, and returns
+   * them, or -1 if they are not known.
+   */
+  public long record(long startAllocatedBytes) {
+    long endAllocatedBytes = getCurrentThreadAllocatedBytes();
+    if (startAllocatedBytes < 0 || endAllocatedBytes < 0) {
+      return -1;
+    }
+    long allocatedBytes = endAllocatedBytes - startAllocatedBytes;
+    measurementCount.incrementAndGet();
+    allocatedByteCount.addAndGet(allocatedBytes);
+    return allocatedBytes;
+  }
+
+  /** Returns the number of times the allocated bytes were recorded. */
+  public long getMeasurementCount() {
+    return measurementCount.get();
+  }
+
+  /** Returns the total number of bytes recorded. */
+  public long getAllocatedByteCount() {
+    return allocatedByteCount.get();
+  }
+
+  /** Returns the bean reporting the allocations of threads, or null if there is none. */
+  private static com.sun.management.ThreadMXBean getThreadMXBean() {
+    try {
+      java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+      if (!(threadMXBean instanceof com.sun.management.ThreadMXBean)) {
+        return null;
+      }
+      com.sun.management.ThreadMXBean allocationMXBean =
+          (com.sun.management.ThreadMXBean) threadMXBean;
+      if (!allocationMXBean.isThreadAllocatedMemorySupported()) {
+        return null;
+      }
+      allocationMXBean.setThreadAllocatedMemoryEnabled(true);
+      return allocationMXBean;
+    } catch (LinkageError | RuntimeException exception) {
+      // The management classes are not available in restricted sandboxes.
+      return null;
+    }
+  }
+}
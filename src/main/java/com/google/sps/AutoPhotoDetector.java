@@ -0,0 +1,97 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.cloud.vision.v1.AnnotateImageResponse;
+import com.google.common.collect.ImmutableSet;
+import com.google.sps.data.ProductDetectionData;
+import com.google.sps.data.ShoppingListTextEntry;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds the queries to search on Google Shopping for a photo whose category is not known, i.e.
+ * a barcode, a product or a shopping list.
+ *
+ * The photo is first searched locally for a barcode, which costs no Cloud Vision API call. If
+ * none is found, a single Cloud Vision API request detects both the product and the text content
+ * of the photo, and the queries are built as for a shopping list if the photo is labeled as text,
+ * or else as for a product.
+ */
+public class AutoPhotoDetector {
+  // Labels Cloud Vision API gives to photos of written or printed text, such as shopping lists.
+  private static final ImmutableSet<String> TEXT_LABELS =
+      ImmutableSet.of(
+          "Text", "Handwriting", "Font", "Paper", "Paper product", "Document", "Writing",
+          "Calligraphy", "Line", "Number");
+
+  private final BarcodeImageDetector barcodeImageDetector;
+  private final CombinedDetectionAPI combinedDetectionAPI;
+
+  public AutoPhotoDetector(
+      BarcodeImageDetector barcodeImageDetector, CombinedDetectionAPI combinedDetectionAPI) {
+    this.barcodeImageDetector = barcodeImageDetector;
+    this.combinedDetectionAPI = combinedDetectionAPI;
+  }
+
+  public List<String> buildShoppingQueries(ImageBuffer image) throws PhotoDetectionException {
+    List<String> shoppingQueries = new ArrayList<>();
+
+    String barcode = barcodeImageDetector.probe(image);
+    if (barcode != null) {
+      shoppingQueries.add(barcode);
+      return shoppingQueries;
+    }
+
+    AnnotateImageResponse response = combinedDetectionAPI.detect(image);
+    ProductDetectionData productDetectionData =
+        ProductDetectionAPIImpl.parseProductDetectionData(response);
+    List<ShoppingListTextEntry> shoppingListText =
+        TextDetectionAPIImpl.parseAnnotateImageResponse(response);
+
+    // Build the queries from the detected content, as the detectors of each category would.
+    if (isShoppingList(productDetectionData, shoppingListText)) {
+      ImageTextDectector imageTextDectector = new ImageTextDectector(detectedImage -> shoppingListText);
+      try {
+        return imageTextDectector.extractShoppingList(image);
+      } catch (IOException exception) {
+        throw new PhotoDetectionException("Error while getting shopping query.", exception);
+      }
+    }
+
+    ProductPhotoDetector productPhotoDetector =
+        new ProductPhotoDetector(detectedImage -> productDetectionData);
+    shoppingQueries.add(productPhotoDetector.buildShoppingQuery(image));
+    return shoppingQueries;
+  }
+
+  /**
+   * Returns true if the photo holds text and is either labeled as text or not labeled at all.
+   */
+  private static boolean isShoppingList(
+      ProductDetectionData productDetectionData, List<ShoppingListTextEntry> shoppingListText) {
+    // Cloud Vision API returns all the text detected first, followed by each word, so a photo
+    // with any text has at least two entries.
+    if (shoppingListText.size() < 2) {
+      return false;
+    }
+    return productDetectionData.getLabels().isEmpty()
+        || productDetectionData.getLabels()
+            .stream()
+            .limit(Constants.AUTO_DETECTION_CHECKED_LABELS_NUMBER)
+            .anyMatch(TEXT_LABELS::contains);
+  }
+}
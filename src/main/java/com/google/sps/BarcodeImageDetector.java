@@ -16,80 +16,368 @@ package com.google.sps;
 
 import com.google.auto.value.AutoValue;
 
-import com.google.common.io.ByteSource;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
 
 // Import the ZXing barcode image processing library.
+import com.google.zxing.BarcodeFormat;
 import com.google.zxing.BinaryBitmap;
 import com.google.zxing.ChecksumException;
+import com.google.zxing.DecodeHintType;
 import com.google.zxing.FormatException;
 import com.google.zxing.MultiFormatReader;
 import com.google.zxing.NotFoundException;
 import com.google.zxing.Reader;
+import com.google.zxing.ReaderException;
 import com.google.zxing.Result;
-import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
 import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.multi.GenericMultipleBarcodeReader;
 
 import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
 
 import java.awt.image.BufferedImage;
 
 import java.io.IOException;
-import java.io.InputStream;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.Collectors;
 
 /**
  * For a barcode image, detects the code, using the Java Apache Camel 
  * Barcode API based on the ZXing library, and returns it.
+ *
+ * Only the barcode formats found on retail products are searched by default, and the image is
+ * searched in tiers, from the cheapest, each only tried if the previous ones found nothing, so
+ * that a clear barcode photo is decoded with the least work. Only the luminance of the photo is
+ * read, subsampled if it is large, and the photo is read again at full resolution only if no
+ * barcode is found. In racing mode, the photos are instead searched by a
+ * {@link RacingBarcodeDecoder}, which tries many variants concurrently.
  */
 public class BarcodeImageDetector {
-  public BarcodeImageDetector() {}
+  // Longest edge, in pixels, of the image searched by {@link #probe(ImageBuffer)}.
+  private static final int PROBE_MAX_EDGE = 1024;
+  // Longest edge, in pixels, of the image first searched by {@link #detect(ImageBuffer)} and
+  // {@link #detectAll(ImageBuffer)}, large enough for the barcode of a product photographed whole.
+  private static final int DETECT_MAX_EDGE = 2048;
+  // The formats of the barcodes printed on retail products: EAN and UPC, and Code 128 for the
+  // GS1-128 labels.
+  private static final String DEFAULT_FORMATS = "EAN_13,EAN_8,UPC_A,UPC_E,CODE_128";
+  // Maximum number of barcodes returned by {@link #detectAll(ImageBuffer)}, each of which is
+  // searched on Google Shopping.
+  private static final int MAX_BARCODES = 10;
+
+  /** The ways of searching the photos given to {@link #detect(ImageBuffer)}. */
+  public enum DecodeMode {
+    /** Searches the tiers one after another, on the thread of the request. */
+    TIERED,
+    /** Searches many variants of the photo concurrently, under a time budget. */
+    RACING
+  }
+
+  /** The attempts at decoding a barcode, in the order they are tried. */
+  public enum DecodeTier {
+    /** Searches a few rows of the image. */
+    FAST,
+    /** Searches a few rows of the image turned a quarter, if it is in portrait orientation. */
+    ROTATED,
+    /** Searches many more rows of the image, both as it is and turned a quarter. */
+    TRY_HARDER
+  }
+
+  // MultiFormatReader is not thread-safe, and builds its readers for each format whenever it is
+  // given hints, so each thread configures its own readers once and reuses them.
+  private final ThreadLocal<MultiFormatReader> fastReaders;
+  private final ThreadLocal<MultiFormatReader> tryHarderReaders;
+  // Null in tiered mode.
+  private final RacingBarcodeDecoder racingDecoder;
+  private final AtomicLongArray attemptCounts = new AtomicLongArray(DecodeTier.values().length);
+  private final AtomicLongArray successCounts = new AtomicLongArray(DecodeTier.values().length);
+  private final AtomicLongArray decodeNanos = new AtomicLongArray(DecodeTier.values().length);
+  private final AtomicLong fullResolutionFallbackCount = new AtomicLong();
+
+  /**
+   * Creates a detector for the barcode formats listed, comma separated, in the
+   * "sps.barcode.formats" system property, searching in the mode set by the
+   * "sps.barcode.decodeMode" system property, "tiered" or "racing".
+   */
+  public BarcodeImageDetector() {
+    this(getConfiguredFormats(), getConfiguredDecodeMode());
+  }
+
+  private BarcodeImageDetector(ImmutableList<BarcodeFormat> formats, DecodeMode decodeMode) {
+    this(formats, decodeMode == DecodeMode.RACING ? RacingBarcodeDecoder.create(formats) : null);
+  }
+
+  /** Creates a detector searching in tiered mode. */
+  public BarcodeImageDetector(Collection<BarcodeFormat> formats) {
+    this(formats, null);
+  }
+
+  /**
+   * @param formats       the barcode formats searched for.
+   * @param racingDecoder the decoder searching the photos in racing mode, or null to search them
+   *                      in tiered mode.
+   */
+  public BarcodeImageDetector(
+      Collection<BarcodeFormat> formats, RacingBarcodeDecoder racingDecoder) {
+    this.racingDecoder = racingDecoder;
+
+    Map<DecodeHintType, Object> fastHints = new EnumMap<>(DecodeHintType.class);
+    fastHints.put(DecodeHintType.POSSIBLE_FORMATS, ImmutableList.copyOf(formats));
+    Map<DecodeHintType, Object> tryHarderHints = new EnumMap<>(fastHints);
+    tryHarderHints.put(DecodeHintType.TRY_HARDER, Boolean.TRUE);
+
+    fastReaders = ThreadLocal.withInitial(() -> createReader(fastHints));
+    tryHarderReaders = ThreadLocal.withInitial(() -> createReader(tryHarderHints));
+  }
+
+  private static ImmutableList<BarcodeFormat> getConfiguredFormats() {
+    ImmutableList.Builder<BarcodeFormat> formats = ImmutableList.builder();
+    for (String format :
+        Splitter.on(',')
+            .trimResults()
+            .omitEmptyStrings()
+            .split(System.getProperty("sps.barcode.formats", DEFAULT_FORMATS))) {
+      formats.add(BarcodeFormat.valueOf(format));
+    }
+    return formats.build();
+  }
+
+  private static DecodeMode getConfiguredDecodeMode() {
+    return DecodeMode.valueOf(
+        System.getProperty("sps.barcode.decodeMode", "tiered").toUpperCase(Locale.ROOT));
+  }
+
+  private static MultiFormatReader createReader(Map<DecodeHintType, Object> hints) {
+    MultiFormatReader reader = new MultiFormatReader();
+    reader.setHints(hints);
+    return reader;
+  }
+
+  /**
+   * Quickly searches the image for a barcode, and returns the code, or null if none is found.
+   * The image is read downsampled, so that its longest edge is at most {@code PROBE_MAX_EDGE}
+   * pixels, and searched once, which is cheap enough to try on any photo before calling Cloud
+   * Vision API.
+   */
+  public String probe(ImageBuffer image) throws PhotoDetectionException {
+    BinaryBitmap bitmap = toBitmap(LuminancePlaneSource.read(image, PROBE_MAX_EDGE));
+    try {
+      return decode(DecodeTier.FAST, fastReaders.get(), bitmap).getText();
+    } catch (ReaderException e) {
+      // No barcode is found, or none that passes its checksum and format checks.
+      return null;
+    }
+  }
   
-  public String detect(byte[] imageBytes) throws PhotoDetectionException {
-    // Convert byte array to InputStream by wrapping the byte array into the Guava ByteSource,
-    // which then allows getting the stream.
-    InputStream imageInputStream;
+  public String detect(ImageBuffer image) throws PhotoDetectionException {
+    if (racingDecoder != null) {
+      try {
+        return racingDecoder.decode(readImage(image)).getText();
+      } catch (NotFoundException e) {
+        // No potential barcode is found within the time budget.
+        throw new PhotoDetectionException("No potential barcode found.", e);
+      }
+    }
+
+    LuminancePlaneSource luminance = LuminancePlaneSource.read(image, DETECT_MAX_EDGE);
     try {
-      imageInputStream = ByteSource.wrap(imageBytes).openStream();
-    } catch (IOException exception) {
-      throw new PhotoDetectionException("Failed to convert byte array to InputStream.", exception);
+      return decode(toBitmap(luminance));
+    } catch (PhotoDetectionException e) {
+      if (luminance.getSubsampling() == 1) {
+        throw e;
+      }
+      // The bars of a small barcode may be lost by subsampling.
     }
-    
-    // Get the BufferedImage as the result of decoding the InputStream.
-    BufferedImage bufferedImage;
+    return decode(toBitmap(readFullResolution(image)));
+  }
+
+  /**
+   * Detects every distinct barcode in the photo, e.g. of a shelf or of a pile of groceries, and
+   * returns the codes in the order they are found, at most {@code MAX_BARCODES} of them.
+   */
+  public List<String> detectAll(ImageBuffer image) throws PhotoDetectionException {
+    LuminancePlaneSource luminance = LuminancePlaneSource.read(image, DETECT_MAX_EDGE);
     try {
-      bufferedImage = ImageIO.read(imageInputStream);
-    } catch (IOException e) {
-      throw new PhotoDetectionException("Failed to convert InputStream to BufferedImage.", e);
+      return detectAll(toBitmap(luminance));
+    } catch (PhotoDetectionException e) {
+      if (luminance.getSubsampling() == 1) {
+        throw e;
+      }
+      // The bars of small barcodes may be lost by subsampling.
     }
+    return detectAll(toBitmap(readFullResolution(image)));
+  }
 
-    // ZXing Reader objects accept a BinaryBitmap and attempt to decode it, therefore
-    // construct the BinaryBitmap object based on the {@code bufferedImage}.
-    // The ZXing HybridBinarizer class is designed for high frequency images of barcodes 
+  private List<String> detectAll(BinaryBitmap bitmap) throws PhotoDetectionException {
+    // Search all the rows of the image, then of the regions around each barcode found, for more
+    // barcodes. The same barcode found in several regions, or on several products, is kept once.
+    Set<String> codes = new LinkedHashSet<>();
+    try {
+      Result[] results =
+          new GenericMultipleBarcodeReader(new ConfiguredReader(tryHarderReaders.get()))
+              .decodeMultiple(bitmap);
+      for (Result result : results) {
+        codes.add(result.getText());
+      }
+    } catch (NotFoundException e) {
+      // Search the image as for a single barcode, which also tries it turned, and reports why
+      // no barcode is found.
+      codes.add(decode(bitmap));
+    }
+    return codes.stream().limit(MAX_BARCODES).collect(Collectors.toList());
+  }
+
+  /** Reads the luminance of the image at full resolution, once a subsampled read failed. */
+  private LuminancePlaneSource readFullResolution(ImageBuffer image)
+      throws PhotoDetectionException {
+    fullResolutionFallbackCount.incrementAndGet();
+    return LuminancePlaneSource.read(image, Integer.MAX_VALUE);
+  }
+
+  private static BinaryBitmap toBitmap(LuminancePlaneSource luminance) {
+    // The ZXing HybridBinarizer class is designed for high frequency images of barcodes
     // with black data on white backgrounds.
-    BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(
-        new BufferedImageLuminanceSource(bufferedImage)));
+    return new BinaryBitmap(new HybridBinarizer(luminance));
+  }
 
-    return decode(bitmap);
+  /** Decodes the image, reading the bytes in place. */
+  private static BufferedImage readImage(ImageBuffer image) throws PhotoDetectionException {
+    // Get the BufferedImage as the result of decoding the bytes.
+    BufferedImage bufferedImage;
+    try (ImageInputStream imageInputStream = image.newImageInputStream()) {
+      bufferedImage = ImageIO.read(imageInputStream);
+    } catch (IOException e) {
+      throw new PhotoDetectionException("Failed to convert InputStream to BufferedImage.", e);
+    }
+    // ImageIO returns null when no reader handles the format.
+    if (bufferedImage == null) {
+      throw new PhotoDetectionException("Unsupported image format.");
+    }
+    return bufferedImage;
   }
   
   private String decode(BinaryBitmap bitmap) throws PhotoDetectionException {
-    Reader reader = new MultiFormatReader();
     Result result;
     try {
-      result = reader.decode(bitmap);
-    } catch (NotFoundException e) {
-      // No potential barcode is found.
-      throw new PhotoDetectionException("No potential barcode found.", e);
+      result = decodeInTiers(bitmap);
     } catch (ChecksumException e) {
       // A potential barcode is found but does not pass its checksum.
       throw new PhotoDetectionException("Potential barcode does not pass its checksum.", e);
     } catch (FormatException e) {
       // A potential barcode is found but format is invalid.
       throw new PhotoDetectionException("Invalid format for potential barcode.", e);
+    } catch (ReaderException e) {
+      // No potential barcode is found.
+      throw new PhotoDetectionException("No potential barcode found.", e);
     }
       
     return result.getText();
   }
 
+  /**
+   * Tries each tier in turn, and returns the first barcode found, or throws the exception of the
+   * last tier tried.
+   */
+  private Result decodeInTiers(BinaryBitmap bitmap) throws ReaderException {
+    try {
+      return decode(DecodeTier.FAST, fastReaders.get(), bitmap);
+    } catch (ReaderException e) {
+      // Search the image again, turned, or harder.
+    }
+
+    BinaryBitmap rotatedBitmap = getRotatedBinaryBitmap(bitmap);
+    if (rotatedBitmap != bitmap) {
+      try {
+        return decode(DecodeTier.ROTATED, fastReaders.get(), rotatedBitmap);
+      } catch (ReaderException e) {
+        // Search the image harder.
+      }
+    }
+
+    return decode(DecodeTier.TRY_HARDER, tryHarderReaders.get(), bitmap);
+  }
+
+  /** Searches the image once, with the given reader, and records the attempt for the tier. */
+  private Result decode(DecodeTier tier, MultiFormatReader reader, BinaryBitmap bitmap)
+      throws ReaderException {
+    long startNanos = System.nanoTime();
+    attemptCounts.incrementAndGet(tier.ordinal());
+    try {
+      // Decode with the readers already configured with the hints.
+      Result result = reader.decodeWithState(bitmap);
+      successCounts.incrementAndGet(tier.ordinal());
+      return result;
+    } finally {
+      decodeNanos.addAndGet(tier.ordinal(), System.nanoTime() - startNanos);
+    }
+  }
+
+  /** Returns the decoder searching the photos in racing mode, or null in tiered mode. */
+  public RacingBarcodeDecoder getRacingDecoder() {
+    return racingDecoder;
+  }
+
+  /** Returns the number of times the image was searched in the tier. */
+  public long getAttemptCount(DecodeTier tier) {
+    return attemptCounts.get(tier.ordinal());
+  }
+
+  /** Returns the number of times a barcode was found in the tier. */
+  public long getSuccessCount(DecodeTier tier) {
+    return successCounts.get(tier.ordinal());
+  }
+
+  /** Returns the time, in milliseconds, spent searching the image in the tier. */
+  public double getDecodeMillis(DecodeTier tier) {
+    return decodeNanos.get(tier.ordinal()) / 1e6;
+  }
+
+  /**
+   * Returns the number of times a photo read subsampled was read again at full resolution, as no
+   * barcode was found in it.
+   */
+  public long getFullResolutionFallbackCount() {
+    return fullResolutionFallbackCount.get();
+  }
+
+  /**
+   * Decodes with a MultiFormatReader already configured with its hints, which it would otherwise
+   * build its readers again for on each decode.
+   */
+  private static final class ConfiguredReader implements Reader {
+    private final MultiFormatReader reader;
+
+    ConfiguredReader(MultiFormatReader reader) {
+      this.reader = reader;
+    }
+
+    @Override
+    public Result decode(BinaryBitmap image) throws NotFoundException {
+      return reader.decodeWithState(image);
+    }
+
+    @Override
+    public Result decode(BinaryBitmap image, Map<DecodeHintType, ?> hints)
+        throws NotFoundException {
+      return reader.decodeWithState(image);
+    }
+
+    @Override
+    public void reset() {
+      reader.reset();
+    }
+  }
+
   private BinaryBitmap getRotatedBinaryBitmap(BinaryBitmap bitmap) {
     if (bitmap.getWidth() < bitmap.getHeight()) {
       if (bitmap.isRotateSupported()) {
@@ -0,0 +1,170 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.blobstore.BlobstoreService;
+import com.google.common.base.Throwables;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Reads files stored in Blobstore, whose size is known, into a buffer of that exact size.
+ *
+ * Blobstore returns at most {@code BlobstoreService.MAX_BLOB_FETCH_SIZE} bytes per fetch, so
+ * larger files are fetched as several byte ranges, concurrently, and each range is copied
+ * straight into its place in the buffer.
+ */
+public class BlobReader {
+  private static final int DEFAULT_MAX_PARALLEL_FETCHES = 4;
+
+  private final BlobstoreService blobstoreService;
+  private final Supplier<ThreadFactory> threadFactorySupplier;
+  private final int fetchSize;
+  private final int maxParallelFetches;
+  private final AtomicLong readCount = new AtomicLong();
+  private final AtomicLong byteCount = new AtomicLong();
+  private final AtomicLong fetchCount = new AtomicLong();
+  private final AtomicLong readNanos = new AtomicLong();
+
+  /**
+   * @param blobstoreService      the service the files are fetched from.
+   * @param threadFactorySupplier gives, on the thread calling {@link #read}, the factory of the
+   *                              threads making the concurrent fetches of that read.
+   * @param fetchSize             the number of bytes fetched at once.
+   * @param maxParallelFetches    the maximum number of concurrent fetches of a single file.
+   */
+  public BlobReader(
+      BlobstoreService blobstoreService,
+      Supplier<ThreadFactory> threadFactorySupplier,
+      int fetchSize,
+      int maxParallelFetches) {
+    this.blobstoreService = blobstoreService;
+    this.threadFactorySupplier = threadFactorySupplier;
+    this.fetchSize = fetchSize;
+    this.maxParallelFetches = maxParallelFetches;
+  }
+
+  /**
+   * Creates a reader fetching {@code BlobstoreService.MAX_BLOB_FETCH_SIZE} bytes at once, with at
+   * most "sps.blob.maxParallelFetches" concurrent fetches per file.
+   */
+  public static BlobReader create(
+      BlobstoreService blobstoreService, Supplier<ThreadFactory> threadFactorySupplier) {
+    return new BlobReader(
+        blobstoreService,
+        threadFactorySupplier,
+        BlobstoreService.MAX_BLOB_FETCH_SIZE,
+        Integer.getInteger("sps.blob.maxParallelFetches", DEFAULT_MAX_PARALLEL_FETCHES));
+  }
+
+  /** Returns the {@code size} bytes of the file stored at {@code blobKey}. */
+  public byte[] read(BlobKey blobKey, long size) throws IOException {
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("File of " + size + " bytes is too large to be read in memory.");
+    }
+    long startNanos = System.nanoTime();
+    int chunkCount = (int) ((size + fetchSize - 1) / fetchSize);
+
+    byte[] bytes;
+    if (chunkCount <= 1) {
+      // A single fetch gives the whole file, so there is nothing to copy.
+      bytes = size == 0 ? new byte[0] : fetchChunk(blobKey, 0, (int) size);
+    } else {
+      bytes = new byte[(int) size];
+      fetchChunksConcurrently(blobKey, bytes, chunkCount);
+    }
+
+    readCount.incrementAndGet();
+    byteCount.addAndGet(size);
+    fetchCount.addAndGet(chunkCount);
+    readNanos.addAndGet(System.nanoTime() - startNanos);
+    return bytes;
+  }
+
+  /** Returns the number of files read. */
+  public long getReadCount() {
+    return readCount.get();
+  }
+
+  /** Returns the number of bytes read, over all the files. */
+  public long getByteCount() {
+    return byteCount.get();
+  }
+
+  /** Returns the number of fetches made, over all the files. */
+  public long getFetchCount() {
+    return fetchCount.get();
+  }
+
+  /** Returns the time spent reading files, in milliseconds. */
+  public long getReadMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(readNanos.get());
+  }
+
+  private void fetchChunksConcurrently(BlobKey blobKey, byte[] bytes, int chunkCount)
+      throws IOException {
+    ExecutorService executor =
+        Executors.newFixedThreadPool(
+            Math.min(chunkCount, maxParallelFetches), threadFactorySupplier.get());
+    try {
+      List<Future<?>> fetches = new ArrayList<>();
+      for (int i = 0; i < chunkCount; i++) {
+        int chunkStart = i * fetchSize;
+        int chunkLength = Math.min(fetchSize, bytes.length - chunkStart);
+        fetches.add(executor.submit(() -> {
+          byte[] chunk = fetchChunk(blobKey, chunkStart, chunkLength);
+          System.arraycopy(chunk, 0, bytes, chunkStart, chunkLength);
+          return null;
+        }));
+      }
+
+      for (Future<?> fetch : fetches) {
+        fetch.get();
+      }
+    } catch (ExecutionException exception) {
+      // Re-throw the exception thrown by the fetch.
+      Throwables.propagateIfPossible(exception.getCause(), IOException.class);
+      throw new IOException(exception.getCause());
+    } catch (InterruptedException exception) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while reading the file.", exception);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /** Fetches the {@code length} bytes of the file starting at {@code start}. */
+  private byte[] fetchChunk(BlobKey blobKey, long start, int length) throws IOException {
+    // End index is inclusive, therefore subtract 1 to get {@code length} bytes.
+    byte[] chunk = blobstoreService.fetchData(blobKey, start, start + length - 1);
+    if (chunk.length != length) {
+      throw new IOException(
+          "Expected " + length + " bytes at " + start + ", but got " + chunk.length + ".");
+    }
+    return chunk;
+  }
+}
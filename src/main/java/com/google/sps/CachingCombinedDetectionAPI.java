@@ -0,0 +1,37 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.cloud.vision.v1.AnnotateImageResponse;
+
+/**
+ * Wraps a CombinedDetectionAPI, returning the cached response when the same image is uploaded
+ * again.
+ */
+public class CachingCombinedDetectionAPI implements CombinedDetectionAPI {
+  private final CombinedDetectionAPI combinedDetectionAPI;
+  private final VisionResultCache<AnnotateImageResponse> cache;
+
+  public CachingCombinedDetectionAPI(
+      CombinedDetectionAPI combinedDetectionAPI, VisionResultCache<AnnotateImageResponse> cache) {
+    this.combinedDetectionAPI = combinedDetectionAPI;
+    this.cache = cache;
+  }
+
+  @Override
+  public AnnotateImageResponse detect(ImageBuffer image) throws PhotoDetectionException {
+    return cache.get(image, () -> combinedDetectionAPI.detect(image));
+  }
+}
@@ -0,0 +1,38 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.sps.data.ProductDetectionData;
+
+/**
+ * Wraps a ProductDetectionAPI, returning the cached detection data when the same image is
+ * uploaded again.
+ */
+public class CachingProductDetectionAPI implements ProductDetectionAPI {
+  private final ProductDetectionAPI productDetectionAPI;
+  private final VisionResultCache<ProductDetectionData> cache;
+
+  public CachingProductDetectionAPI(
+      ProductDetectionAPI productDetectionAPI, VisionResultCache<ProductDetectionData> cache) {
+    this.productDetectionAPI = productDetectionAPI;
+    this.cache = cache;
+  }
+
+  @Override
+  public ProductDetectionData detectProductPhotoContent(ImageBuffer image)
+      throws PhotoDetectionException {
+    return cache.get(image, () -> productDetectionAPI.detectProductPhotoContent(image));
+  }
+}
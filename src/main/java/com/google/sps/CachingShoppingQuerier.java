@@ -0,0 +1,101 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.sps.data.Product;
+import com.google.sps.data.ShoppingQueryInput;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wraps a ShoppingQuerier, returning the cached products for queries searched recently, so that
+ * popular queries skip both fetching and parsing the results page.
+ *
+ * Queries are cached by their canonical form, together with the language and the maximum number
+ * of results. The cache is bounded by the number of entries, evicting the least recently used
+ * ones, and by the age of the entries, as shopping results change over time. Failed queries are
+ * not cached.
+ */
+public class CachingShoppingQuerier implements ShoppingQuerier {
+  private final ShoppingQuerier querier;
+  private final Cache<String, ImmutableList<Product>> cache;
+
+  /**
+   * @param maxEntries the maximum number of queries whose products are kept in the cache.
+   * @param ttlSeconds the time the products of a query are kept for, after being fetched.
+   */
+  public CachingShoppingQuerier(ShoppingQuerier querier, long maxEntries, long ttlSeconds) {
+    this.querier = querier;
+    this.cache =
+        CacheBuilder.newBuilder()
+            .maximumSize(maxEntries)
+            .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+  }
+
+  /**
+   * Creates a cache around {@code querier}, configured from the "sps.shopping.cache.*" system
+   * properties.
+   */
+  public static CachingShoppingQuerier create(ShoppingQuerier querier) {
+    return new CachingShoppingQuerier(
+        querier,
+        Long.getLong("sps.shopping.cache.maxEntries", 5000),
+        Long.getLong("sps.shopping.cache.ttlSeconds", 600));
+  }
+
+  public List<Product> query(ShoppingQueryInput shoppingQueryInput)
+      throws IOException, ShoppingQuerierConnectionException {
+    String key = GoogleShoppingQuerier.getCanonicalKey(shoppingQueryInput);
+
+    ImmutableList<Product> products = cache.getIfPresent(key);
+    if (products == null) {
+      products = ImmutableList.copyOf(querier.query(shoppingQueryInput));
+      cache.put(key, products);
+    }
+    return products;
+  }
+
+  /** Returns the number of queries answered from the cache. */
+  public long getHitCount() {
+    return cache.stats().hitCount();
+  }
+
+  /** Returns the number of queries that had to be searched. */
+  public long getMissCount() {
+    return cache.stats().missCount();
+  }
+
+  /** Returns the fraction of queries answered from the cache, or 1 if there were no queries. */
+  public double getHitRate() {
+    return cache.stats().hitRate();
+  }
+
+  /** Returns the number of queries removed to keep the cache within its size. */
+  public long getEvictionCount() {
+    return cache.stats().evictionCount();
+  }
+
+  /** Returns the number of queries currently cached. */
+  public long getSize() {
+    return cache.size();
+  }
+}
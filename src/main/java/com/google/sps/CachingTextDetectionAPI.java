@@ -0,0 +1,45 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.common.collect.ImmutableList;
+import com.google.sps.data.ShoppingListTextEntry;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Wraps a TextDetectionAPI, returning the cached text entries when the same image is uploaded
+ * again.
+ */
+public class CachingTextDetectionAPI implements TextDetectionAPI {
+  private final TextDetectionAPI textDetectionAPI;
+  private final VisionResultCache<ImmutableList<ShoppingListTextEntry>> cache;
+
+  public CachingTextDetectionAPI(
+      TextDetectionAPI textDetectionAPI,
+      VisionResultCache<ImmutableList<ShoppingListTextEntry>> cache) {
+    this.textDetectionAPI = textDetectionAPI;
+    this.cache = cache;
+  }
+
+  @Override
+  public List<ShoppingListTextEntry> detect(ImageBuffer image) throws PhotoDetectionException {
+    ImmutableList<ShoppingListTextEntry> shoppingListText =
+        cache.get(image, () -> ImmutableList.copyOf(textDetectionAPI.detect(image)));
+
+    // Callers are free to modify the returned list, so do not hand out the cached one.
+    return new ArrayList<>(shoppingListText);
+  }
+}
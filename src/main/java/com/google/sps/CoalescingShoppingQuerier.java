@@ -0,0 +1,139 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.sps.data.Product;
+import com.google.sps.data.ShoppingQueryInput;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wraps a ShoppingQuerier, so that concurrent callers searching for the same query share a single
+ * search, e.g. when many users scan the same barcode at once.
+ *
+ * The shared search runs on its own thread rather than on the thread of the first caller, so
+ * that a caller giving up, e.g. a query cancelled by ParallelShoppingQuerier once past its
+ * deadline, only stops its own wait, and the other callers still get the result. Only when its
+ * bounded executor is full does a search run on the thread of its first caller.
+ */
+public class CoalescingShoppingQuerier implements ShoppingQuerier {
+  private static final int DEFAULT_THREAD_COUNT = 8;
+  private static final long KEEP_ALIVE_SECONDS = 60;
+
+  private static ExecutorService sharedExecutor;
+
+  private final ShoppingQuerier querier;
+  // Null to run the searches on the executor shared by all requests.
+  private final ExecutorService executor;
+  private final SingleFlight<String, List<Product>> singleFlight = new SingleFlight<>();
+
+  /** Creates a querier running the shared searches on the executor shared by all requests. */
+  public CoalescingShoppingQuerier(ShoppingQuerier querier) {
+    this(querier, null);
+  }
+
+  public CoalescingShoppingQuerier(ShoppingQuerier querier, ExecutorService executor) {
+    this.querier = querier;
+    this.executor = executor;
+  }
+
+  /**
+   * Returns the executor shared by all requests, with as many threads as ParallelShoppingQuerier,
+   * set by the "sps.shopping.queryThreads" system property.
+   */
+  public static synchronized ExecutorService getSharedExecutor() {
+    if (sharedExecutor == null) {
+      sharedExecutor =
+          createBoundedExecutor(
+              Integer.getInteger("sps.shopping.queryThreads", DEFAULT_THREAD_COUNT));
+    }
+    return sharedExecutor;
+  }
+
+  /**
+   * Creates an executor running at most {@code threadCount} searches, with as many more waiting.
+   *
+   * A search keeps running after its callers time out, so an executor creating threads as needed
+   * would grow with the request rate while the shopping site is slow. Once this one is full, the
+   * search runs on the thread of its caller instead, which slows the callers down rather than
+   * adding threads.
+   */
+  static ThreadPoolExecutor createBoundedExecutor(int threadCount) {
+    ThreadPoolExecutor boundedExecutor =
+        new ThreadPoolExecutor(
+            threadCount,
+            threadCount,
+            KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(threadCount),
+            new ThreadFactoryBuilder()
+                .setNameFormat("coalesced-shopping-query-%d")
+                .setDaemon(true)
+                .build(),
+            (search, pool) -> {
+              // Unlike CallerRunsPolicy, which drops the search once the executor is shut down
+              // and leaves its callers waiting forever.
+              if (pool.isShutdown()) {
+                throw new RejectedExecutionException("The shopping query executor is shut down.");
+              }
+              search.run();
+            });
+    boundedExecutor.allowCoreThreadTimeOut(true);
+    return boundedExecutor;
+  }
+
+  /** Stops the shared executor, if it was created. Called when the application stops. */
+  public static synchronized void shutdownSharedExecutor() {
+    if (sharedExecutor != null) {
+      sharedExecutor.shutdownNow();
+      sharedExecutor = null;
+    }
+  }
+
+  public List<Product> query(ShoppingQueryInput shoppingQueryInput)
+      throws IOException, ShoppingQuerierConnectionException {
+    try {
+      return singleFlight
+          .executeAsync(
+              GoogleShoppingQuerier.getCanonicalKey(shoppingQueryInput),
+              () -> querier.query(shoppingQueryInput),
+              executor != null ? executor : getSharedExecutor())
+          .get();
+    } catch (InterruptedException exception) {
+      // Only this caller stops waiting; the search goes on for the others.
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for the shopping query.");
+    } catch (ExecutionException exception) {
+      // Re-throw the exception thrown by the query.
+      Throwables.propagateIfPossible(
+          exception.getCause(), IOException.class, ShoppingQuerierConnectionException.class);
+      throw new IllegalStateException(exception.getCause());
+    }
+  }
+
+  /** Returns the number of queries that shared a search already in flight. */
+  public long getCoalescedQueryCount() {
+    return singleFlight.getCoalescedCallCount();
+  }
+}
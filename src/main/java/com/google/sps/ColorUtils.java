@@ -15,10 +15,14 @@
 package com.google.sps;
 
 import com.google.auto.value.AutoValue;
+import com.google.cloud.vision.v1.ColorInfo;
+import com.google.cloud.vision.v1.DominantColorsAnnotation;
 import com.google.common.collect.ImmutableList;
 
 import java.awt.Color;
 
+import java.util.Locale;
+
 /**
  * Utility class for converting RGB color values to color name.
  */
@@ -80,30 +84,167 @@ public class ColorUtils {
           ColorName.create("White", 0xFF, 0xFF, 0xFF),
           ColorName.create("Yellow", 0xFF, 0xFF, 0x00));
 
+  /** Distance used to find the closest known color to a query color. */
+  public enum ColorDistance {
+    /** Euclidean distance between the RGB values. */
+    RGB,
+    /**
+     * Euclidean distance between the CIELAB values (CIE76 delta E), which follows the perceived
+     * difference between colors more closely.
+     */
+    CIELAB
+  }
+
+  // Number of bits kept from each RGB channel to index the lookup tables, which therefore have
+  // one entry for each of the 2^15 = 32768 quantized colors.
+  private static final int CHANNEL_BITS = 5;
+  private static final int DROPPED_BITS = 8 - CHANNEL_BITS;
+  private static final int LOOKUP_TABLE_SIZE = 1 << (3 * CHANNEL_BITS);
+
+  // CIELAB values of the known colors, in the order of {@code COLOR_LIST}.
+  private static final double[][] COLOR_LIST_LAB = getColorListLab();
+
+  // For each quantized color, the index in {@code COLOR_LIST} of the closest known color to the
+  // center of the quantized color, for each distance. Built once, when the class is loaded.
+  private static final byte[] RGB_LOOKUP_TABLE = buildLookupTable(ColorDistance.RGB);
+  private static final byte[] CIELAB_LOOKUP_TABLE = buildLookupTable(ColorDistance.CIELAB);
+
+  // Distance used when none is given, set by the "sps.color.distance" system property.
+  private static final ColorDistance DEFAULT_COLOR_DISTANCE =
+      ColorDistance.valueOf(System.getProperty("sps.color.distance", "rgb").toUpperCase(Locale.ROOT));
+
   /**
-   * Returns the color name of the closest color (to the query color provided as RGB).
-   * To find the closest color, gets the color list, and then computes the distance between 
-   * the query color and every color in the color list, based on their RGB values.
+   * Returns the color name of the closest color (to the query color provided as RGB), based on
+   * the distance set by the "sps.color.distance" system property, RGB by default.
    */
   public static String getColorNameFromRGB(int r, int g, int b) throws IllegalArgumentException {
-    if (!(0 < r && r < 255) || !(0 < g && g < 255) || !(0 < b && b < 255)) {
+    return getColorNameFromRGB(r, g, b, DEFAULT_COLOR_DISTANCE);
+  }
+
+  /**
+   * Returns the color name of the closest color (to the query color provided as RGB), based on
+   * {@code distance}. The closest color is looked up in a precomputed table, where each RGB
+   * channel is quantized to 5 bits, so the answer takes constant time and allocates nothing.
+   */
+  public static String getColorNameFromRGB(int r, int g, int b, ColorDistance distance)
+      throws IllegalArgumentException {
+    if (!(0 <= r && r <= 255) || !(0 <= g && g <= 255) || !(0 <= b && b <= 255)) {
       throw new IllegalArgumentException("RGB values outside [0, 255] range.");
     }
-    
-    // Get the color name of the color with minimum RGB distance to the query color.
-    ColorName closestColorMatch = null;
 
-    double minRGBDistance = Double.MAX_VALUE;
-    for (ColorName color : COLOR_LIST) {
-      double currentRGBDistance = color.computeRGBDistance(r, g, b);
+    byte[] lookupTable = distance == ColorDistance.CIELAB ? CIELAB_LOOKUP_TABLE : RGB_LOOKUP_TABLE;
+    int quantizedColor =
+        (r >> DROPPED_BITS) << (2 * CHANNEL_BITS)
+            | (g >> DROPPED_BITS) << CHANNEL_BITS
+            | (b >> DROPPED_BITS);
+    return COLOR_LIST.get(lookupTable[quantizedColor]).getName();
+  }
+
+  /**
+   * Returns the color names of the dominant colors detected by Cloud Vision API, in the same
+   * order.
+   */
+  public static ImmutableList<String> getColorNames(DominantColorsAnnotation dominantColors)
+      throws IllegalArgumentException {
+    ImmutableList.Builder<String> colorNames = ImmutableList.builder();
+    for (ColorInfo colorInfo : dominantColors.getColorsList()) {
+      com.google.type.Color color = colorInfo.getColor();
+      colorNames.add(
+          getColorNameFromRGB((int) color.getRed(), (int) color.getGreen(), (int) color.getBlue()));
+    }
+    return colorNames.build();
+  }
+
+  /**
+   * Returns the color name of the closest color (to the query color provided as RGB), computing
+   * the distance between the query color and every color in the color list. Used to build the
+   * lookup tables.
+   */
+  static String findClosestColorName(int r, int g, int b, ColorDistance distance) {
+    return COLOR_LIST.get(findClosestColorIndex(r, g, b, distance)).getName();
+  }
+
+  private static int findClosestColorIndex(int r, int g, int b, ColorDistance distance) {
+    double[] queryLab = distance == ColorDistance.CIELAB ? toLab(r, g, b) : null;
+
+    int closestColorIndex = 0;
+    double minDistance = Double.MAX_VALUE;
+    for (int i = 0; i < COLOR_LIST.size(); i++) {
+      double currentDistance;
+      if (distance == ColorDistance.CIELAB) {
+        double[] colorLab = COLOR_LIST_LAB[i];
+        currentDistance = Math.sqrt(
+            Math.pow(queryLab[0] - colorLab[0], 2)
+                + Math.pow(queryLab[1] - colorLab[1], 2)
+                + Math.pow(queryLab[2] - colorLab[2], 2));
+      } else {
+        currentDistance = COLOR_LIST.get(i).computeRGBDistance(r, g, b);
+      }
 
-      if (currentRGBDistance < minRGBDistance) {
-        minRGBDistance = currentRGBDistance;
-        closestColorMatch = color;
+      if (currentDistance < minDistance) {
+        minDistance = currentDistance;
+        closestColorIndex = i;
       }
     }
-    
-    return closestColorMatch.getName();
+    return closestColorIndex;
+  }
+
+  private static byte[] buildLookupTable(ColorDistance distance) {
+    byte[] lookupTable = new byte[LOOKUP_TABLE_SIZE];
+    int channelLevels = 1 << CHANNEL_BITS;
+    // Center of a quantized channel value, in the original 8 bit range.
+    int halfStep = 1 << (DROPPED_BITS - 1);
+    for (int quantizedR = 0; quantizedR < channelLevels; quantizedR++) {
+      for (int quantizedG = 0; quantizedG < channelLevels; quantizedG++) {
+        for (int quantizedB = 0; quantizedB < channelLevels; quantizedB++) {
+          int closestColorIndex = findClosestColorIndex(
+              (quantizedR << DROPPED_BITS) + halfStep,
+              (quantizedG << DROPPED_BITS) + halfStep,
+              (quantizedB << DROPPED_BITS) + halfStep,
+              distance);
+          lookupTable[quantizedR << (2 * CHANNEL_BITS) | quantizedG << CHANNEL_BITS | quantizedB] =
+              (byte) closestColorIndex;
+        }
+      }
+    }
+    return lookupTable;
+  }
+
+  private static double[][] getColorListLab() {
+    double[][] colorListLab = new double[COLOR_LIST.size()][];
+    for (int i = 0; i < COLOR_LIST.size(); i++) {
+      ColorName color = COLOR_LIST.get(i);
+      colorListLab[i] = toLab(color.getR(), color.getG(), color.getB());
+    }
+    return colorListLab;
+  }
+
+  /**
+   * Returns the CIELAB value, as {L, a, b}, of the sRGB color, under the D65 illuminant.
+   */
+  static double[] toLab(int r, int g, int b) {
+    double linearR = toLinearRGB(r);
+    double linearG = toLinearRGB(g);
+    double linearB = toLinearRGB(b);
+
+    // Convert to CIE XYZ, relative to the D65 white point.
+    double x = (0.4124564 * linearR + 0.3575761 * linearG + 0.1804375 * linearB) / 0.95047;
+    double y = (0.2126729 * linearR + 0.7151522 * linearG + 0.0721750 * linearB);
+    double z = (0.0193339 * linearR + 0.1191920 * linearG + 0.9503041 * linearB) / 1.08883;
+
+    double fx = toLabComponent(x);
+    double fy = toLabComponent(y);
+    double fz = toLabComponent(z);
+    return new double[] {116 * fy - 16, 500 * (fx - fy), 200 * (fy - fz)};
+  }
+
+  private static double toLinearRGB(int channel) {
+    double value = channel / 255.0;
+    return value <= 0.04045 ? value / 12.92 : Math.pow((value + 0.055) / 1.055, 2.4);
+  }
+
+  private static double toLabComponent(double t) {
+    return t > 216.0 / 24389 ? Math.cbrt(t) : (24389.0 / 27 * t + 16) / 116;
   }
   
   /**
@@ -0,0 +1,75 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.cloud.vision.v1.AnnotateImageRequest;
+import com.google.cloud.vision.v1.AnnotateImageResponse;
+import com.google.cloud.vision.v1.DominantColorsAnnotation;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Uses Cloud Vision API to detect the labels, logos, dominant colors and text of a photo at once.
+ * Given a {@link DominantColorExtractor}, the dominant colors are instead extracted locally, and
+ * added to the response as if detected by Cloud Vision API.
+ */
+public class CombinedDetectionAPIImpl implements CombinedDetectionAPI {
+  private final ImagePreprocessor imagePreprocessor;
+  // Null if the dominant colors are detected by Cloud Vision API.
+  private final DominantColorExtractor dominantColorExtractor;
+
+  public CombinedDetectionAPIImpl() {
+    // Text detection needs the most pixels of the features requested.
+    this(ImagePreprocessor.forTextDetection(), DominantColorExtractor.createIfConfigured());
+  }
+
+  public CombinedDetectionAPIImpl(ImagePreprocessor imagePreprocessor) {
+    this(imagePreprocessor, null);
+  }
+
+  public CombinedDetectionAPIImpl(
+      ImagePreprocessor imagePreprocessor, DominantColorExtractor dominantColorExtractor) {
+    this.imagePreprocessor = imagePreprocessor;
+    this.dominantColorExtractor = dominantColorExtractor;
+  }
+
+  public AnnotateImageResponse detect(ImageBuffer image) throws PhotoDetectionException {
+    // Scale the image down to the resolution needed to read the text.
+    ImageBuffer preprocessedImage = imagePreprocessor.preprocess(image);
+    CompletableFuture<DominantColorsAnnotation> dominantColors =
+        dominantColorExtractor == null
+            ? null
+            : dominantColorExtractor.extractAsync(preprocessedImage);
+    AnnotateImageRequest request =
+        AnnotateImageRequest.newBuilder()
+            .addAllFeatures(
+                dominantColors == null
+                    ? Constants.AUTO_DETECTION_FEATURES
+                    : Constants.LOCAL_COLOR_AUTO_DETECTION_FEATURES)
+            .setImage(PhotoShoppingUtil.getImageFromBuffer(preprocessedImage))
+            .build();
+
+    // Sent in a single call with the requests of concurrent uploads.
+    AnnotateImageResponse response = VisionBatchDispatcher.getInstance().annotate(request);
+
+    if (response.hasError()) {
+      throw new PhotoDetectionException(response.getError().getMessage());
+    }
+    if (dominantColors != null) {
+      response = DominantColorExtractor.withDominantColors(response, dominantColors.join());
+    }
+    return response;
+  }
+}
@@ -15,8 +15,72 @@
 package com.google.sps;
 
 import com.google.cloud.vision.v1.Feature;
+import com.google.common.collect.ImmutableList;
 
 public class Constants {
+  // Number of labels, from the most confident one, checked for text labels when the category of
+  // the photo is not known.
+  public static final int AUTO_DETECTION_CHECKED_LABELS_NUMBER = 3;
+
+  // Fields of the Cloud Vision API responses read when building the queries, in the format of
+  // the "x-goog-fieldmask" header. Cloud Vision API leaves out every other field, such as the
+  // full text annotation, which holds the position of every symbol of the text.
+  public static final String RESPONSE_FIELD_MASK =
+      String.join(
+          ",",
+          "responses.error",
+          "responses.labelAnnotations.description",
+          "responses.logoAnnotations.description",
+          "responses.imagePropertiesAnnotation.dominantColors.colors.color",
+          "responses.textAnnotations.description",
+          "responses.textAnnotations.boundingPoly.vertices");
+
+  // Cloud Vision API returns at most maxResults annotations of each feature, and ignores it for
+  // text detection, which always returns every word.
   public static final Feature TEXT_DETECTION_FEATURE =
       Feature.newBuilder().setType(Feature.Type.TEXT_DETECTION).build();
+
+  // The query of a product photo holds its first label, logo and dominant color only.
+  public static final Feature LABEL_DETECTION_FEATURE =
+      Feature.newBuilder().setType(Feature.Type.LABEL_DETECTION).setMaxResults(1).build();
+
+  public static final Feature LOGO_DETECTION_FEATURE =
+      Feature.newBuilder().setType(Feature.Type.LOGO_DETECTION).setMaxResults(1).build();
+
+  public static final Feature IMAGE_PROPERTIES_FEATURE =
+      Feature.newBuilder().setType(Feature.Type.IMAGE_PROPERTIES).setMaxResults(1).build();
+
+  // The category of a photo is told by its first few labels.
+  public static final Feature AUTO_LABEL_DETECTION_FEATURE =
+      Feature.newBuilder()
+          .setType(Feature.Type.LABEL_DETECTION)
+          .setMaxResults(AUTO_DETECTION_CHECKED_LABELS_NUMBER)
+          .build();
+
+  // Features requested for a product photo.
+  public static final ImmutableList<Feature> PRODUCT_DETECTION_FEATURES =
+      ImmutableList.of(LABEL_DETECTION_FEATURE, LOGO_DETECTION_FEATURE, IMAGE_PROPERTIES_FEATURE);
+
+  // Features requested for a product photo whose dominant colors are extracted locally.
+  public static final ImmutableList<Feature> LOCAL_COLOR_PRODUCT_DETECTION_FEATURES =
+      ImmutableList.of(LABEL_DETECTION_FEATURE, LOGO_DETECTION_FEATURE);
+
+  // Features requested for a shopping list photo.
+  public static final ImmutableList<Feature> TEXT_DETECTION_FEATURES =
+      ImmutableList.of(TEXT_DETECTION_FEATURE);
+
+  // Features requested for a photo whose category is not known, so that it can be searched
+  // either as a product or as a shopping list.
+  public static final ImmutableList<Feature> AUTO_DETECTION_FEATURES =
+      ImmutableList.of(
+          AUTO_LABEL_DETECTION_FEATURE,
+          LOGO_DETECTION_FEATURE,
+          IMAGE_PROPERTIES_FEATURE,
+          TEXT_DETECTION_FEATURE);
+
+  // Features requested for a photo whose category is not known, and whose dominant colors are
+  // extracted locally.
+  public static final ImmutableList<Feature> LOCAL_COLOR_AUTO_DETECTION_FEATURES =
+      ImmutableList.of(
+          AUTO_LABEL_DETECTION_FEATURE, LOGO_DETECTION_FEATURE, TEXT_DETECTION_FEATURE);
 }
@@ -0,0 +1,378 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.cloud.vision.v1.AnnotateImageResponse;
+import com.google.cloud.vision.v1.ColorInfo;
+import com.google.cloud.vision.v1.DominantColorsAnnotation;
+import com.google.cloud.vision.v1.ImageProperties;
+import com.google.type.Color;
+
+import java.awt.image.BufferedImage;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Extracts the dominant colors of a photo locally, in the form Cloud Vision API returns them for
+ * the IMAGE_PROPERTIES feature, so that product photos need not request that feature.
+ *
+ * The photo is read subsampled to a few hundred pixels, and the colors of its pixels are counted
+ * in a histogram, each channel quantized to 4 bits. The rows of the photo are split in tiles,
+ * counted concurrently and then summed. The fullest bins are grouped with the close bins, and
+ * each group gives a dominant color: the average color of its pixels, scored by the fraction of
+ * the pixels it holds.
+ */
+public class DominantColorExtractor {
+  private static final int DEFAULT_MAX_EDGE = 256;
+  // The IMAGE_PROPERTIES feature is requested for at most 5 colors.
+  private static final int DEFAULT_MAX_COLORS = 5;
+  private static final int CHANNEL_BITS = 4;
+  private static final int DROPPED_BITS = 8 - CHANNEL_BITS;
+  private static final int BIN_COUNT = 1 << (3 * CHANNEL_BITS);
+  // Each bin holds the number of pixels and the sums of their red, green and blue channels.
+  private static final int BIN_FIELDS = 4;
+  // Number of rows of pixels counted by each tile.
+  private static final int TILE_ROWS = 32;
+  // Bins whose average colors are closer than this, in RGB distance, form a single color.
+  private static final double MERGE_DISTANCE = 40;
+  // Pixels more transparent than this are not counted.
+  private static final int MIN_ALPHA = 128;
+
+  /** Where the dominant colors of the product photos come from. */
+  public enum ColorMode {
+    /** Requested from Cloud Vision API, with the IMAGE_PROPERTIES feature. */
+    REMOTE,
+    /** Extracted locally, while Cloud Vision API detects the labels and logos. */
+    LOCAL
+  }
+
+  private static ForkJoinPool sharedPool;
+
+  private final ForkJoinPool pool;
+  private final int maxEdge;
+  private final int maxColors;
+  private final AtomicLong extractionCount = new AtomicLong();
+  private final AtomicLong failureCount = new AtomicLong();
+  private final AtomicLong extractionNanos = new AtomicLong();
+
+  /**
+   * @param pool      the pool counting the tiles of the photos.
+   * @param maxEdge   the maximum length, in pixels, of the longest edge of the photos read.
+   * @param maxColors the maximum number of dominant colors extracted.
+   */
+  public DominantColorExtractor(ForkJoinPool pool, int maxEdge, int maxColors) {
+    this.pool = pool;
+    this.maxEdge = maxEdge;
+    this.maxColors = maxColors;
+  }
+
+  /**
+   * Creates an extractor counting on the pool shared by all requests, reading the photos
+   * subsampled to the longest edge set by the "sps.vision.color.maxEdge" system property.
+   */
+  public static DominantColorExtractor create() {
+    return new DominantColorExtractor(
+        getSharedPool(),
+        Integer.getInteger("sps.vision.color.maxEdge", DEFAULT_MAX_EDGE),
+        DEFAULT_MAX_COLORS);
+  }
+
+  /**
+   * Returns an extractor if the "sps.vision.colorMode" system property is "local", or null if it
+   * is "remote", the default, in which case the colors are requested from Cloud Vision API.
+   */
+  public static DominantColorExtractor createIfConfigured() {
+    ColorMode colorMode =
+        ColorMode.valueOf(
+            System.getProperty("sps.vision.colorMode", "remote").toUpperCase(Locale.ROOT));
+    return colorMode == ColorMode.LOCAL ? create() : null;
+  }
+
+  /**
+   * Returns the pool shared by all requests, whose number of threads is set by the
+   * "sps.vision.color.threads" system property, by default one per processor.
+   */
+  public static synchronized ForkJoinPool getSharedPool() {
+    if (sharedPool == null) {
+      sharedPool =
+          new ForkJoinPool(
+              Integer.getInteger(
+                  "sps.vision.color.threads", Runtime.getRuntime().availableProcessors()),
+              pool -> {
+                ForkJoinWorkerThread thread =
+                    ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("dominant-color-" + thread.getPoolIndex());
+                return thread;
+              },
+              null,
+              false);
+    }
+    return sharedPool;
+  }
+
+  /** Stops the threads of the shared pool. */
+  public static synchronized void shutdownSharedPool() {
+    if (sharedPool != null) {
+      sharedPool.shutdownNow();
+      sharedPool = null;
+    }
+  }
+
+  /**
+   * Starts extracting the dominant colors of the photo on the pool, and returns them, from the
+   * most dominant, once extracted. A photo which cannot be read has no dominant colors, as the
+   * colors only refine the shopping query.
+   */
+  public CompletableFuture<DominantColorsAnnotation> extractAsync(ImageBuffer image) {
+    return CompletableFuture.supplyAsync(() -> extract(image), pool);
+  }
+
+  /** Extracts the dominant colors of the photo, from the most dominant. */
+  public DominantColorsAnnotation extract(ImageBuffer image) {
+    long startNanos = System.nanoTime();
+    extractionCount.incrementAndGet();
+    try {
+      BufferedImage bufferedImage;
+      try {
+        bufferedImage = readSubsampledImage(image);
+      } catch (IOException | RuntimeException e) {
+        failureCount.incrementAndGet();
+        return DominantColorsAnnotation.getDefaultInstance();
+      }
+      return toDominantColors(countColors(bufferedImage));
+    } finally {
+      extractionNanos.addAndGet(System.nanoTime() - startNanos);
+    }
+  }
+
+  /**
+   * Returns the response of Cloud Vision API with the dominant colors extracted locally, as if
+   * they had been detected by Cloud Vision API.
+   */
+  static AnnotateImageResponse withDominantColors(
+      AnnotateImageResponse response, DominantColorsAnnotation dominantColors) {
+    return response.toBuilder()
+        .setImagePropertiesAnnotation(
+            ImageProperties.newBuilder().setDominantColors(dominantColors))
+        .build();
+  }
+
+  /** Returns the number of photos whose dominant colors were extracted. */
+  public long getExtractionCount() {
+    return extractionCount.get();
+  }
+
+  /** Returns the number of photos which could not be read. */
+  public long getFailureCount() {
+    return failureCount.get();
+  }
+
+  /** Returns the time, in milliseconds, spent extracting the dominant colors. */
+  public double getExtractionMillis() {
+    return extractionNanos.get() / 1e6;
+  }
+
+  /**
+   * Reads the image, keeping only every n-th pixel of every n-th row, so that its longest edge
+   * is at most {@code maxEdge} pixels.
+   */
+  private BufferedImage readSubsampledImage(ImageBuffer image) throws IOException {
+    try (ImageInputStream imageInputStream = image.newImageInputStream()) {
+      Iterator<ImageReader> imageReaders = ImageIO.getImageReaders(imageInputStream);
+      if (!imageReaders.hasNext()) {
+        throw new IOException("Unsupported image format.");
+      }
+
+      ImageReader imageReader = imageReaders.next();
+      try {
+        imageReader.setInput(imageInputStream, true, true);
+        int longestEdge = Math.max(imageReader.getWidth(0), imageReader.getHeight(0));
+        int subsampling = (longestEdge - 1) / maxEdge + 1;
+
+        ImageReadParam imageReadParam = imageReader.getDefaultReadParam();
+        if (subsampling > 1) {
+          imageReadParam.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        }
+        return imageReader.read(0, imageReadParam);
+      } finally {
+        imageReader.dispose();
+      }
+    }
+  }
+
+  /**
+   * Returns the color histogram of the image, counting each tile of rows in its own task, run
+   * on the pool, and summing the tiles.
+   */
+  private long[] countColors(BufferedImage image) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+
+    List<ForkJoinTask<long[]>> tiles = new ArrayList<>();
+    for (int startRow = 0; startRow < height; startRow += TILE_ROWS) {
+      int start = startRow * width;
+      int end = Math.min(height, startRow + TILE_ROWS) * width;
+      tiles.add(ForkJoinTask.adapt(() -> countColors(pixels, start, end)));
+    }
+    // Run on the pool even when called from another thread, so that the tiles are counted by
+    // the pool threads.
+    if (ForkJoinTask.inForkJoinPool()) {
+      ForkJoinTask.invokeAll(tiles);
+    } else {
+      tiles.forEach(pool::execute);
+    }
+
+    long[] histogram = new long[BIN_COUNT * BIN_FIELDS];
+    for (ForkJoinTask<long[]> tile : tiles) {
+      long[] tileHistogram = tile.join();
+      for (int i = 0; i < histogram.length; i++) {
+        histogram[i] += tileHistogram[i];
+      }
+    }
+    return histogram;
+  }
+
+  private static long[] countColors(int[] pixels, int start, int end) {
+    long[] histogram = new long[BIN_COUNT * BIN_FIELDS];
+    for (int i = start; i < end; i++) {
+      int pixel = pixels[i];
+      if ((pixel >>> 24) < MIN_ALPHA) {
+        continue;
+      }
+      int r = pixel >> 16 & 0xFF;
+      int g = pixel >> 8 & 0xFF;
+      int b = pixel & 0xFF;
+      int bin =
+          ((r >> DROPPED_BITS) << (2 * CHANNEL_BITS)
+                  | (g >> DROPPED_BITS) << CHANNEL_BITS
+                  | (b >> DROPPED_BITS))
+              * BIN_FIELDS;
+      histogram[bin]++;
+      histogram[bin + 1] += r;
+      histogram[bin + 2] += g;
+      histogram[bin + 3] += b;
+    }
+    return histogram;
+  }
+
+  /**
+   * Groups the bins of the histogram, from the fullest, with the group whose average color is
+   * close to theirs, if any, and returns the average color of the fullest groups.
+   */
+  private DominantColorsAnnotation toDominantColors(long[] histogram) {
+    List<Integer> bins = new ArrayList<>();
+    long pixelCount = 0;
+    for (int bin = 0; bin < BIN_COUNT; bin++) {
+      long binPixelCount = histogram[bin * BIN_FIELDS];
+      if (binPixelCount > 0) {
+        bins.add(bin);
+        pixelCount += binPixelCount;
+      }
+    }
+    bins.sort(Comparator.comparingLong((Integer bin) -> histogram[bin * BIN_FIELDS]).reversed());
+
+    List<ColorGroup> groups = new ArrayList<>();
+    for (int bin : bins) {
+      int offset = bin * BIN_FIELDS;
+      ColorGroup binGroup =
+          new ColorGroup(
+              histogram[offset], histogram[offset + 1], histogram[offset + 2],
+              histogram[offset + 3]);
+      ColorGroup closestGroup = null;
+      double closestDistance = MERGE_DISTANCE;
+      for (ColorGroup group : groups) {
+        double distance = group.distanceTo(binGroup);
+        if (distance < closestDistance) {
+          closestDistance = distance;
+          closestGroup = group;
+        }
+      }
+      if (closestGroup != null) {
+        closestGroup.add(binGroup);
+      } else if (groups.size() < maxColors) {
+        groups.add(binGroup);
+      }
+    }
+    groups.sort(Comparator.comparingLong((ColorGroup group) -> group.pixelCount).reversed());
+
+    DominantColorsAnnotation.Builder dominantColors = DominantColorsAnnotation.newBuilder();
+    for (ColorGroup group : groups) {
+      float pixelFraction = (float) group.pixelCount / pixelCount;
+      dominantColors.addColors(
+          ColorInfo.newBuilder()
+              .setColor(
+                  Color.newBuilder()
+                      .setRed(group.getAverage(group.redSum))
+                      .setGreen(group.getAverage(group.greenSum))
+                      .setBlue(group.getAverage(group.blueSum)))
+              .setScore(pixelFraction)
+              .setPixelFraction(pixelFraction));
+    }
+    return dominantColors.build();
+  }
+
+  /** Pixels of close colors, counted with the sums of their channels. */
+  private static final class ColorGroup {
+    private long pixelCount;
+    private long redSum;
+    private long greenSum;
+    private long blueSum;
+
+    ColorGroup(long pixelCount, long redSum, long greenSum, long blueSum) {
+      this.pixelCount = pixelCount;
+      this.redSum = redSum;
+      this.greenSum = greenSum;
+      this.blueSum = blueSum;
+    }
+
+    void add(ColorGroup other) {
+      pixelCount += other.pixelCount;
+      redSum += other.redSum;
+      greenSum += other.greenSum;
+      blueSum += other.blueSum;
+    }
+
+    /** Returns the RGB distance between the average colors of the groups. */
+    double distanceTo(ColorGroup other) {
+      double redDistance = getAverage(redSum) - other.getAverage(other.redSum);
+      double greenDistance = getAverage(greenSum) - other.getAverage(other.greenSum);
+      double blueDistance = getAverage(blueSum) - other.getAverage(other.blueSum);
+      return Math.sqrt(
+          redDistance * redDistance + greenDistance * greenDistance + blueDistance * blueDistance);
+    }
+
+    /** Returns the average of a channel, rounded as the color names are looked up by integer. */
+    float getAverage(long channelSum) {
+      return Math.round((float) channelSum / pixelCount);
+    }
+  }
+}
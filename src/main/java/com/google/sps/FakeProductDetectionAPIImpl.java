@@ -33,7 +33,7 @@ public class FakeProductDetectionAPIImpl implements ProductDetectionAPI {
     this.photoDetectionException = photoDetectionException;
   }
 
-  public ProductDetectionData detectProductPhotoContent(byte[] imageBytes) 
+  public ProductDetectionData detectProductPhotoContent(ImageBuffer image) 
       throws PhotoDetectionException {
     if (photoDetectionException != null) {
       throw this.photoDetectionException;
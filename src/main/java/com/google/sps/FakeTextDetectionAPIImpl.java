@@ -50,7 +50,7 @@ public class FakeTextDetectionAPIImpl implements TextDetectionAPI {
     this.photoDetectionException = photoDetectionException;
   }
 
-  public List<ShoppingListTextEntry> detect(byte[] imageBytes) throws PhotoDetectionException {
+  public List<ShoppingListTextEntry> detect(ImageBuffer image) throws PhotoDetectionException {
     if (photoDetectionException != null) {
       throw this.photoDetectionException;
     }
@@ -17,22 +17,19 @@ package com.google.sps;
 import com.google.sps.data.Product;
 import com.google.sps.data.ShoppingQueryInput;
 
-import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.SocketTimeoutException;
-import org.jsoup.HttpStatusException;
-import org.jsoup.UnsupportedMimeTypeException;
+import com.google.common.io.ByteStreams;
 
-import org.jsoup.Connection.Response;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 
 import java.util.List;
+import java.util.Locale;
 
 /** 
  * Queries Google Shopping with the given input.
  */
-public class GoogleShoppingQuerier {
+public class GoogleShoppingQuerier implements ShoppingQuerier {
 
   // The parameters for {@code GOOGLE_SEARCH_BASE_URL} define the following:
   // "tbm" defines the type of search;
@@ -42,6 +39,26 @@ public class GoogleShoppingQuerier {
   private final String GOOGLE_SEARCH_BASE_URL =
       "https://www.google.com/search?tbm=shop&tbs=vw:l&safe=active";
 
+  private static final long DEFAULT_MAX_BODY_BYTES = 4 * 1024 * 1024;
+
+  private final ShoppingHttpClient httpClient;
+  private final long maxBodyBytes;
+
+  /**
+   * Creates a querier fetching the results pages with the HTTP client shared by all requests, and
+   * reading at most "sps.shopping.maxBodyBytes" of each page.
+   */
+  public GoogleShoppingQuerier() {
+    this(
+        ShoppingHttpClient.getInstance(),
+        Long.getLong("sps.shopping.maxBodyBytes", DEFAULT_MAX_BODY_BYTES));
+  }
+
+  public GoogleShoppingQuerier(ShoppingHttpClient httpClient, long maxBodyBytes) {
+    this.httpClient = httpClient;
+    this.maxBodyBytes = maxBodyBytes;
+  }
+
   /** 
    * Scrapes Google Shopping based on the input and returns the results.
    * @param ShoppingQueryInput object, containing fields for the values of search parameters.
@@ -50,14 +67,14 @@ public class GoogleShoppingQuerier {
     // Get the query to be searched and check for validity.
     String shoppingQuery = shoppingQueryInput.getShoppingQuery();
 
-    if (!isValidShoppingQuery(shoppingQuery)) {
+    // Clean the query and encode it for {@code searchURL}, checking that it is valid.
+    String encodedQuery = QueryNormalizer.toUrlParameter(shoppingQuery);
+    if (encodedQuery == null) {
       throw new IllegalArgumentException("Invalid Shopping query.");
     }
+    // TO DO: Check if the query defines something that cannot be purchased.
 
-    // Clean the valid query input before building {@code searchURL}.
-    shoppingQuery = polishShoppingQuery(shoppingQuery);
-
-    String query = "q=" + shoppingQuery;
+    String query = "q=" + encodedQuery;
     // "num" parameter defines the maximum number of results to return.
     String maxResultsNumber = "num=" + String.valueOf(shoppingQueryInput.getMaxResultsNumber());
       // "hl" parameter defines the language to use for the Google search.
@@ -65,60 +82,32 @@ public class GoogleShoppingQuerier {
     
     String searchURL = GOOGLE_SEARCH_BASE_URL + "&" + query + "&" + language + "&" + maxResultsNumber;
 
-    Response response = null;
-    
-    try {
-      // Get the Connection for fetching content from the {@code searchURL}.
-      response = Jsoup.connect(searchURL)
-          .userAgent("Mozilla/5.0")
-          .execute();
-    } catch (MalformedURLException | 
-             HttpStatusException | 
-             UnsupportedMimeTypeException | 
-             SocketTimeoutException exception) {
-      // Re-throw the exception via ShoppingQuerierConnectionException custom exception.
-      throw new ShoppingQuerierConnectionException(
-          "Failed to fetch from Google Search.", exception);
-    } catch (IOException exception) {
-      // Re-throw IOException.
-      throw exception;
-    }
-
-    // Here, after handling the exceptions, response.statusCode() is 200.
-    // Parse the response object to obtain the document.
-    Document doc = response.parse();
-
-    // Extract product info from the document.
+    // Fetch the results page over a pooled connection and extract product info from it while it
+    // is being read, reading at most {@code maxBodyBytes} of it and stopping once enough products
+    // are extracted. Failing to connect or to get the page is re-thrown as
+    // ShoppingQuerierConnectionException.
     ProductListExtractor productListExtractor = new ProductListExtractor();
-    List<Product> products = productListExtractor.extract(doc);
+    List<Product> products = httpClient.get(searchURL, (body, charset, url) ->
+        productListExtractor.extract(
+            new InputStreamReader(
+                ByteStreams.limit(body, maxBodyBytes),
+                charset != null ? charset : StandardCharsets.UTF_8),
+            url,
+            shoppingQueryInput.getMaxResultsNumber()));
 
     return products;
   }
 
-  /** 
-   * Checks if the query to be serched is a valid one.
-   */
-  private boolean isValidShoppingQuery(String shoppingQuery) {
-    // Return false if the string does not contain at least one letter or digit.
-    if (!shoppingQuery.matches(".*[a-zA-Z1-9].*")) {
-      return false;
-    }
-
-    // TO DO: Check if the query defines something that cannot be purchased.
-
-    return true;
-  }
-
-  /** 
-   * Prepares the query input for Google Search and returns it.
+  /**
+   * Returns a key identifying the search made for the query input, which is the same for queries
+   * only differing in letter case, spacing or special characters, as these are searched the same
+   * way.
    */
-  private String polishShoppingQuery(String shoppingQuery) {
-    shoppingQuery =
-        shoppingQuery
-            .replaceAll("\\s+", " ") // Remove duplicate spaces
-            .trim() // Remove spaces from the beginning and end of string
-            .replaceAll(" ", "%20") // Replace single space with "%20"
-            .replaceAll("[-+=,\n._^\";:~#></|!*]", ""); // Remove special characters
-    return shoppingQuery;
+  public static String getCanonicalKey(ShoppingQueryInput shoppingQueryInput) {
+    String canonicalQuery =
+        QueryNormalizer.format(shoppingQueryInput.getShoppingQuery()).toLowerCase(Locale.ROOT);
+    return canonicalQuery
+        + "&hl=" + shoppingQueryInput.getLanguage()
+        + "&num=" + shoppingQueryInput.getMaxResultsNumber();
   }
 }
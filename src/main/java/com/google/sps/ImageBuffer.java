@@ -0,0 +1,151 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.common.hash.Hashing;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageInputStreamImpl;
+
+/**
+ * Holds the bytes of an uploaded image, read once per request and handed to every detector,
+ * which view them without copying them: as the content of a Cloud Vision API request, as a stream
+ * for ImageIO, or through the digest identifying the image in the caches.
+ *
+ * The bytes are wrapped, not copied, so they must not be modified once wrapped. Buffers are not
+ * pooled, as the bytes are still referenced by the Cloud Vision API requests waiting to be sent,
+ * after a detection has given up on them.
+ */
+public final class ImageBuffer {
+  private final byte[] bytes;
+  // Computed on first use; concurrent first uses compute the same value.
+  private volatile String sha256;
+
+  private ImageBuffer(byte[] bytes) {
+    this.bytes = bytes;
+  }
+
+  /** Returns a buffer holding {@code bytes}, which are not copied and must not be modified. */
+  public static ImageBuffer wrap(byte[] bytes) {
+    return new ImageBuffer(bytes);
+  }
+
+  /** Returns the number of bytes of the image. */
+  public int size() {
+    return bytes.length;
+  }
+
+  /** Returns the bytes, as content of a protocol buffer message, without copying them. */
+  public ByteString toByteString() {
+    return UnsafeByteOperations.unsafeWrap(bytes);
+  }
+
+  /** Returns a new stream reading the bytes. */
+  public InputStream newInputStream() {
+    return new ByteArrayInputStream(bytes);
+  }
+
+  /**
+   * Returns a new stream reading the bytes for ImageIO, which, unlike the ImageIO streams wrapping
+   * an {@link InputStream}, reads them in place instead of caching a copy of them.
+   */
+  public ImageInputStream newImageInputStream() {
+    return new ArrayImageInputStream(bytes);
+  }
+
+  /** Returns the hex-encoded SHA-256 digest of the bytes, computed once. */
+  public String getSha256() {
+    String digest = sha256;
+    if (digest == null) {
+      digest = Hashing.sha256().hashBytes(bytes).toString();
+      sha256 = digest;
+    }
+    return digest;
+  }
+
+  /** Returns the wrapped bytes, for the classes of this package which only read them. */
+  byte[] array() {
+    return bytes;
+  }
+
+  /** Reads the bytes of an array, seeking to any position without buffering. */
+  private static final class ArrayImageInputStream extends ImageInputStreamImpl {
+    private final byte[] bytes;
+    private boolean closed;
+
+    ArrayImageInputStream(byte[] bytes) {
+      this.bytes = bytes;
+    }
+
+    @Override
+    public int read() throws IOException {
+      checkClosed();
+      bitOffset = 0;
+      if (streamPos >= bytes.length) {
+        return -1;
+      }
+      return bytes[(int) streamPos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] destination, int offset, int length) throws IOException {
+      checkClosed();
+      if (offset < 0 || length < 0 || offset + length > destination.length) {
+        throw new IndexOutOfBoundsException();
+      }
+      bitOffset = 0;
+      if (length == 0) {
+        return 0;
+      }
+      if (streamPos >= bytes.length) {
+        return -1;
+      }
+      int readLength = (int) Math.min(length, bytes.length - streamPos);
+      System.arraycopy(bytes, (int) streamPos, destination, offset, readLength);
+      streamPos += readLength;
+      return readLength;
+    }
+
+    @Override
+    public long length() {
+      return bytes.length;
+    }
+
+    @Override
+    public boolean isCached() {
+      return true;
+    }
+
+    @Override
+    public boolean isCachedMemory() {
+      return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+      // ImageIO.read closes the stream it reads, before the try-with-resources of its caller.
+      if (!closed) {
+        closed = true;
+        super.close();
+      }
+    }
+  }
+}
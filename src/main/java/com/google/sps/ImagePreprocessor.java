@@ -0,0 +1,362 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * Shrinks the photos sent to Cloud Vision API to the resolution the requested features need,
+ * e.g. far fewer pixels for labels and logos than for reading text, which cuts the bytes uploaded
+ * and the Cloud Vision API latency.
+ *
+ * A photo whose longest edge is above the maximum is decoded once, subsampled while being read
+ * and then scaled down to the maximum edge, turned upright according to its EXIF orientation, and
+ * re-encoded as JPEG. Photos already small enough and upright, and photos which cannot be
+ * decoded, are passed on unchanged.
+ */
+public class ImagePreprocessor {
+  private static final int DEFAULT_PRODUCT_MAX_EDGE = 640;
+  private static final int DEFAULT_TEXT_MAX_EDGE = 1600;
+  private static final float DEFAULT_JPEG_QUALITY = 0.85f;
+
+  // EXIF orientation of an image stored upright.
+  private static final int NORMAL_ORIENTATION = 1;
+  private static final int EXIF_ORIENTATION_TAG = 0x0112;
+
+  private final int maxEdge;
+  private final float jpegQuality;
+  private final AtomicLong processedImageCount = new AtomicLong();
+  private final AtomicLong skippedImageCount = new AtomicLong();
+  private final AtomicLong inputByteCount = new AtomicLong();
+  private final AtomicLong outputByteCount = new AtomicLong();
+
+  /**
+   * @param maxEdge     the maximum length, in pixels, of the longest edge of the images.
+   * @param jpegQuality the quality, between 0 and 1, of the re-encoded images.
+   */
+  public ImagePreprocessor(int maxEdge, float jpegQuality) {
+    this.maxEdge = maxEdge;
+    this.jpegQuality = jpegQuality;
+  }
+
+  /**
+   * Creates a preprocessor for label, logo and image properties detection, configured by the
+   * "sps.vision.preprocess.productMaxEdge" and "sps.vision.preprocess.jpegQuality" system
+   * properties.
+   */
+  public static ImagePreprocessor forProductDetection() {
+    return new ImagePreprocessor(
+        Integer.getInteger("sps.vision.preprocess.productMaxEdge", DEFAULT_PRODUCT_MAX_EDGE),
+        getJpegQuality());
+  }
+
+  /**
+   * Creates a preprocessor for text detection, configured by the
+   * "sps.vision.preprocess.textMaxEdge" and "sps.vision.preprocess.jpegQuality" system
+   * properties.
+   */
+  public static ImagePreprocessor forTextDetection() {
+    return new ImagePreprocessor(
+        Integer.getInteger("sps.vision.preprocess.textMaxEdge", DEFAULT_TEXT_MAX_EDGE),
+        getJpegQuality());
+  }
+
+  private static float getJpegQuality() {
+    return Float.parseFloat(
+        System.getProperty(
+            "sps.vision.preprocess.jpegQuality", String.valueOf(DEFAULT_JPEG_QUALITY)));
+  }
+
+  /**
+   * Returns the image, scaled down to the maximum edge and turned upright, or the original
+   * {@code imageBytes} if there is nothing to gain.
+   */
+  public byte[] preprocess(byte[] imageBytes) {
+    return preprocess(ImageBuffer.wrap(imageBytes)).array();
+  }
+
+  /**
+   * Returns the image, scaled down to the maximum edge and turned upright, or the original
+   * {@code image}, whose bytes are then neither copied nor hashed again, if there is nothing to
+   * gain.
+   */
+  public ImageBuffer preprocess(ImageBuffer image) {
+    inputByteCount.addAndGet(image.size());
+    byte[] preprocessedBytes;
+    try {
+      preprocessedBytes = shrink(image);
+    } catch (IOException | RuntimeException exception) {
+      // Leave the images ImageIO cannot decode, e.g. CMYK JPEGs, for Cloud Vision API to handle.
+      preprocessedBytes = null;
+    }
+
+    if (preprocessedBytes == null) {
+      skippedImageCount.incrementAndGet();
+      outputByteCount.addAndGet(image.size());
+      return image;
+    }
+    processedImageCount.incrementAndGet();
+    outputByteCount.addAndGet(preprocessedBytes.length);
+    return ImageBuffer.wrap(preprocessedBytes);
+  }
+
+  /** Returns the number of images scaled down or turned upright. */
+  public long getProcessedImageCount() {
+    return processedImageCount.get();
+  }
+
+  /** Returns the number of images passed on unchanged. */
+  public long getSkippedImageCount() {
+    return skippedImageCount.get();
+  }
+
+  /** Returns the number of bytes of the images received. */
+  public long getInputByteCount() {
+    return inputByteCount.get();
+  }
+
+  /** Returns the number of bytes of the images passed on to Cloud Vision API. */
+  public long getOutputByteCount() {
+    return outputByteCount.get();
+  }
+
+  /**
+   * Returns the shrunk and upright image, encoded as JPEG, or null if the image should be passed
+   * on unchanged.
+   */
+  private byte[] shrink(ImageBuffer imageBuffer) throws IOException {
+    int orientation = readExifOrientation(imageBuffer.array());
+
+    // Read the bytes in place, as ImageIO would otherwise cache them in a temporary file.
+    BufferedImage image;
+    try (ImageInputStream imageInputStream = imageBuffer.newImageInputStream()) {
+      Iterator<ImageReader> imageReaders = ImageIO.getImageReaders(imageInputStream);
+      if (!imageReaders.hasNext()) {
+        return null;
+      }
+
+      ImageReader imageReader = imageReaders.next();
+      try {
+        imageReader.setInput(imageInputStream, true, true);
+        int longestEdge = Math.max(imageReader.getWidth(0), imageReader.getHeight(0));
+        if (longestEdge <= maxEdge && orientation == NORMAL_ORIENTATION) {
+          return null;
+        }
+
+        // Skip rows and columns while decoding, down to at most twice the maximum edge, which
+        // leaves enough pixels for a smooth scaling to the maximum edge.
+        ImageReadParam imageReadParam = imageReader.getDefaultReadParam();
+        int subsampling = Math.max(1, longestEdge / (2 * maxEdge));
+        if (subsampling > 1) {
+          imageReadParam.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        }
+        image = imageReader.read(0, imageReadParam);
+      } finally {
+        imageReader.dispose();
+      }
+    }
+
+    byte[] jpegBytes = encodeJpeg(scaleAndOrient(image, orientation));
+    if (orientation == NORMAL_ORIENTATION && jpegBytes.length >= imageBuffer.size()) {
+      return null;
+    }
+    return jpegBytes;
+  }
+
+  /**
+   * Returns the image scaled down so that its longest edge is at most the maximum edge, and
+   * transformed so that it is displayed upright without its EXIF orientation.
+   */
+  private BufferedImage scaleAndOrient(BufferedImage image, int orientation) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    double scale = Math.min(1, (double) maxEdge / Math.max(width, height));
+    int scaledWidth = Math.max(1, (int) Math.round(width * scale));
+    int scaledHeight = Math.max(1, (int) Math.round(height * scale));
+
+    // Orientations 5 to 8 swap the width and the height.
+    boolean isTransposed = orientation >= 5 && orientation <= 8;
+    BufferedImage orientedImage =
+        new BufferedImage(
+            isTransposed ? scaledHeight : scaledWidth,
+            isTransposed ? scaledWidth : scaledHeight,
+            BufferedImage.TYPE_INT_RGB);
+
+    AffineTransform transform = AffineTransform.getScaleInstance(scale, scale);
+    transform.concatenate(getOrientationTransform(orientation, width, height));
+
+    Graphics2D graphics = orientedImage.createGraphics();
+    try {
+      graphics.setRenderingHint(
+          RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+      // JPEG has no transparency, so draw transparent images over white.
+      graphics.setColor(Color.WHITE);
+      graphics.fillRect(0, 0, orientedImage.getWidth(), orientedImage.getHeight());
+      graphics.drawImage(image, transform, null);
+    } finally {
+      graphics.dispose();
+    }
+    return orientedImage;
+  }
+
+  /**
+   * Returns the transform turning an image of {@code width} x {@code height} pixels with the EXIF
+   * {@code orientation} upright.
+   */
+  static AffineTransform getOrientationTransform(int orientation, int width, int height) {
+    switch (orientation) {
+      case 2: // Mirrored horizontally.
+        return new AffineTransform(-1, 0, 0, 1, width, 0);
+      case 3: // Rotated by 180 degrees.
+        return new AffineTransform(-1, 0, 0, -1, width, height);
+      case 4: // Mirrored vertically.
+        return new AffineTransform(1, 0, 0, -1, 0, height);
+      case 5: // Mirrored along the top-left to bottom-right diagonal.
+        return new AffineTransform(0, 1, 1, 0, 0, 0);
+      case 6: // Needs a 90 degrees clockwise rotation.
+        return new AffineTransform(0, 1, -1, 0, height, 0);
+      case 7: // Mirrored along the top-right to bottom-left diagonal.
+        return new AffineTransform(0, -1, -1, 0, height, width);
+      case 8: // Needs a 90 degrees counter-clockwise rotation.
+        return new AffineTransform(0, -1, 1, 0, 0, width);
+      default:
+        return new AffineTransform();
+    }
+  }
+
+  private byte[] encodeJpeg(BufferedImage image) throws IOException {
+    ImageWriter imageWriter = ImageIO.getImageWritersByFormatName("jpeg").next();
+    ByteArrayOutputStream jpegBytes = new ByteArrayOutputStream();
+    try (MemoryCacheImageOutputStream imageOutputStream =
+        new MemoryCacheImageOutputStream(jpegBytes)) {
+      ImageWriteParam imageWriteParam = imageWriter.getDefaultWriteParam();
+      imageWriteParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+      imageWriteParam.setCompressionQuality(jpegQuality);
+
+      imageWriter.setOutput(imageOutputStream);
+      imageWriter.write(null, new IIOImage(image, null, null), imageWriteParam);
+    } finally {
+      imageWriter.dispose();
+    }
+    return jpegBytes.toByteArray();
+  }
+
+  /**
+   * Returns the EXIF orientation of a JPEG image, between 1 and 8, or 1 (upright) if the image is
+   * not a JPEG or has no valid orientation.
+   */
+  static int readExifOrientation(byte[] imageBytes) {
+    // A JPEG image starts with the SOI marker, followed by segments, each starting with a marker
+    // and a big-endian length, which counts itself but not the marker.
+    if (imageBytes.length < 4 || readUnsignedShort(imageBytes, 0, false) != 0xFFD8) {
+      return NORMAL_ORIENTATION;
+    }
+
+    int offset = 2;
+    while (offset + 4 <= imageBytes.length) {
+      int marker = readUnsignedShort(imageBytes, offset, false);
+      int segmentLength = readUnsignedShort(imageBytes, offset + 2, false);
+      // The metadata segments come first, so stop at the image data (SOS marker).
+      if ((marker & 0xFF00) != 0xFF00 || marker == 0xFFDA || segmentLength < 2) {
+        return NORMAL_ORIENTATION;
+      }
+
+      int segmentStart = offset + 4;
+      int segmentEnd = Math.min(imageBytes.length, offset + 2 + segmentLength);
+      if (marker == 0xFFE1 && isExifSegment(imageBytes, segmentStart, segmentEnd)) {
+        return readTiffOrientation(imageBytes, segmentStart + 6, segmentEnd);
+      }
+      offset = offset + 2 + segmentLength;
+    }
+    return NORMAL_ORIENTATION;
+  }
+
+  /** Returns true if the APP1 segment holds EXIF data, i.e. starts with "Exif\0\0". */
+  private static boolean isExifSegment(byte[] bytes, int start, int end) {
+    byte[] exifHeader = {'E', 'x', 'i', 'f', 0, 0};
+    if (end - start < exifHeader.length) {
+      return false;
+    }
+    for (int i = 0; i < exifHeader.length; i++) {
+      if (bytes[start + i] != exifHeader[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the orientation stored in the first IFD of the TIFF structure of the EXIF data, which
+   * starts at {@code tiffStart}.
+   */
+  private static int readTiffOrientation(byte[] bytes, int tiffStart, int end) {
+    if (tiffStart + 8 > end) {
+      return NORMAL_ORIENTATION;
+    }
+    // The TIFF header gives the byte order, "II" for little-endian and "MM" for big-endian.
+    boolean isLittleEndian = bytes[tiffStart] == 'I' && bytes[tiffStart + 1] == 'I';
+    long ifdOffset = readUnsignedInt(bytes, tiffStart + 4, isLittleEndian);
+    if (ifdOffset < 8 || tiffStart + ifdOffset + 2 > end) {
+      return NORMAL_ORIENTATION;
+    }
+
+    int ifdStart = tiffStart + (int) ifdOffset;
+    int entryCount = readUnsignedShort(bytes, ifdStart, isLittleEndian);
+    // Each IFD entry has a 2 byte tag, a 2 byte type, a 4 byte count and a 4 byte value.
+    for (int i = 0; i < entryCount; i++) {
+      int entryStart = ifdStart + 2 + 12 * i;
+      if (entryStart + 12 > end) {
+        break;
+      }
+      if (readUnsignedShort(bytes, entryStart, isLittleEndian) == EXIF_ORIENTATION_TAG) {
+        int orientation = readUnsignedShort(bytes, entryStart + 8, isLittleEndian);
+        return orientation >= 1 && orientation <= 8 ? orientation : NORMAL_ORIENTATION;
+      }
+    }
+    return NORMAL_ORIENTATION;
+  }
+
+  private static int readUnsignedShort(byte[] bytes, int offset, boolean isLittleEndian) {
+    int first = bytes[offset] & 0xFF;
+    int second = bytes[offset + 1] & 0xFF;
+    return isLittleEndian ? second << 8 | first : first << 8 | second;
+  }
+
+  private static long readUnsignedInt(byte[] bytes, int offset, boolean isLittleEndian) {
+    long high = readUnsignedShort(bytes, offset + (isLittleEndian ? 2 : 0), isLittleEndian);
+    long low = readUnsignedShort(bytes, offset + (isLittleEndian ? 0 : 2), isLittleEndian);
+    return high << 16 | low;
+  }
+}
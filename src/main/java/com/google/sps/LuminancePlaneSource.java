@@ -0,0 +1,290 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+
+import java.io.IOException;
+
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageInputStream;
+
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * The luminance of an image, one byte per pixel, read for ZXing without decoding the image into
+ * RGB pixels first.
+ *
+ * JPEG photos store their luminance as the Y channel of their YCbCr pixels, which is read as it
+ * is, skipping the conversion to RGB and back to grayscale. Other images are decoded and then
+ * converted to grayscale. Either way, large images are read subsampled, keeping only every n-th
+ * pixel of every n-th row while decoding.
+ */
+public final class LuminancePlaneSource extends LuminanceSource {
+  private static final String JPEG_METADATA_FORMAT = "javax_imageio_jpeg_image_1.0";
+  // Component ids of a JPEG whose components are red, green and blue rather than YCbCr.
+  private static final int[] RGB_COMPONENT_IDS = {'R', 'G', 'B'};
+
+  private final byte[] luminances;
+  private final int dataWidth;
+  private final int left;
+  private final int top;
+  private final int subsampling;
+
+  /**
+   * @param luminances  the luminance of each pixel, row by row.
+   * @param dataWidth   the width of the image.
+   * @param dataHeight  the height of the image.
+   * @param subsampling the step, in pixels of the original image, between the pixels read.
+   */
+  public LuminancePlaneSource(byte[] luminances, int dataWidth, int dataHeight, int subsampling) {
+    this(luminances, dataWidth, 0, 0, dataWidth, dataHeight, subsampling);
+  }
+
+  private LuminancePlaneSource(
+      byte[] luminances,
+      int dataWidth,
+      int left,
+      int top,
+      int width,
+      int height,
+      int subsampling) {
+    super(width, height);
+    this.luminances = luminances;
+    this.dataWidth = dataWidth;
+    this.left = left;
+    this.top = top;
+    this.subsampling = subsampling;
+  }
+
+  /**
+   * Reads the luminance of the image, subsampled so that its longest edge is at most
+   * {@code maxEdge} pixels, or at full resolution for {@code Integer.MAX_VALUE}.
+   */
+  public static LuminancePlaneSource read(ImageBuffer image, int maxEdge)
+      throws PhotoDetectionException {
+    try (ImageInputStream imageInputStream = image.newImageInputStream()) {
+      Iterator<ImageReader> imageReaders = ImageIO.getImageReaders(imageInputStream);
+      if (!imageReaders.hasNext()) {
+        throw new PhotoDetectionException("Unsupported image format.");
+      }
+
+      ImageReader imageReader = imageReaders.next();
+      try {
+        // Read the metadata too, which tells the color space of the JPEG components.
+        imageReader.setInput(imageInputStream, true, false);
+        int longestEdge = Math.max(imageReader.getWidth(0), imageReader.getHeight(0));
+        // The smallest step for which the longest edge read is at most maxEdge pixels.
+        int subsampling = (longestEdge - 1) / maxEdge + 1;
+
+        ImageReadParam imageReadParam = imageReader.getDefaultReadParam();
+        if (subsampling > 1) {
+          imageReadParam.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        }
+
+        if (imageReader.canReadRaster() && isYCbCrJpeg(imageReader)) {
+          // The raster holds the pixels as stored, without color conversion.
+          return fromRaster(imageReader.readRaster(0, imageReadParam), subsampling);
+        }
+        return fromImage(imageReader.read(0, imageReadParam), subsampling);
+      } finally {
+        imageReader.dispose();
+      }
+    } catch (IOException | RuntimeException e) {
+      throw new PhotoDetectionException("Failed to read the image.", e);
+    }
+  }
+
+  /** Returns true if the image is a JPEG whose first component is the luminance. */
+  private static boolean isYCbCrJpeg(ImageReader imageReader) throws IOException {
+    if (!"JPEG".equalsIgnoreCase(imageReader.getFormatName())) {
+      return false;
+    }
+    IIOMetadata metadata = imageReader.getImageMetadata(0);
+    if (metadata == null) {
+      return false;
+    }
+    Node root = metadata.getAsTree(JPEG_METADATA_FORMAT);
+    Node frame = findNode(root, "sof");
+    if (frame == null) {
+      return false;
+    }
+
+    int componentCount = 0;
+    boolean isRgb = true;
+    for (Node component = frame.getFirstChild();
+        component != null;
+        component = component.getNextSibling()) {
+      String componentId = getAttribute(component, "componentId");
+      if (componentCount >= RGB_COMPONENT_IDS.length
+          || !String.valueOf(RGB_COMPONENT_IDS[componentCount]).equals(componentId)) {
+        isRgb = false;
+      }
+      componentCount++;
+    }
+    if (componentCount == 1) {
+      return true;
+    }
+    if (componentCount != 3 || isRgb) {
+      return false;
+    }
+    // An Adobe marker tells whether the components were transformed to YCbCr; JFIF and Exif
+    // photos are always YCbCr.
+    Node adobe = findNode(root, "app14Adobe");
+    return adobe == null || !"0".equals(getAttribute(adobe, "transform"));
+  }
+
+  private static Node findNode(Node node, String name) {
+    if (name.equals(node.getNodeName())) {
+      return node;
+    }
+    for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+      Node found = findNode(child, name);
+      if (found != null) {
+        return found;
+      }
+    }
+    return null;
+  }
+
+  private static String getAttribute(Node node, String name) {
+    NamedNodeMap attributes = node.getAttributes();
+    Node attribute = attributes == null ? null : attributes.getNamedItem(name);
+    return attribute == null ? null : attribute.getNodeValue();
+  }
+
+  /** Returns the first band of the raster, which holds the luminance of a YCbCr JPEG. */
+  static LuminancePlaneSource fromRaster(Raster raster, int subsampling) {
+    int width = raster.getWidth();
+    int height = raster.getHeight();
+    byte[] luminances = new byte[width * height];
+
+    if (raster.getDataBuffer() instanceof DataBufferByte
+        && raster.getSampleModel() instanceof ComponentSampleModel
+        && raster.getSampleModelTranslateX() == 0
+        && raster.getSampleModelTranslateY() == 0) {
+      // Copy every n-th byte of the interleaved samples, without unpacking them.
+      ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+      DataBufferByte dataBuffer = (DataBufferByte) raster.getDataBuffer();
+      byte[] samples = dataBuffer.getData(sampleModel.getBankIndices()[0]);
+      int pixelStride = sampleModel.getPixelStride();
+      int scanlineStride = sampleModel.getScanlineStride();
+      int offset = dataBuffer.getOffsets()[sampleModel.getBankIndices()[0]]
+          + sampleModel.getBandOffsets()[0];
+      for (int y = 0; y < height; y++) {
+        int sampleIndex = offset + y * scanlineStride;
+        int luminanceIndex = y * width;
+        for (int x = 0; x < width; x++) {
+          luminances[luminanceIndex + x] = samples[sampleIndex];
+          sampleIndex += pixelStride;
+        }
+      }
+    } else {
+      int[] row = new int[width];
+      for (int y = 0; y < height; y++) {
+        raster.getSamples(raster.getMinX(), raster.getMinY() + y, width, 1, 0, row);
+        for (int x = 0; x < width; x++) {
+          luminances[y * width + x] = (byte) row[x];
+        }
+      }
+    }
+    return new LuminancePlaneSource(luminances, width, height, subsampling);
+  }
+
+  /** Returns the luminance of the decoded image, computed as ZXing computes it. */
+  static LuminancePlaneSource fromImage(BufferedImage image, int subsampling) {
+    return new LuminancePlaneSource(
+        new BufferedImageLuminanceSource(image).getMatrix(),
+        image.getWidth(),
+        image.getHeight(),
+        subsampling);
+  }
+
+  /** Returns the step, in pixels of the original image, between the pixels read. */
+  public int getSubsampling() {
+    return subsampling;
+  }
+
+  @Override
+  public byte[] getRow(int y, byte[] row) {
+    if (y < 0 || y >= getHeight()) {
+      throw new IllegalArgumentException("Requested row is outside the image: " + y);
+    }
+    int width = getWidth();
+    if (row == null || row.length < width) {
+      row = new byte[width];
+    }
+    System.arraycopy(luminances, (y + top) * dataWidth + left, row, 0, width);
+    return row;
+  }
+
+  @Override
+  public byte[] getMatrix() {
+    int width = getWidth();
+    int height = getHeight();
+    // The whole plane is returned as it is, which ZXing only reads.
+    if (width == dataWidth && left == 0 && top == 0 && luminances.length == width * height) {
+      return luminances;
+    }
+    byte[] matrix = new byte[width * height];
+    for (int y = 0; y < height; y++) {
+      System.arraycopy(luminances, (y + top) * dataWidth + left, matrix, y * width, width);
+    }
+    return matrix;
+  }
+
+  @Override
+  public boolean isCropSupported() {
+    return true;
+  }
+
+  @Override
+  public LuminanceSource crop(int cropLeft, int cropTop, int width, int height) {
+    return new LuminancePlaneSource(
+        luminances, dataWidth, left + cropLeft, top + cropTop, width, height, subsampling);
+  }
+
+  @Override
+  public boolean isRotateSupported() {
+    return true;
+  }
+
+  @Override
+  public LuminanceSource rotateCounterClockwise() {
+    int width = getWidth();
+    int height = getHeight();
+    // The pixel at (x, y) moves to (y, width - 1 - x).
+    byte[] rotated = new byte[width * height];
+    for (int y = 0; y < height; y++) {
+      int rowStart = (y + top) * dataWidth + left;
+      for (int x = 0; x < width; x++) {
+        rotated[(width - 1 - x) * height + y] = luminances[rowStart + x];
+      }
+    }
+    return new LuminancePlaneSource(rotated, height, width, subsampling);
+  }
+}
@@ -0,0 +1,181 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the values stored for hashes within a Hamming distance of a query hash, e.g. the
+ * detection results of the photos whose perceptual hash is close to that of a new photo.
+ *
+ * The hashes are indexed by multi-index hashing: each hash is split in {@code maxDistance + 1}
+ * chunks of bits, and each chunk is indexed in its own table. Two hashes at most
+ * {@code maxDistance} bits apart differ in at most {@code maxDistance} chunks, so they share at
+ * least one chunk exactly, and only the hashes sharing a chunk with the query are compared to it.
+ *
+ * The index is bounded by its number of entries, the oldest entries being evicted first.
+ */
+public class NearDuplicateIndex<V> {
+  private static final int HASH_BITS = Long.SIZE;
+  private static final int DEFAULT_MAX_DISTANCE = 5;
+  private static final int DEFAULT_MAX_ENTRIES = 50000;
+
+  private final int maxDistance;
+  private final int maxEntries;
+  // The first bit of each chunk, and the end of the last chunk.
+  private final int[] chunkStarts;
+  // For each chunk, the entries by the value of their bits in the chunk.
+  private final List<Map<Long, ArrayDeque<Entry<V>>>> chunkTables = new ArrayList<>();
+  // The entries, from the oldest.
+  private final ArrayDeque<Entry<V>> entries = new ArrayDeque<>();
+  private long lookupCount;
+  private long hitCount;
+  private long comparisonCount;
+
+  /**
+   * @param maxDistance the maximum number of bits in which the hash of a value found may differ
+   *                    from the query hash, below 64.
+   * @param maxEntries  the maximum number of values kept.
+   */
+  public NearDuplicateIndex(int maxDistance, int maxEntries) {
+    if (maxDistance < 0 || maxDistance >= HASH_BITS) {
+      throw new IllegalArgumentException("Maximum distance outside [0, 63] range.");
+    }
+    this.maxDistance = maxDistance;
+    this.maxEntries = maxEntries;
+
+    int chunkCount = maxDistance + 1;
+    chunkStarts = new int[chunkCount + 1];
+    for (int chunk = 0; chunk <= chunkCount; chunk++) {
+      chunkStarts[chunk] = chunk * HASH_BITS / chunkCount;
+    }
+    for (int chunk = 0; chunk < chunkCount; chunk++) {
+      chunkTables.add(new HashMap<>());
+    }
+  }
+
+  /**
+   * Creates an index configured by the "sps.vision.nearDuplicate.maxDistance" and
+   * "sps.vision.nearDuplicate.maxEntries" system properties.
+   */
+  public static <V> NearDuplicateIndex<V> create() {
+    return new NearDuplicateIndex<>(
+        Integer.getInteger("sps.vision.nearDuplicate.maxDistance", DEFAULT_MAX_DISTANCE),
+        Integer.getInteger("sps.vision.nearDuplicate.maxEntries", DEFAULT_MAX_ENTRIES));
+  }
+
+  /**
+   * Returns the value of the hash closest to {@code hash}, the newest one if several are as
+   * close, or null if no hash is within the maximum distance.
+   */
+  public synchronized V find(long hash) {
+    lookupCount++;
+    Entry<V> closestEntry = null;
+    int closestDistance = maxDistance + 1;
+    for (int chunk = 0; chunk < chunkTables.size(); chunk++) {
+      ArrayDeque<Entry<V>> candidates = chunkTables.get(chunk).get(getChunk(hash, chunk));
+      if (candidates == null) {
+        continue;
+      }
+      comparisonCount += candidates.size();
+      for (Entry<V> candidate : candidates) {
+        int distance = PerceptualHash.distance(hash, candidate.hash);
+        if (distance < closestDistance
+            || (distance == closestDistance
+                && closestEntry != null
+                && candidate.sequence > closestEntry.sequence)) {
+          closestDistance = distance;
+          closestEntry = candidate;
+        }
+      }
+    }
+    if (closestEntry == null) {
+      return null;
+    }
+    hitCount++;
+    return closestEntry.value;
+  }
+
+  /** Stores the value for the hash, evicting the oldest value if the index is full. */
+  public synchronized void put(long hash, V value) {
+    if (maxEntries <= 0) {
+      return;
+    }
+    if (entries.size() >= maxEntries) {
+      Entry<V> oldestEntry = entries.removeFirst();
+      for (int chunk = 0; chunk < chunkTables.size(); chunk++) {
+        Long chunkValue = getChunk(oldestEntry.hash, chunk);
+        ArrayDeque<Entry<V>> chunkEntries = chunkTables.get(chunk).get(chunkValue);
+        // The entries of a chunk value are kept from the oldest too.
+        chunkEntries.removeFirst();
+        if (chunkEntries.isEmpty()) {
+          chunkTables.get(chunk).remove(chunkValue);
+        }
+      }
+    }
+
+    Entry<V> entry =
+        new Entry<>(hash, value, entries.isEmpty() ? 0 : entries.peekLast().sequence + 1);
+    entries.addLast(entry);
+    for (int chunk = 0; chunk < chunkTables.size(); chunk++) {
+      chunkTables.get(chunk).computeIfAbsent(getChunk(hash, chunk), key -> new ArrayDeque<>())
+          .add(entry);
+    }
+  }
+
+  /** Returns the bits of the hash in the chunk, shifted to the lowest bits. */
+  private long getChunk(long hash, int chunk) {
+    int start = chunkStarts[chunk];
+    int length = chunkStarts[chunk + 1] - start;
+    return (hash >>> start) & (-1L >>> (HASH_BITS - length));
+  }
+
+  /** Returns the number of values stored. */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /** Returns the number of calls to {@link #find(long)}. */
+  public synchronized long getLookupCount() {
+    return lookupCount;
+  }
+
+  /** Returns the number of calls to {@link #find(long)} which found a value. */
+  public synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  /** Returns the number of hashes compared to the query hashes, across all lookups. */
+  public synchronized long getComparisonCount() {
+    return comparisonCount;
+  }
+
+  private static final class Entry<V> {
+    private final long hash;
+    private final V value;
+    // The order in which the entries were stored.
+    private final long sequence;
+
+    Entry(long hash, V value, long sequence) {
+      this.hash = hash;
+      this.value = value;
+      this.sequence = sequence;
+    }
+  }
+}
@@ -0,0 +1,60 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.sps.data.ProductDetectionData;
+
+import java.util.OptionalLong;
+
+/**
+ * Wraps a ProductDetectionAPI, returning the detection data of a recent photo which looks the
+ * same as the uploaded one, e.g. the same product photographed again seconds later, whose bytes
+ * differ and so miss the cache of identical images.
+ *
+ * Photos are compared by their {@link PerceptualHash}. Photos which cannot be hashed, or whose
+ * hash would not identify them, are always detected.
+ */
+public class NearDuplicateProductDetectionAPI implements ProductDetectionAPI {
+  private final ProductDetectionAPI productDetectionAPI;
+  private final NearDuplicateIndex<ProductDetectionData> index;
+
+  public NearDuplicateProductDetectionAPI(
+      ProductDetectionAPI productDetectionAPI, NearDuplicateIndex<ProductDetectionData> index) {
+    this.productDetectionAPI = productDetectionAPI;
+    this.index = index;
+  }
+
+  @Override
+  public ProductDetectionData detectProductPhotoContent(ImageBuffer image)
+      throws PhotoDetectionException {
+    OptionalLong hash;
+    try {
+      hash = PerceptualHash.dHash(image);
+    } catch (PhotoDetectionException e) {
+      // Leave the photos ImageIO cannot read for Cloud Vision API to handle.
+      hash = OptionalLong.empty();
+    }
+    if (!hash.isPresent()) {
+      return productDetectionAPI.detectProductPhotoContent(image);
+    }
+
+    ProductDetectionData productDetectionData = index.find(hash.getAsLong());
+    if (productDetectionData == null) {
+      productDetectionData = productDetectionAPI.detectProductPhotoContent(image);
+      index.put(hash.getAsLong(), productDetectionData);
+    }
+    return productDetectionData;
+  }
+}
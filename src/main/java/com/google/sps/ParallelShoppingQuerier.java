@@ -0,0 +1,246 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.sps.data.Product;
+import com.google.sps.data.ShoppingQueryInput;
+import com.google.sps.data.ShoppingResult;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Runs several shopping queries concurrently, e.g. one for each item of a shopping list, and
+ * returns their results in the order of the queries, or hands each result over as soon as its
+ * query completes.
+ *
+ * Each query has its own timeout, counted from when it starts running rather than from when it
+ * is submitted, so that the time spent waiting for a thread while all of them are busy does not
+ * make a query time out before it ran. A query that fails or times out gets a ShoppingResult
+ * holding the error message, without affecting the others.
+ */
+public class ParallelShoppingQuerier {
+  private static final int DEFAULT_THREAD_COUNT = 8;
+  private static final long DEFAULT_QUERY_TIMEOUT_MILLIS = 10000;
+
+  private static ExecutorService sharedExecutor;
+
+  private final ShoppingQuerier querier;
+  private final ExecutorService executor;
+  private final long queryTimeoutMillis;
+
+  public ParallelShoppingQuerier(
+      ShoppingQuerier querier, ExecutorService executor, long queryTimeoutMillis) {
+    this.querier = querier;
+    this.executor = executor;
+    this.queryTimeoutMillis = queryTimeoutMillis;
+  }
+
+  /**
+   * Creates a querier running on the executor shared by all requests, with the timeout set by
+   * the "sps.shopping.queryTimeoutMillis" system property.
+   */
+  public static ParallelShoppingQuerier create(ShoppingQuerier querier) {
+    return new ParallelShoppingQuerier(
+        querier,
+        getSharedExecutor(),
+        Long.getLong("sps.shopping.queryTimeoutMillis", DEFAULT_QUERY_TIMEOUT_MILLIS));
+  }
+
+  /**
+   * Returns the executor shared by all requests, whose number of threads, set by the
+   * "sps.shopping.queryThreads" system property, bounds the number of queries running at once.
+   */
+  public static synchronized ExecutorService getSharedExecutor() {
+    if (sharedExecutor == null) {
+      sharedExecutor =
+          Executors.newFixedThreadPool(
+              Integer.getInteger("sps.shopping.queryThreads", DEFAULT_THREAD_COUNT),
+              new ThreadFactoryBuilder()
+                  .setNameFormat("shopping-query-%d")
+                  .setDaemon(true)
+                  .build());
+    }
+    return sharedExecutor;
+  }
+
+  /** Stops the shared executor, if it was created. Called when the application stops. */
+  public static synchronized void shutdownSharedExecutor() {
+    if (sharedExecutor != null) {
+      sharedExecutor.shutdownNow();
+      sharedExecutor = null;
+    }
+  }
+
+  /** Receives the result of each query as soon as it is available. */
+  public interface ShoppingResultListener {
+    /**
+     * Called, on the thread that started the queries, with the result of the query at
+     * {@code index} in the list of queries.
+     */
+    void onShoppingResult(int index, ShoppingResult shoppingResult) throws IOException;
+  }
+
+  /**
+   * Runs all the {@code shoppingQueryInputs} concurrently and returns their results, in the same
+   * order.
+   */
+  public List<ShoppingResult> query(List<ShoppingQueryInput> shoppingQueryInputs) {
+    ShoppingResult[] shoppingResults = new ShoppingResult[shoppingQueryInputs.size()];
+    try {
+      query(shoppingQueryInputs, (index, shoppingResult) -> shoppingResults[index] = shoppingResult);
+    } catch (IOException exception) {
+      // Not thrown, as the listener only stores the results.
+      throw new IllegalStateException(exception);
+    }
+    return Arrays.asList(shoppingResults);
+  }
+
+  /**
+   * Runs all the {@code shoppingQueryInputs} concurrently and passes the result of each to the
+   * {@code listener} as soon as the query completes, fails or times out, i.e. not necessarily in
+   * the order of the queries.
+   */
+  public void query(List<ShoppingQueryInput> shoppingQueryInputs, ShoppingResultListener listener)
+      throws IOException {
+    int queryCount = shoppingQueryInputs.size();
+    // The index of each query that completed, and the complement (~) of the index of each query
+    // that started, in the order it happened, so that a new deadline is waited for.
+    BlockingQueue<Integer> queryEvents = new LinkedBlockingQueue<>();
+    List<Future<List<Product>>> futures = new ArrayList<>();
+    // Set as each query starts, and Long.MAX_VALUE until then.
+    AtomicLongArray deadlines = new AtomicLongArray(queryCount);
+    for (int i = 0; i < queryCount; i++) {
+      int index = i;
+      ShoppingQueryInput shoppingQueryInput = shoppingQueryInputs.get(i);
+      deadlines.set(i, Long.MAX_VALUE);
+      futures.add(executor.submit(() -> {
+        deadlines.set(index, System.currentTimeMillis() + queryTimeoutMillis);
+        queryEvents.add(~index);
+        try {
+          return querier.query(shoppingQueryInput);
+        } finally {
+          queryEvents.add(index);
+        }
+      }));
+    }
+
+    // If the listener fails, e.g. because the client went away, the queries not delivered yet are
+    // cancelled rather than left running for nobody.
+    boolean isEveryResultDelivered = false;
+    try {
+      boolean[] isDelivered = new boolean[queryCount];
+      int deliveredCount = 0;
+      while (deliveredCount < queryCount) {
+        // Wait for the next query to start or complete, at most until the earliest deadline.
+        long earliestDeadline = Long.MAX_VALUE;
+        for (int i = 0; i < queryCount; i++) {
+          if (!isDelivered[i]) {
+            earliestDeadline = Math.min(earliestDeadline, deadlines.get(i));
+          }
+        }
+        Integer queryEvent;
+        try {
+          queryEvent = queryEvents.poll(
+              Math.max(0, earliestDeadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException exception) {
+          Thread.currentThread().interrupt();
+          queryEvent = null;
+        }
+
+        if (queryEvent != null && queryEvent < 0) {
+          // A query started, so its deadline is now waited for.
+          continue;
+        }
+        if (queryEvent != null) {
+          int completedIndex = queryEvent;
+          // A query cancelled after timing out may still complete; it was already delivered.
+          if (!isDelivered[completedIndex]) {
+            isDelivered[completedIndex] = true;
+            deliveredCount++;
+            listener.onShoppingResult(
+                completedIndex,
+                getShoppingResult(
+                    shoppingQueryInputs.get(completedIndex),
+                    futures.get(completedIndex),
+                    deadlines.get(completedIndex)));
+          }
+          continue;
+        }
+
+        // No query completed in time, so deliver the ones past their deadline as timed out, or all
+        // the remaining ones if the thread was interrupted.
+        boolean isInterrupted = Thread.currentThread().isInterrupted();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < queryCount; i++) {
+          if (!isDelivered[i] && (isInterrupted || deadlines.get(i) <= now)) {
+            isDelivered[i] = true;
+            deliveredCount++;
+            listener.onShoppingResult(
+                i,
+                getShoppingResult(shoppingQueryInputs.get(i), futures.get(i), deadlines.get(i)));
+          }
+        }
+      }
+      isEveryResultDelivered = true;
+    } finally {
+      if (!isEveryResultDelivered) {
+        for (Future<List<Product>> future : futures) {
+          future.cancel(true);
+        }
+      }
+    }
+  }
+
+  /**
+   * Waits until {@code deadline} for the products of a query, and returns them, or the error
+   * message if the query failed, as a ShoppingResult.
+   */
+  private ShoppingResult getShoppingResult(
+      ShoppingQueryInput shoppingQueryInput, Future<List<Product>> future, long deadline) {
+    String shoppingQuery = shoppingQueryInput.getShoppingQuery();
+    long remainingMillis = Math.max(0, deadline - System.currentTimeMillis());
+    try {
+      return ShoppingResult.create(
+          shoppingQuery, future.get(remainingMillis, TimeUnit.MILLISECONDS));
+    } catch (ExecutionException exception) {
+      // Exceptions such as NullPointerException have no message, and the result must still tell
+      // the page that the query failed.
+      String message = exception.getCause().getMessage();
+      return ShoppingResult.createError(
+          shoppingQuery, message != null ? message : "Shopping query failed.");
+    } catch (TimeoutException exception) {
+      future.cancel(true);
+      return ShoppingResult.createError(shoppingQuery, "Shopping query timed out.");
+    } catch (InterruptedException exception) {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      return ShoppingResult.createError(shoppingQuery, "Shopping query was interrupted.");
+    }
+  }
+}
@@ -0,0 +1,94 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.zxing.LuminanceSource;
+
+import java.util.OptionalLong;
+
+/**
+ * Computes the difference hash (dHash) of a photo: a 64 bit fingerprint which changes little
+ * when the photo is re-encoded, slightly moved, resized or relit, so that photos of the same
+ * subject taken seconds apart have hashes a few bits apart.
+ *
+ * The luminance of the photo is averaged over a grid of 9 x 8 cells, and each bit tells whether
+ * a cell is darker than the next cell of its row.
+ */
+public final class PerceptualHash {
+  private static final int GRID_WIDTH = 9;
+  private static final int GRID_HEIGHT = 8;
+  // Longest edge, in pixels, of the luminance averaged over the grid.
+  private static final int MAX_EDGE = 128;
+  // Minimum difference between the darkest and the lightest cells, below which the photo is
+  // too flat to be told apart from other flat photos by its hash.
+  private static final int MIN_CONTRAST = 12;
+
+  // Prevent creating an instance of this class.
+  private PerceptualHash() {}
+
+  /**
+   * Returns the hash of the photo, or nothing if the photo has too little detail for its hash to
+   * identify it.
+   */
+  public static OptionalLong dHash(ImageBuffer image) throws PhotoDetectionException {
+    return dHash(LuminancePlaneSource.read(image, MAX_EDGE));
+  }
+
+  static OptionalLong dHash(LuminanceSource luminance) {
+    int width = luminance.getWidth();
+    int height = luminance.getHeight();
+    if (width < GRID_WIDTH || height < GRID_HEIGHT) {
+      return OptionalLong.empty();
+    }
+
+    byte[] pixels = luminance.getMatrix();
+    long[] cellSums = new long[GRID_WIDTH * GRID_HEIGHT];
+    int[] cellCounts = new int[GRID_WIDTH * GRID_HEIGHT];
+    for (int y = 0; y < height; y++) {
+      int rowCell = y * GRID_HEIGHT / height * GRID_WIDTH;
+      for (int x = 0; x < width; x++) {
+        int cell = rowCell + x * GRID_WIDTH / width;
+        cellSums[cell] += pixels[y * width + x] & 0xFF;
+        cellCounts[cell]++;
+      }
+    }
+
+    long[] cells = new long[GRID_WIDTH * GRID_HEIGHT];
+    long darkest = Long.MAX_VALUE;
+    long lightest = Long.MIN_VALUE;
+    for (int cell = 0; cell < cells.length; cell++) {
+      cells[cell] = cellSums[cell] / cellCounts[cell];
+      darkest = Math.min(darkest, cells[cell]);
+      lightest = Math.max(lightest, cells[cell]);
+    }
+    if (lightest - darkest < MIN_CONTRAST) {
+      return OptionalLong.empty();
+    }
+
+    long hash = 0;
+    for (int row = 0; row < GRID_HEIGHT; row++) {
+      for (int column = 0; column < GRID_WIDTH - 1; column++) {
+        int cell = row * GRID_WIDTH + column;
+        hash = hash << 1 | (cells[cell] < cells[cell + 1] ? 1 : 0);
+      }
+    }
+    return OptionalLong.of(hash);
+  }
+
+  /** Returns the number of bits which differ between the hashes. */
+  public static int distance(long hash, long otherHash) {
+    return Long.bitCount(hash ^ otherHash);
+  }
+}
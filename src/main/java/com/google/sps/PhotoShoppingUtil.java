@@ -15,24 +15,22 @@
 package com.google.sps;
 
 import com.google.cloud.vision.v1.Image;
-import com.google.protobuf.ByteString;
 
 public class PhotoShoppingUtil {
+  /**
+   * Collapses the whitespace of the query, removes its special characters and trims it, see
+   * {@link QueryNormalizer#format(String)}.
+   */
   public static String formatQuery(String query) {
-    query =
-        query
-            .replaceAll("\\s+", " ") // Remove duplicate spaces
-            .replaceAll("[-+=,\n._^\";:~#></|!*]", "") // Remove special characters
-            .trim(); // Remove spaces from the beginning and end of string
-    return query;
+    return QueryNormalizer.format(query);
   }
 
-  public static Image getImageFromBytes(byte[] shoppingImageBytes) throws PhotoDetectionException{
-    if (shoppingImageBytes.length == 0) {
+  /** Returns the Cloud Vision API image holding the bytes of {@code shoppingImage}, uncopied. */
+  public static Image getImageFromBuffer(ImageBuffer shoppingImage) throws PhotoDetectionException {
+    if (shoppingImage.size() == 0) {
       throw new PhotoDetectionException("Bytes array is empty.");
     }
-    ByteString imageByteString = ByteString.copyFrom(shoppingImageBytes);
-    Image shoppingImage = Image.newBuilder().setContent(imageByteString).build();
-    return shoppingImage;
+    Image image = Image.newBuilder().setContent(shoppingImage.toByteString()).build();
+    return image;
   }
 }
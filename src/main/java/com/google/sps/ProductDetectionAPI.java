@@ -20,5 +20,5 @@ import com.google.sps.data.ProductDetectionData;
  * API for detecting products from images.
  */
 public interface ProductDetectionAPI {
-  public ProductDetectionData detectProductPhotoContent(byte[] imageBytes) throws PhotoDetectionException;
+  public ProductDetectionData detectProductPhotoContent(ImageBuffer image) throws PhotoDetectionException;
 }
@@ -17,13 +17,9 @@ package com.google.sps;
 import com.google.cloud.vision.v1.AnnotateImageRequest;
 import com.google.cloud.vision.v1.AnnotateImageRequest.Builder;
 import com.google.cloud.vision.v1.AnnotateImageResponse;
-import com.google.cloud.vision.v1.BatchAnnotateImagesResponse;
-import com.google.cloud.vision.v1.ColorInfo;
 import com.google.cloud.vision.v1.DominantColorsAnnotation;
 import com.google.cloud.vision.v1.EntityAnnotation;
-import com.google.cloud.vision.v1.Feature;
 import com.google.cloud.vision.v1.Image;
-import com.google.cloud.vision.v1.ImageAnnotatorClient;
 
 import com.google.common.collect.ImmutableList;
 
@@ -33,20 +29,50 @@ import com.google.sps.data.ProductDetectionData;
 
 import java.awt.Color;
 
-import java.io.IOException;
-
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Uses Cloud Vision API to detect product photo content.
+ *
+ * The dominant colors are either detected by Cloud Vision API too, or, given a
+ * {@link DominantColorExtractor}, extracted locally while Cloud Vision API detects the labels and
+ * logos.
  */
 public class ProductDetectionAPIImpl implements ProductDetectionAPI {
+  private final ImagePreprocessor imagePreprocessor;
+  // Null if the dominant colors are detected by Cloud Vision API.
+  private final DominantColorExtractor dominantColorExtractor;
+
+  /**
+   * Creates a detector extracting the dominant colors locally if the "sps.vision.colorMode"
+   * system property is "local".
+   */
+  public ProductDetectionAPIImpl() {
+    this(ImagePreprocessor.forProductDetection(), DominantColorExtractor.createIfConfigured());
+  }
+
+  /** Creates a detector getting the dominant colors from Cloud Vision API. */
+  public ProductDetectionAPIImpl(ImagePreprocessor imagePreprocessor) {
+    this(imagePreprocessor, null);
+  }
 
-  public ProductDetectionData detectProductPhotoContent(byte[] imageBytes) 
+  /**
+   * @param imagePreprocessor      shrinks the photos sent to Cloud Vision API.
+   * @param dominantColorExtractor extracts the dominant colors locally, or null to detect them
+   *                               with Cloud Vision API.
+   */
+  public ProductDetectionAPIImpl(
+      ImagePreprocessor imagePreprocessor, DominantColorExtractor dominantColorExtractor) {
+    this.imagePreprocessor = imagePreprocessor;
+    this.dominantColorExtractor = dominantColorExtractor;
+  }
+
+  public ProductDetectionData detectProductPhotoContent(ImageBuffer productImage) 
       throws PhotoDetectionException {
-    // Build Image object by converting bytes array.
-    ByteString byteString = ByteString.copyFrom(imageBytes);
+    // Build Image object wrapping the bytes, scaled down to the resolution needed to detect
+    // labels, logos and colors.
+    ImageBuffer preprocessedImage = imagePreprocessor.preprocess(productImage);
+    ByteString byteString = preprocessedImage.toByteString();
     Image image = Image.newBuilder().setContent(byteString).build();
 
     // Build the image annotation request.
@@ -55,81 +81,58 @@ public class ProductDetectionAPIImpl implements ProductDetectionAPI {
     
     requestBuilder.setImage(image);
 
-    Feature labelDetectionFeature = 
-        Feature.newBuilder().setType(Feature.Type.LABEL_DETECTION).build();
-    requestBuilder.addFeatures(labelDetectionFeature);
-
-    Feature logoDetectionFeature =
-        Feature.newBuilder().setType(Feature.Type.LOGO_DETECTION).build();
-    requestBuilder.addFeatures(logoDetectionFeature);
-
-    Feature imagePropertiesDetectionFeature =
-        Feature.newBuilder().setType(Feature.Type.IMAGE_PROPERTIES).setMaxResults(5).build();
-    requestBuilder.addFeatures(imagePropertiesDetectionFeature);
-
-    List<AnnotateImageRequest> requests = new ArrayList<>();
-    requests.add(requestBuilder.build());
-
-    // Initialize client that will be used to send requests. This client only needs to be created
-    // once, and can be reused for multiple requests.
-    ImageAnnotatorClient imageAnnotatorClient;
-    try {
-      imageAnnotatorClient = ImageAnnotatorClient.create();
-    } catch (IOException exception) {
-      throw new PhotoDetectionException(
-          "Failed to create ImageAnnotatorClient.\n" + exception.getMessage(), exception);
+    // Detect labels, logos and dominant colors, or only labels and logos while the dominant
+    // colors are extracted locally, from the same shrunk image.
+    CompletableFuture<DominantColorsAnnotation> dominantColors = null;
+    if (dominantColorExtractor != null) {
+      dominantColors = dominantColorExtractor.extractAsync(preprocessedImage);
+      requestBuilder.addAllFeatures(Constants.LOCAL_COLOR_PRODUCT_DETECTION_FEATURES);
+    } else {
+      requestBuilder.addAllFeatures(Constants.PRODUCT_DETECTION_FEATURES);
     }
 
-    // Perform detection on the image file.
-    BatchAnnotateImagesResponse response = imageAnnotatorClient.batchAnnotateImages(requests);
-    
-    // Get only the first response as there is only one request.
-    AnnotateImageResponse annotateImageResponse = response.getResponsesList().get(0);
+    // Perform detection on the image file, in a single call with the requests of concurrent
+    // uploads, using the client shared by all requests.
+    AnnotateImageResponse annotateImageResponse =
+        VisionBatchDispatcher.getInstance().annotate(requestBuilder.build());
 
     if (annotateImageResponse.hasError()) {
       throw new PhotoDetectionException(annotateImageResponse.getError().getMessage());
     }
+    if (dominantColors != null) {
+      annotateImageResponse =
+          DominantColorExtractor.withDominantColors(annotateImageResponse, dominantColors.join());
+    }
 
+    return parseProductDetectionData(annotateImageResponse);
+  }
+
+  /** Returns the labels, logos and dominant colors detected by Cloud Vision API. */
+  static ProductDetectionData parseProductDetectionData(
+      AnnotateImageResponse annotateImageResponse) {
     ImmutableList<String> labels = getLabels(annotateImageResponse);
     ImmutableList<String> logos = getLogos(annotateImageResponse);
     ImmutableList<String> colors = getColors(annotateImageResponse);
 
-    ProductDetectionData productDetectionData = ProductDetectionData.create(labels, logos, colors);
-
-    // All requests have been completed, so call the "close" method on the client 
-    // to safely clean up any remaining background resources.
-    imageAnnotatorClient.close();
-
-    return productDetectionData;
+    return ProductDetectionData.create(labels, logos, colors);
   }
 
-  private ImmutableList<String> getLabels(AnnotateImageResponse annotateImageResponse) {
+  private static ImmutableList<String> getLabels(AnnotateImageResponse annotateImageResponse) {
     return annotateImageResponse.getLabelAnnotationsList()
         .stream()
         .map(annotation -> annotation.getDescription())
         .collect(ImmutableList.toImmutableList());
   }
 
-  private ImmutableList<String> getLogos(AnnotateImageResponse annotateImageResponse) {
+  private static ImmutableList<String> getLogos(AnnotateImageResponse annotateImageResponse) {
     return annotateImageResponse.getLogoAnnotationsList()
         .stream()
         .map(annotation -> annotation.getDescription())
         .collect(ImmutableList.toImmutableList());
   }
 
-  private ImmutableList<String> getColors(AnnotateImageResponse res) {
-    List<String> colorNames = new ArrayList(); 
-    
-    DominantColorsAnnotation colors = res.getImagePropertiesAnnotation().getDominantColors();
-    for (ColorInfo color : colors.getColorsList()) {
-      String colorName = ColorUtils.getColorNameFromRGB(
-          (int)color.getColor().getRed(),
-          (int)color.getColor().getGreen(),
-          (int)color.getColor().getBlue());
-      
-      colorNames.add(colorName);
-    }
-    
-    return ImmutableList.copyOf(colorNames);
+  private static ImmutableList<String> getColors(AnnotateImageResponse res) {
+    return ColorUtils.getColorNames(res.getImagePropertiesAnnotation().getDominantColors());
   }
+
 }
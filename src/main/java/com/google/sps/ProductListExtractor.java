@@ -16,10 +16,17 @@ package com.google.sps;
 
 import com.google.sps.data.Product;
 
-import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.parser.Parser;
+import org.jsoup.parser.StreamParser;
 import org.jsoup.select.Elements;
+import org.jsoup.select.NodeTraversor;
+import org.jsoup.select.NodeVisitor;
+
+import java.io.IOException;
+import java.io.Reader;
 
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -30,6 +37,9 @@ import java.util.List;
  */
 public class ProductListExtractor {
 
+  // Class of the product containers in the Google Shopping results page.
+  private static final String PRODUCT_CONTAINER_QUERY = ".u30d4";
+
   /** 
    * @param {Document} doc   the HTML content of the Google Shopping results page.
    * @return {List<Product>} the array of Product objects containing the extracted 
@@ -37,7 +47,7 @@ public class ProductListExtractor {
    */
   public List<Product> extract(Document doc) {
     // Get the product containers from the page, considering that each has the class "u30d4".
-    Elements productElements = doc.select(".u30d4");
+    Elements productElements = doc.select(PRODUCT_CONTAINER_QUERY);
 
     // Initialize the array of product info extracted below.
     List<Product> products = new ArrayList<>();
@@ -52,52 +62,173 @@ public class ProductListExtractor {
         continue;
       }
 
-      // Get the title as HTML instead of text, in order to keep the <b> tags.
-      String productTitle = currentProduct.select(".rgHvZc > a").html();
-      // Skip ".u30d4" container if it does not contain a title.
-      if (productTitle.isEmpty()) {
-        continue;
+      Product product = extractProduct(currentProduct);
+      if (product != null) {
+        products.add(product);
       }
+    }
+
+    return products;
+  }
+
+  /**
+   * Extracts the products while the Google Shopping results page is being read, building each
+   * Product as soon as its container is parsed, and stops reading the page once
+   * {@code maxResultsNumber} products are extracted. Each product container is removed from the
+   * parsed document once extracted, so the containers do not pile up in memory; the rest of the
+   * markup read so far, such as the head and the scripts, is kept until the parser is closed.
+   *
+   * @param {Reader} html           the HTML content of the Google Shopping results page.
+   * @param {String} baseUri        the URL the page was fetched from.
+   * @param {int} maxResultsNumber  the maximum number of products to extract.
+   * @return {List<Product>} the same products as {@link #extract(Document)}, up to
+   *    {@code maxResultsNumber}.
+   */
+  public List<Product> extract(Reader html, String baseUri, int maxResultsNumber)
+      throws IOException {
+    List<Product> products = new ArrayList<>();
 
-      String productImageLink = currentProduct.select(".oR27Gd > img").attr("src");
-      
-      String extractedProductLink = currentProduct.select(".rgHvZc > a").attr("href");
-      // Fix product link - if the URL starts with '/url?q=', the URL redirection will not work.
-      String wrongStartOfLink = "/url?q=";
-      // Therefore delete the start if this is the case, for the redirection to successfully work.
-      String productLink;
-      if (extractedProductLink.length() >= wrongStartOfLink.length() &&
-          extractedProductLink.substring(0, wrongStartOfLink.length()).equals(wrongStartOfLink)) {
-        productLink = extractedProductLink.substring(wrongStartOfLink.length());
-      } else {
-        productLink = extractedProductLink;
+    try (StreamParser streamParser = new StreamParser(Parser.htmlParser()).parse(html, baseUri)) {
+      Element currentProduct = streamParser.selectNext(PRODUCT_CONTAINER_QUERY);
+      while (currentProduct != null && products.size() < maxResultsNumber) {
+        // The last element with class ".u30d4" does not define a product, so only extract the
+        // current one once the next one is found.
+        Element nextProduct = streamParser.selectNext(PRODUCT_CONTAINER_QUERY);
+        if (nextProduct == null) {
+          break;
+        }
+
+        Product product = extractProduct(currentProduct);
+        if (product != null) {
+          products.add(product);
+        }
+
+        // Free the memory used by the extracted container.
+        currentProduct.remove();
+        currentProduct = nextProduct;
       }
-  
-      // As some products do not have rating, the classes order may differ, therefore
-      // define {@code productPriceAndSeller} for both cases.
-      String productPriceAndSeller;
-      String productRatingInStars;
-      // If the product does not have a rating container, 
-      if (currentProduct.select(".dD8iuc:nth-of-type(3)").html().isEmpty()) {
-        // only get the price and seller container.
-        productPriceAndSeller = currentProduct.select(".dD8iuc:nth-of-type(2)").html();
-      } else {
-        // Else, assign both values.
-        productRatingInStars = currentProduct.select(".dD8iuc:nth-of-type(2)").text();
-        productPriceAndSeller = currentProduct.select(".dD8iuc:nth-of-type(3)").html();
+    }
+
+    return products;
+  }
+
+  /**
+   * Returns the Product defined by the {@code currentProduct} container, or null if the container
+   * does not contain a title.
+   *
+   * Visits the elements of the container once, collecting the elements of every product field,
+   * instead of running a separate select() over the container for each field.
+   */
+  private Product extractProduct(Element currentProduct) {
+    ProductElements productElements = new ProductElements(currentProduct);
+    NodeTraversor.traverse(productElements, currentProduct);
+
+    // Get the title as HTML instead of text, in order to keep the <b> tags.
+    String productTitle = productElements.titleLinks.html();
+    // Skip ".u30d4" container if it does not contain a title.
+    if (productTitle.isEmpty()) {
+      return null;
+    }
+
+    String productImageLink = productElements.images.attr("src");
+    
+    String extractedProductLink = productElements.titleLinks.attr("href");
+    // Fix product link - if the URL starts with '/url?q=', the URL redirection will not work.
+    String wrongStartOfLink = "/url?q=";
+    // Therefore delete the start if this is the case, for the redirection to successfully work.
+    String productLink;
+    if (extractedProductLink.length() >= wrongStartOfLink.length() &&
+        extractedProductLink.substring(0, wrongStartOfLink.length()).equals(wrongStartOfLink)) {
+      productLink = extractedProductLink.substring(wrongStartOfLink.length());
+    } else {
+      productLink = extractedProductLink;
+    }
+
+    // As some products do not have rating, the classes order may differ, therefore
+    // define {@code productPriceAndSeller} for both cases.
+    String productPriceAndSeller = productElements.thirdDetails.html();
+    // If the product does not have a rating container, only get the price and seller container.
+    // Otherwise, the second container holds the rating, which is not displayed.
+    if (productPriceAndSeller.isEmpty()) {
+      productPriceAndSeller = productElements.secondDetails.html();
+    }
+
+    String productShippingPrice = productElements.firstDetails.text();
+
+    // Build the Product object.
+    return Product.create(productTitle, 
+                          productImageLink, 
+                          productPriceAndSeller, 
+                          productLink, 
+                          productShippingPrice);
+  }
+
+  /**
+   * Collects, while visiting a product container, the elements holding each product field, i.e.
+   * the elements that the ".rgHvZc > a", ".oR27Gd > img" and ".dD8iuc:nth-of-type(n)" selectors
+   * would match, with the selectors checked directly against each element.
+   */
+  private static class ProductElements implements NodeVisitor {
+    private final Element productContainer;
+    private final Elements titleLinks = new Elements();
+    private final Elements images = new Elements();
+    // Containers of the shipping price, the rating and the price and seller, whose order
+    // depends on whether the product has a rating.
+    private final Elements firstDetails = new Elements();
+    private final Elements secondDetails = new Elements();
+    private final Elements thirdDetails = new Elements();
+
+    ProductElements(Element productContainer) {
+      this.productContainer = productContainer;
+    }
+
+    @Override
+    public void head(Node node, int depth) {
+      if (!(node instanceof Element)) {
+        return;
       }
+      Element element = (Element) node;
 
-      String productShippingPrice = currentProduct.select(".dD8iuc:nth-of-type(1)").text();
+      if (element != productContainer) {
+        Element parent = element.parent();
+        if (element.normalName().equals("a") && parent.hasClass("rgHvZc")) {
+          titleLinks.add(element);
+        } else if (element.normalName().equals("img") && parent.hasClass("oR27Gd")) {
+          images.add(element);
+        }
+      }
 
-      // Build the Product object.
-      Product product = Product.create(productTitle, 
-                                       productImageLink, 
-                                       productPriceAndSeller, 
-                                       productLink, 
-                                       productShippingPrice);
-      products.add(product);
+      if (element.hasClass("dD8iuc")) {
+        switch (getPositionOfType(element)) {
+          case 1:
+            firstDetails.add(element);
+            break;
+          case 2:
+            secondDetails.add(element);
+            break;
+          case 3:
+            thirdDetails.add(element);
+            break;
+          default:
+            break;
+        }
+      }
     }
 
-    return products;
+    /**
+     * Returns the position of the element among its siblings with the same tag, starting from 1,
+     * as used by the ":nth-of-type" selector.
+     */
+    private static int getPositionOfType(Element element) {
+      int position = 1;
+      for (Element sibling = element.previousElementSibling();
+          sibling != null;
+          sibling = sibling.previousElementSibling()) {
+        if (sibling.normalName().equals(element.normalName())) {
+          position++;
+        }
+      }
+      return position;
+    }
   }
 }
@@ -26,10 +26,10 @@ public class ProductPhotoDetector {
     this.productDetectionAPI = productDetectionAPI;
   }
 
-  public String buildShoppingQuery(byte[] imageBytes) throws PhotoDetectionException {
-    ProductDetectionData results = productDetectionAPI.detectProductPhotoContent(imageBytes);
+  public String buildShoppingQuery(ImageBuffer image) throws PhotoDetectionException {
+    ProductDetectionData results = productDetectionAPI.detectProductPhotoContent(image);
 
-    if (imageBytes.length == 0) {
+    if (image.size() == 0) {
       throw new PhotoDetectionException("Empty byte array.");
     }
 
@@ -0,0 +1,215 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+/**
+ * Cleans up the shopping queries, and encodes them for the Google Shopping search URL, in a
+ * single scan of their characters.
+ *
+ * A query is formatted by turning each run of whitespace into a single space, removing the
+ * special characters, and trimming it as {@link String#trim()} does. It is valid if it holds a
+ * letter or a digit from 1 to 9, and no line terminator, as the regular expression
+ * ".*[a-zA-Z1-9].*" checked before, whose "." does not match line terminators.
+ */
+public final class QueryNormalizer {
+  // Characters removed from the queries.
+  private static final String SPECIAL_CHARACTERS = "-+=,\n._^\";:~#></|!*";
+  private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+  // Prevent creating an instance of this class.
+  private QueryNormalizer() {}
+
+  /** Returns the formatted query, which is {@code query} itself if it is already formatted. */
+  public static String format(String query) {
+    char[] formatted = new char[query.length()];
+    int length = appendFormatted(query, formatted);
+    // The validity of the query does not matter here.
+    if (length < 0) {
+      length = ~length;
+    }
+    int start = getTrimmedStart(formatted, length);
+    int end = getTrimmedEnd(formatted, start, length);
+    if (end - start == query.length() && isSame(query, formatted)) {
+      return query;
+    }
+    return new String(formatted, start, end - start);
+  }
+
+  /**
+   * Returns the formatted query, percent-encoded in UTF-8 as the value of a URL query parameter,
+   * with its spaces encoded as "%20", or null if the query is not valid.
+   */
+  public static String toUrlParameter(String query) {
+    char[] formatted = new char[query.length()];
+    int length = appendFormatted(query, formatted);
+    if (length < 0) {
+      return null;
+    }
+    int start = getTrimmedStart(formatted, length);
+    int end = getTrimmedEnd(formatted, start, length);
+
+    // Only allocated once a character needs to be encoded.
+    StringBuilder encoded = null;
+    for (int i = start; i < end; i++) {
+      char c = formatted[i];
+      if (isUnreserved(c)) {
+        if (encoded != null) {
+          encoded.append(c);
+        }
+        continue;
+      }
+
+      if (encoded == null) {
+        // Most queries are words separated by spaces, each space taking 3 characters.
+        encoded = new StringBuilder(end - start + 16);
+        encoded.append(formatted, start, i - start);
+      }
+      int codePoint = c;
+      if (Character.isHighSurrogate(c)
+          && i + 1 < end
+          && Character.isLowSurrogate(formatted[i + 1])) {
+        codePoint = Character.toCodePoint(c, formatted[++i]);
+      } else if (Character.isSurrogate(c)) {
+        // A lone surrogate has no UTF-8 encoding, and is replaced as by String.getBytes.
+        codePoint = '?';
+      }
+      appendPercentEncoded(codePoint, encoded);
+    }
+    return encoded == null ? new String(formatted, start, end - start) : encoded.toString();
+  }
+
+  /** Returns true if the query holds a letter or a digit from 1 to 9, and no line terminator. */
+  public static boolean isValid(String query) {
+    boolean hasSearchableCharacter = false;
+    for (int i = 0; i < query.length(); i++) {
+      char c = query.charAt(i);
+      if (isLineTerminator(c)) {
+        return false;
+      }
+      hasSearchableCharacter |= isSearchable(c);
+    }
+    return hasSearchableCharacter;
+  }
+
+  /** Returns true for the characters matched by \s in a regular expression. */
+  static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+  }
+
+  /** Returns true for the characters removed from the queries. */
+  static boolean isSpecialCharacter(char c) {
+    return SPECIAL_CHARACTERS.indexOf(c) >= 0;
+  }
+
+  /**
+   * Writes the query, with its whitespace collapsed and its special characters removed, to
+   * {@code formatted}, and returns the number of characters written, or its complement (~) if
+   * the query is not valid, so that validation takes no second scan.
+   */
+  private static int appendFormatted(String query, char[] formatted) {
+    int length = 0;
+    boolean isInWhitespace = false;
+    boolean hasSearchableCharacter = false;
+    boolean hasLineTerminator = false;
+    for (int i = 0; i < query.length(); i++) {
+      char c = query.charAt(i);
+      if (isWhitespace(c)) {
+        if (!isInWhitespace) {
+          formatted[length++] = ' ';
+          isInWhitespace = true;
+        }
+      } else {
+        isInWhitespace = false;
+        if (!isSpecialCharacter(c)) {
+          formatted[length++] = c;
+        }
+      }
+      hasSearchableCharacter |= isSearchable(c);
+      hasLineTerminator |= isLineTerminator(c);
+    }
+    return hasSearchableCharacter && !hasLineTerminator ? length : ~length;
+  }
+
+  /** Returns the index of the first character kept by {@link String#trim()}. */
+  private static int getTrimmedStart(char[] chars, int length) {
+    int start = 0;
+    while (start < length && chars[start] <= ' ') {
+      start++;
+    }
+    return start;
+  }
+
+  /** Returns the index after the last character kept by {@link String#trim()}. */
+  private static int getTrimmedEnd(char[] chars, int start, int length) {
+    int end = length;
+    while (end > start && chars[end - 1] <= ' ') {
+      end--;
+    }
+    return end;
+  }
+
+  private static boolean isSame(String query, char[] chars) {
+    for (int i = 0; i < query.length(); i++) {
+      if (query.charAt(i) != chars[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Returns true for the characters matched by [a-zA-Z1-9]. */
+  private static boolean isSearchable(char c) {
+    return ('a' <= c && c <= 'z') || ('A' <= c && c <= 'Z') || ('1' <= c && c <= '9');
+  }
+
+  /** Returns true for the characters not matched by "." in a regular expression. */
+  private static boolean isLineTerminator(char c) {
+    return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+  }
+
+  /** Returns true for the characters left as they are in a URL, as defined by RFC 3986. */
+  private static boolean isUnreserved(char c) {
+    return ('a' <= c && c <= 'z')
+        || ('A' <= c && c <= 'Z')
+        || ('0' <= c && c <= '9')
+        || c == '-'
+        || c == '.'
+        || c == '_'
+        || c == '~';
+  }
+
+  /** Appends the UTF-8 bytes of the code point, each as "%" and two hexadecimal digits. */
+  private static void appendPercentEncoded(int codePoint, StringBuilder encoded) {
+    if (codePoint < 0x80) {
+      appendPercentEncodedByte(codePoint, encoded);
+    } else if (codePoint < 0x800) {
+      appendPercentEncodedByte(0xC0 | codePoint >> 6, encoded);
+      appendPercentEncodedByte(0x80 | codePoint & 0x3F, encoded);
+    } else if (codePoint < 0x10000) {
+      appendPercentEncodedByte(0xE0 | codePoint >> 12, encoded);
+      appendPercentEncodedByte(0x80 | codePoint >> 6 & 0x3F, encoded);
+      appendPercentEncodedByte(0x80 | codePoint & 0x3F, encoded);
+    } else {
+      appendPercentEncodedByte(0xF0 | codePoint >> 18, encoded);
+      appendPercentEncodedByte(0x80 | codePoint >> 12 & 0x3F, encoded);
+      appendPercentEncodedByte(0x80 | codePoint >> 6 & 0x3F, encoded);
+      appendPercentEncodedByte(0x80 | codePoint & 0x3F, encoded);
+    }
+  }
+
+  private static void appendPercentEncodedByte(int b, StringBuilder encoded) {
+    encoded.append('%').append(HEX_DIGITS[b >> 4]).append(HEX_DIGITS[b & 0xF]);
+  }
+}
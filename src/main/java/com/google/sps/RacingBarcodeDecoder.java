@@ -0,0 +1,355 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Binarizer;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.Result;
+import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
+import com.google.zxing.common.GlobalHistogramBinarizer;
+import com.google.zxing.common.HybridBinarizer;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Decodes the barcode of a photo by searching several variants of it concurrently: binarized
+ * with either the hybrid or the global histogram binarizer, turned by each quarter, cropped to
+ * its center and scaled down. The first variant in which a barcode is found wins, and the others
+ * are abandoned, so a skewed, turned or badly lit barcode is found about as fast as the variant
+ * suited to it, rather than after all the variants tried before it.
+ *
+ * The search is bounded by a time budget, after which the barcode is reported as not found.
+ */
+public class RacingBarcodeDecoder {
+  private static final long DEFAULT_BUDGET_MILLIS = 1500;
+
+  private static ForkJoinPool sharedPool;
+
+  private final ForkJoinPool pool;
+  private final long budgetMillis;
+  // MultiFormatReader is not thread-safe, so each thread of the pool keeps its own readers.
+  private final ThreadLocal<MultiFormatReader> fastReaders;
+  private final ThreadLocal<MultiFormatReader> tryHarderReaders;
+  private final AtomicLong raceCount = new AtomicLong();
+  private final AtomicLong foundCount = new AtomicLong();
+  private final AtomicLong timeoutCount = new AtomicLong();
+  private final AtomicLong abandonedVariantCount = new AtomicLong();
+  private final AtomicLong raceNanos = new AtomicLong();
+  private final Map<String, AtomicLong> winCounts = new ConcurrentHashMap<>();
+
+  /**
+   * @param pool         the pool searching the variants.
+   * @param formats      the barcode formats searched for.
+   * @param budgetMillis the time after which the search is abandoned.
+   */
+  public RacingBarcodeDecoder(
+      ForkJoinPool pool, Collection<BarcodeFormat> formats, long budgetMillis) {
+    this.pool = pool;
+    this.budgetMillis = budgetMillis;
+
+    Map<DecodeHintType, Object> fastHints = new EnumMap<>(DecodeHintType.class);
+    fastHints.put(DecodeHintType.POSSIBLE_FORMATS, ImmutableList.copyOf(formats));
+    Map<DecodeHintType, Object> tryHarderHints = new EnumMap<>(fastHints);
+    tryHarderHints.put(DecodeHintType.TRY_HARDER, Boolean.TRUE);
+    fastReaders = ThreadLocal.withInitial(() -> createReader(fastHints));
+    tryHarderReaders = ThreadLocal.withInitial(() -> createReader(tryHarderHints));
+  }
+
+  /**
+   * Creates a decoder searching on the pool shared by all requests, within the budget set by the
+   * "sps.barcode.race.budgetMillis" system property.
+   */
+  public static RacingBarcodeDecoder create(Collection<BarcodeFormat> formats) {
+    return new RacingBarcodeDecoder(
+        getSharedPool(),
+        formats,
+        Long.getLong("sps.barcode.race.budgetMillis", DEFAULT_BUDGET_MILLIS));
+  }
+
+  /**
+   * Returns the pool shared by all requests, whose number of threads is set by the
+   * "sps.barcode.race.threads" system property, by default one per processor.
+   */
+  public static synchronized ForkJoinPool getSharedPool() {
+    if (sharedPool == null) {
+      sharedPool =
+          new ForkJoinPool(
+              Integer.getInteger(
+                  "sps.barcode.race.threads", Runtime.getRuntime().availableProcessors()),
+              pool -> {
+                ForkJoinWorkerThread thread =
+                    ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("barcode-race-" + thread.getPoolIndex());
+                return thread;
+              },
+              null,
+              false);
+    }
+    return sharedPool;
+  }
+
+  /** Stops the threads of the shared pool, abandoning the searches in progress. */
+  public static synchronized void shutdownSharedPool() {
+    if (sharedPool != null) {
+      sharedPool.shutdownNow();
+      sharedPool = null;
+    }
+  }
+
+  private static MultiFormatReader createReader(Map<DecodeHintType, Object> hints) {
+    MultiFormatReader reader = new MultiFormatReader();
+    reader.setHints(hints);
+    return reader;
+  }
+
+  /**
+   * Returns the barcode found first in any variant of the image, or throws NotFoundException if
+   * none is found in any variant within the budget.
+   */
+  public Result decode(BufferedImage image) throws NotFoundException {
+    long startNanos = System.nanoTime();
+    raceCount.incrementAndGet();
+
+    List<Variant> variants = getVariants(image);
+    CompletableFuture<Win> winner = new CompletableFuture<>();
+    AtomicInteger remainingVariantCount = new AtomicInteger(variants.size());
+    // Claimed by each variant as its search starts, or by the end of the race, so that only the
+    // variants never searched are counted as abandoned: ForkJoinTask.cancel also succeeds for
+    // running tasks, without stopping them.
+    AtomicBoolean[] isStarted = new AtomicBoolean[variants.size()];
+    List<ForkJoinTask<?>> tasks = new ArrayList<>();
+    for (int i = 0; i < variants.size(); i++) {
+      Variant variant = variants.get(i);
+      AtomicBoolean isVariantStarted = isStarted[i] = new AtomicBoolean();
+      tasks.add(
+          pool.submit(() -> search(variant, isVariantStarted, winner, remainingVariantCount)));
+    }
+
+    try {
+      Win win = winner.get(budgetMillis, TimeUnit.MILLISECONDS);
+      foundCount.incrementAndGet();
+      winCounts.computeIfAbsent(win.variantName, name -> new AtomicLong()).incrementAndGet();
+      return win.result;
+    } catch (TimeoutException exception) {
+      timeoutCount.incrementAndGet();
+      throw NotFoundException.getNotFoundInstance();
+    } catch (ExecutionException exception) {
+      // No variant holds a barcode.
+      throw NotFoundException.getNotFoundInstance();
+    } catch (InterruptedException exception) {
+      Thread.currentThread().interrupt();
+      throw NotFoundException.getNotFoundInstance();
+    } finally {
+      // Variants not started yet are never run, and the running ones stop before decoding.
+      winner.cancel(false);
+      for (int i = 0; i < tasks.size(); i++) {
+        tasks.get(i).cancel(false);
+        if (isStarted[i].compareAndSet(false, true)) {
+          abandonedVariantCount.incrementAndGet();
+        }
+      }
+      raceNanos.addAndGet(System.nanoTime() - startNanos);
+    }
+  }
+
+  /**
+   * Searches a variant of the image, unless the race is over, and completes {@code winner} with
+   * the barcode found, or with an exception if this is the last variant and nothing is found.
+   */
+  private void search(
+      Variant variant,
+      AtomicBoolean isStarted,
+      CompletableFuture<Win> winner,
+      AtomicInteger remainingVariantCount) {
+    if (!isStarted.compareAndSet(false, true)) {
+      // The race ended before this variant was searched.
+      return;
+    }
+    try {
+      if (winner.isDone()) {
+        return;
+      }
+      BinaryBitmap bitmap = variant.createBitmap();
+      if (winner.isDone()) {
+        return;
+      }
+      MultiFormatReader reader = variant.tryHarder ? tryHarderReaders.get() : fastReaders.get();
+      winner.complete(new Win(variant.name, reader.decodeWithState(bitmap)));
+    } catch (NotFoundException | RuntimeException exception) {
+      // A RuntimeException is thrown by ZXing for variants too small to hold a barcode.
+      if (remainingVariantCount.decrementAndGet() == 0) {
+        winner.completeExceptionally(exception);
+      }
+    }
+  }
+
+  /** Returns the variants of the image, from the ones most likely to hold a readable barcode. */
+  private static List<Variant> getVariants(BufferedImage image) {
+    // Converted to grayscale once, and shared by the variants, which only read it.
+    LuminanceSource source = new BufferedImageLuminanceSource(image);
+    int width = source.getWidth();
+    int height = source.getHeight();
+    Supplier<LuminanceSource> centerCrop =
+        () -> source.crop(width / 4, height / 4, width / 2, height / 2);
+
+    List<Variant> variants = new ArrayList<>();
+    for (boolean isHybrid : new boolean[] {true, false}) {
+      String binarizer = isHybrid ? "hybrid" : "global-histogram";
+      Function<LuminanceSource, Binarizer> binarizerFactory =
+          isHybrid ? HybridBinarizer::new : GlobalHistogramBinarizer::new;
+      variants.add(new Variant(binarizer + "/upright", () -> source, binarizerFactory));
+      variants.add(
+          new Variant(binarizer + "/turned-90", source::rotateCounterClockwise, binarizerFactory));
+      variants.add(
+          new Variant(binarizer + "/turned-180", () -> rotate(source, 2), binarizerFactory));
+      variants.add(
+          new Variant(binarizer + "/turned-270", () -> rotate(source, 3), binarizerFactory));
+      variants.add(new Variant(binarizer + "/center", centerCrop, binarizerFactory));
+      variants.add(
+          new Variant(
+              binarizer + "/center-turned-90",
+              () -> centerCrop.get().rotateCounterClockwise(),
+              binarizerFactory));
+      variants.add(
+          new Variant(
+              binarizer + "/half-size",
+              () -> new BufferedImageLuminanceSource(scaleDown(image, 2)),
+              binarizerFactory));
+    }
+    // Searches many more rows, as a last resort for barcodes too faint for the other variants.
+    variants.add(new Variant("hybrid/try-harder", () -> source, HybridBinarizer::new, true));
+    return variants;
+  }
+
+  private static LuminanceSource rotate(LuminanceSource source, int quarterTurns) {
+    for (int i = 0; i < quarterTurns; i++) {
+      source = source.rotateCounterClockwise();
+    }
+    return source;
+  }
+
+  private static BufferedImage scaleDown(BufferedImage image, int factor) {
+    int width = Math.max(1, image.getWidth() / factor);
+    int height = Math.max(1, image.getHeight() / factor);
+    BufferedImage scaledImage = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+    Graphics2D graphics = scaledImage.createGraphics();
+    graphics.setRenderingHint(
+        RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+    graphics.drawImage(image, 0, 0, width, height, null);
+    graphics.dispose();
+    return scaledImage;
+  }
+
+  /** Returns the number of images searched. */
+  public long getRaceCount() {
+    return raceCount.get();
+  }
+
+  /** Returns the number of images in which a barcode was found. */
+  public long getFoundCount() {
+    return foundCount.get();
+  }
+
+  /** Returns the number of images whose search was abandoned at the end of the budget. */
+  public long getTimeoutCount() {
+    return timeoutCount.get();
+  }
+
+  /** Returns the number of variants never searched, as the race was over before they started. */
+  public long getAbandonedVariantCount() {
+    return abandonedVariantCount.get();
+  }
+
+  /** Returns the time, in milliseconds, spent searching the images. */
+  public double getRaceMillis() {
+    return raceNanos.get() / 1e6;
+  }
+
+  /** Returns, for each variant, the number of images in which it found the barcode first. */
+  public ImmutableMap<String, Long> getWinCounts() {
+    ImmutableMap.Builder<String, Long> counts = ImmutableMap.builder();
+    winCounts.forEach((name, count) -> counts.put(name, count.get()));
+    return counts.build();
+  }
+
+  /** The barcode found first, and the variant it was found in. */
+  private static final class Win {
+    final String variantName;
+    final Result result;
+
+    Win(String variantName, Result result) {
+      this.variantName = variantName;
+      this.result = result;
+    }
+  }
+
+  /** A way of transforming and binarizing the image before searching it. */
+  private static final class Variant {
+    final String name;
+    final Supplier<LuminanceSource> source;
+    final Function<LuminanceSource, Binarizer> binarizerFactory;
+    final boolean tryHarder;
+
+    Variant(
+        String name,
+        Supplier<LuminanceSource> source,
+        Function<LuminanceSource, Binarizer> binarizerFactory) {
+      this(name, source, binarizerFactory, false);
+    }
+
+    Variant(
+        String name,
+        Supplier<LuminanceSource> source,
+        Function<LuminanceSource, Binarizer> binarizerFactory,
+        boolean tryHarder) {
+      this.name = name;
+      this.source = source;
+      this.binarizerFactory = binarizerFactory;
+      this.tryHarder = tryHarder;
+    }
+
+    BinaryBitmap createBitmap() {
+      return new BinaryBitmap(binarizerFactory.apply(source.get()));
+    }
+  }
+}
@@ -0,0 +1,150 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.api.gax.grpc.GrpcCallContext;
+import com.google.api.gax.rpc.ApiCallContext;
+import com.google.cloud.vision.v1.AnnotateImageRequest;
+import com.google.cloud.vision.v1.BatchAnnotateImagesRequest;
+import com.google.cloud.vision.v1.BatchAnnotateImagesResponse;
+import com.google.cloud.vision.v1.ImageAnnotatorClient;
+import com.google.cloud.vision.v1.ImageAnnotatorSettings;
+
+import java.io.IOException;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds the single Cloud Vision client shared by all the detection classes.
+ *
+ * Creating an ImageAnnotatorClient opens a gRPC channel, does the TLS handshake and loads the
+ * credentials, so the client is created once, on first use, and reused for every request until
+ * the application stops. The client is thread-safe; its calls are spread over a small pool of
+ * channels, whose size is set by the "sps.vision.channelPoolSize" system property.
+ *
+ * Unless the "sps.vision.responseFieldMask" system property is "false", each call asks Cloud
+ * Vision API to return only the fields of {@link Constants#RESPONSE_FIELD_MASK}, which makes the
+ * responses of text detection in particular much smaller to send and to parse.
+ */
+public class SharedImageAnnotatorClient {
+  private static final int DEFAULT_CHANNEL_POOL_SIZE = 4;
+  private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+  private static final String FIELD_MASK_HEADER = "x-goog-fieldmask";
+
+  private static SharedImageAnnotatorClient instance;
+
+  private final ImageAnnotatorClient imageAnnotatorClient;
+  private final int channelPoolSize;
+  // Context of every call, holding the field mask header, or null to get the whole responses.
+  private final ApiCallContext callContext;
+  private final AtomicInteger inFlightCallCount = new AtomicInteger();
+
+  private SharedImageAnnotatorClient(
+      ImageAnnotatorClient imageAnnotatorClient, int channelPoolSize, String responseFieldMask) {
+    this.imageAnnotatorClient = imageAnnotatorClient;
+    this.channelPoolSize = channelPoolSize;
+    this.callContext =
+        responseFieldMask == null
+            ? null
+            : GrpcCallContext.createDefault()
+                .withExtraHeaders(
+                    Collections.singletonMap(
+                        FIELD_MASK_HEADER, Collections.singletonList(responseFieldMask)));
+  }
+
+  /**
+   * Returns the shared client, creating it if this is the first call.
+   */
+  public static synchronized SharedImageAnnotatorClient getInstance()
+      throws PhotoDetectionException {
+    if (instance == null) {
+      int channelPoolSize =
+          Integer.getInteger("sps.vision.channelPoolSize", DEFAULT_CHANNEL_POOL_SIZE);
+      String responseFieldMask =
+          Boolean.parseBoolean(System.getProperty("sps.vision.responseFieldMask", "true"))
+              ? Constants.RESPONSE_FIELD_MASK
+              : null;
+      try {
+        ImageAnnotatorSettings settings =
+            ImageAnnotatorSettings.newBuilder()
+                .setTransportChannelProvider(
+                    ImageAnnotatorSettings.defaultGrpcTransportProviderBuilder()
+                        .setPoolSize(channelPoolSize)
+                        .build())
+                .build();
+        instance = new SharedImageAnnotatorClient(
+            ImageAnnotatorClient.create(settings), channelPoolSize, responseFieldMask);
+      } catch (IOException exception) {
+        throw new PhotoDetectionException(
+            "Failed to create ImageAnnotatorClient.\n" + exception.getMessage(), exception);
+      }
+    }
+    return instance;
+  }
+
+  /**
+   * Closes the shared client, if it was created, and waits for the calls in flight to finish.
+   * Called when the application stops.
+   */
+  public static synchronized void shutdown() {
+    if (instance == null) {
+      return;
+    }
+
+    instance.imageAnnotatorClient.shutdown();
+    try {
+      instance.imageAnnotatorClient.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (InterruptedException exception) {
+      Thread.currentThread().interrupt();
+    }
+    instance.imageAnnotatorClient.close();
+    instance = null;
+  }
+
+  /**
+   * Returns the shared client, or null if it has not been created or has been shut down, without
+   * creating it.
+   */
+  public static synchronized SharedImageAnnotatorClient getInstanceIfCreated() {
+    return instance;
+  }
+
+  /**
+   * Sends the annotation requests to Cloud Vision API and returns the response.
+   */
+  public BatchAnnotateImagesResponse batchAnnotateImages(List<AnnotateImageRequest> requests) {
+    inFlightCallCount.incrementAndGet();
+    try {
+      BatchAnnotateImagesRequest request =
+          BatchAnnotateImagesRequest.newBuilder().addAllRequests(requests).build();
+      return imageAnnotatorClient.batchAnnotateImagesCallable().call(request, callContext);
+    } finally {
+      inFlightCallCount.decrementAndGet();
+    }
+  }
+
+  /** Returns the number of gRPC channels the client spreads its calls over. */
+  public int getChannelPoolSize() {
+    return channelPoolSize;
+  }
+
+  /** Returns the number of calls currently waiting for a Cloud Vision API response. */
+  public int getInFlightCallCount() {
+    return inFlightCallCount.get();
+  }
+}
@@ -0,0 +1,288 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.jsoup.UnsupportedMimeTypeException;
+
+/**
+ * HTTP client used to fetch the Google Shopping results pages, keeping a pool of persistent
+ * connections, so that most queries reuse an open connection instead of setting up a new one.
+ *
+ * The pool is shared by all requests and configured by the "sps.shopping.http.*" system
+ * properties: the total number of connections, the number of connections per host, the
+ * connect and read timeouts, how long idle connections are kept alive, and how many unread bytes
+ * of a page are drained to keep its connection. When all the connections are in use, a query
+ * waits up to "sps.shopping.http.connectionRequestTimeoutMillis" for one to be released, on top
+ * of the connect and read timeouts, before failing.
+ */
+public class ShoppingHttpClient {
+  private static final String USER_AGENT = "Mozilla/5.0";
+  private static final long DEFAULT_MAX_DRAIN_BYTES = 128 * 1024;
+
+  private static ShoppingHttpClient instance;
+
+  private final PoolingHttpClientConnectionManager connectionManager;
+  private final CloseableHttpClient httpClient;
+  private final long maxDrainBytes;
+
+  /** Reads the body of a successful response. */
+  public interface ResponseBodyReader<T> {
+    /**
+     * @param body    the response body, which does not need to be read to the end, nor closed.
+     * @param charset the charset declared by the response, or null if none is declared.
+     * @param url     the URL the response was fetched from.
+     */
+    T read(InputStream body, Charset charset, String url) throws IOException;
+  }
+
+  public ShoppingHttpClient(
+      int maxConnections,
+      int maxConnectionsPerRoute,
+      int connectionRequestTimeoutMillis,
+      int connectTimeoutMillis,
+      int readTimeoutMillis,
+      long keepAliveMillis,
+      long maxDrainBytes) {
+    this.maxDrainBytes = maxDrainBytes;
+    connectionManager = new PoolingHttpClientConnectionManager();
+    connectionManager.setMaxTotal(maxConnections);
+    connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+    RequestConfig requestConfig =
+        RequestConfig.custom()
+            .setConnectTimeout(connectTimeoutMillis)
+            .setConnectionRequestTimeout(connectionRequestTimeoutMillis)
+            .setSocketTimeout(readTimeoutMillis)
+            .build();
+
+    // Keep connections alive for as long as the server allows, and at most {@code keepAliveMillis}.
+    ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+      long serverKeepAliveMillis =
+          DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+      return serverKeepAliveMillis > 0
+          ? Math.min(serverKeepAliveMillis, keepAliveMillis)
+          : keepAliveMillis;
+    };
+
+    httpClient =
+        HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(requestConfig)
+            .setKeepAliveStrategy(keepAliveStrategy)
+            .setUserAgent(USER_AGENT)
+            .evictExpiredConnections()
+            .evictIdleConnections(keepAliveMillis, TimeUnit.MILLISECONDS)
+            .build();
+  }
+
+  /**
+   * Returns the client shared by all requests, creating it if this is the first call.
+   */
+  public static synchronized ShoppingHttpClient getInstance() {
+    if (instance == null) {
+      instance = new ShoppingHttpClient(
+          Integer.getInteger("sps.shopping.http.maxConnections", 50),
+          Integer.getInteger("sps.shopping.http.maxConnectionsPerRoute", 20),
+          Integer.getInteger("sps.shopping.http.connectionRequestTimeoutMillis", 1000),
+          Integer.getInteger("sps.shopping.http.connectTimeoutMillis", 3000),
+          Integer.getInteger("sps.shopping.http.readTimeoutMillis", 8000),
+          Long.getLong("sps.shopping.http.keepAliveMillis", 30000),
+          Long.getLong("sps.shopping.http.maxDrainBytes", DEFAULT_MAX_DRAIN_BYTES));
+    }
+    return instance;
+  }
+
+  /** Closes the shared client and its connections, if it was created. */
+  public static synchronized void shutdown() {
+    if (instance == null) {
+      return;
+    }
+
+    try {
+      instance.httpClient.close();
+    } catch (IOException exception) {
+      // The connections are released anyway.
+    }
+    instance = null;
+  }
+
+  /**
+   * Returns the shared client, or null if it has not been created or has been shut down, without
+   * creating it.
+   */
+  public static synchronized ShoppingHttpClient getInstanceIfCreated() {
+    return instance;
+  }
+
+  /**
+   * Fetches the HTML page at {@code url} and returns what {@code bodyReader} reads from it.
+   * Failures to connect, timeouts, non-200 statuses and non-HTML responses are thrown as
+   * ShoppingQuerierConnectionException, other I/O errors are re-thrown.
+   */
+  public <T> T get(String url, ResponseBodyReader<T> bodyReader)
+      throws IOException, ShoppingQuerierConnectionException {
+    HttpGet httpGet;
+    try {
+      httpGet = new HttpGet(url);
+    } catch (IllegalArgumentException exception) {
+      throw new ShoppingQuerierConnectionException("Failed to fetch from Google Search.", exception);
+    }
+
+    try (CloseableHttpResponse response = httpClient.execute(httpGet)) {
+      int statusCode = response.getStatusLine().getStatusCode();
+      if (statusCode != HttpStatus.SC_OK) {
+        throw new ShoppingQuerierConnectionException(
+            "Failed to fetch from Google Search.",
+            new HttpResponseException(statusCode, response.getStatusLine().getReasonPhrase()));
+      }
+
+      HttpEntity entity = response.getEntity();
+      ContentType contentType = ContentType.getOrDefault(entity);
+      String mimeType = contentType.getMimeType();
+      if (!mimeType.equals("text/html") && !mimeType.equals("application/xhtml+xml")) {
+        throw new ShoppingQuerierConnectionException(
+            "Failed to fetch from Google Search.",
+            new UnsupportedMimeTypeException("Unhandled content type.", mimeType, url));
+      }
+
+      BodyInputStream body = new BodyInputStream(entity.getContent());
+      T result = bodyReader.read(body, contentType.getCharset(), url);
+      // Closing the response after the whole body is read returns the connection to the pool.
+      // Readers usually stop once they have enough products, so the rest of the page is read and
+      // dropped if it is small, which is cheaper than opening a new connection for the next
+      // query. A large rest closes the connection instead.
+      if (!body.isAtEnd() && !body.drain(entity.getContentLength(), maxDrainBytes)) {
+        httpGet.abort();
+      }
+      return result;
+    } catch (ClientProtocolException
+        | ConnectTimeoutException
+        | SocketTimeoutException exception) {
+      throw new ShoppingQuerierConnectionException("Failed to fetch from Google Search.", exception);
+    }
+  }
+
+  /** Returns the number of connections currently used by requests. */
+  public int getLeasedConnectionCount() {
+    return getPoolStats().getLeased();
+  }
+
+  /** Returns the number of open connections waiting to be reused. */
+  public int getAvailableConnectionCount() {
+    return getPoolStats().getAvailable();
+  }
+
+  /** Returns the number of requests waiting for a connection. */
+  public int getPendingRequestCount() {
+    return getPoolStats().getPending();
+  }
+
+  /** Returns the maximum number of connections in the pool. */
+  public int getMaxConnectionCount() {
+    return getPoolStats().getMax();
+  }
+
+  private PoolStats getPoolStats() {
+    return connectionManager.getTotalStats();
+  }
+
+  /**
+   * Response body passed to the readers, recording how much of it was read, and whether it was
+   * read to the end. Closing it does nothing, as the response is closed once the reader returns.
+   */
+  private static class BodyInputStream extends FilterInputStream {
+    private boolean isAtEnd = false;
+    private long readByteCount = 0;
+
+    BodyInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int value = super.read();
+      isAtEnd |= value == -1;
+      readByteCount += value == -1 ? 0 : 1;
+      return value;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      int count = super.read(buffer, offset, length);
+      isAtEnd |= count == -1;
+      readByteCount += Math.max(count, 0);
+      return count;
+    }
+
+    @Override
+    public void close() {}
+
+    boolean isAtEnd() {
+      return isAtEnd;
+    }
+
+    /**
+     * Reads and drops the rest of the body, unless it is longer than {@code maxDrainBytes}, and
+     * returns true if the body was read to the end. Failing to read the rest is not an error, as
+     * the reader already has its result, so false is returned.
+     *
+     * @param contentLength the length of the body, or a negative value if it is not known.
+     */
+    boolean drain(long contentLength, long maxDrainBytes) throws IOException {
+      long remainingByteCount =
+          contentLength >= 0 ? contentLength - readByteCount : maxDrainBytes;
+      if (remainingByteCount > maxDrainBytes) {
+        return false;
+      }
+      // The body may be longer than declared, or its length unknown, so stop at the bound.
+      byte[] buffer = new byte[8192];
+      long drainedByteCount = 0;
+      try {
+        while (drainedByteCount <= maxDrainBytes) {
+          int count = read(buffer, 0, buffer.length);
+          if (count == -1) {
+            return true;
+          }
+          drainedByteCount += count;
+        }
+      } catch (IOException exception) {
+        // The connection is closed instead.
+      }
+      return false;
+    }
+  }
+}
@@ -0,0 +1,127 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.sps.data.ShoppingListTextEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Groups the words detected by Cloud Vision API into the lines of a shopping list or a receipt,
+ * and formats each line as a shopping query, in a single pass over the words.
+ *
+ * Cloud Vision API returns the words of each block of text line by line, each from left to right,
+ * so a word continues the line of the previous word if its box overlaps the box of the previous
+ * word vertically, and starts to its right, at most a few line heights away. A word starting a
+ * new row, or across the gap between two columns of a list, starts a new line.
+ *
+ * Each line is formatted as it is built, as {@link QueryNormalizer#format(String)} would format
+ * the words separated by spaces: runs of whitespace become a single space, special characters
+ * are removed, and the line is trimmed.
+ */
+public final class ShoppingListLineAssembler {
+  // Maximum horizontal gap between two words of a line, in heights of the previous word. Words
+  // are usually spaced by less than half their height, and columns by much more.
+  private static final int MAX_WORD_GAP_HEIGHTS = 3;
+
+  // Prevent creating an instance of this class.
+  private ShoppingListLineAssembler() {}
+
+  /** Returns the formatted lines of the words, in order, without the empty ones. */
+  public static List<String> assembleLines(List<ShoppingListTextEntry> words) {
+    List<String> lines = new ArrayList<>();
+    StringBuilder line = new StringBuilder();
+    // Whether the unformatted line, i.e. its words separated by spaces, ends with whitespace.
+    boolean isInWhitespace = false;
+    ShoppingListTextEntry previousWord = null;
+    for (ShoppingListTextEntry word : words) {
+      if (previousWord != null) {
+        if (isInSameLine(previousWord, word)) {
+          // The space separating the words, part of the whitespace ending the previous word, if
+          // any.
+          if (!isInWhitespace) {
+            line.append(' ');
+            isInWhitespace = true;
+          }
+        } else {
+          addLine(line, lines);
+          line.setLength(0);
+          isInWhitespace = false;
+        }
+      }
+      isInWhitespace = appendFormatted(word.getText(), isInWhitespace, line);
+      previousWord = word;
+    }
+    addLine(line, lines);
+    return lines;
+  }
+
+  /**
+   * Returns true if {@code word} continues the line of {@code previousWord}: their boxes overlap
+   * vertically, and {@code word} starts to the right of {@code previousWord}, near enough.
+   */
+  static boolean isInSameLine(ShoppingListTextEntry previousWord, ShoppingListTextEntry word) {
+    // The origin is the top-left corner, so the upper boundary has the lower y value.
+    int verticalOverlap =
+        Math.min(previousWord.getLowerYBoundary(), word.getLowerYBoundary())
+            - Math.max(previousWord.getUpperYBoundary(), word.getUpperYBoundary());
+    if (verticalOverlap <= 0) {
+      return false;
+    }
+
+    int height = previousWord.getLowerYBoundary() - previousWord.getUpperYBoundary();
+    int horizontalGap = word.getLeftXBoundary() - previousWord.getRightXBoundary();
+    return word.getLeftXBoundary() >= previousWord.getLeftXBoundary()
+        && horizontalGap <= MAX_WORD_GAP_HEIGHTS * height;
+  }
+
+  /**
+   * Appends the text to the line, turning each run of whitespace into a single space, and
+   * removing the special characters, and returns whether the text ends a run of whitespace.
+   */
+  private static boolean appendFormatted(String text, boolean isInWhitespace, StringBuilder line) {
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (QueryNormalizer.isWhitespace(c)) {
+        if (!isInWhitespace) {
+          line.append(' ');
+          isInWhitespace = true;
+        }
+      } else {
+        isInWhitespace = false;
+        if (!QueryNormalizer.isSpecialCharacter(c)) {
+          line.append(c);
+        }
+      }
+    }
+    return isInWhitespace;
+  }
+
+  /** Adds the line, trimmed as by {@link String#trim()}, unless it is empty. */
+  private static void addLine(StringBuilder line, List<String> lines) {
+    int start = 0;
+    int end = line.length();
+    while (start < end && line.charAt(start) <= ' ') {
+      start++;
+    }
+    while (end > start && line.charAt(end - 1) <= ' ') {
+      end--;
+    }
+    if (start < end) {
+      lines.add(line.substring(start, end));
+    }
+  }
+}
@@ -0,0 +1,111 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces identical concurrent calls: while a call for a key is in flight, other callers
+ * asking for the same key wait for it and share its result, or its exception, instead of making
+ * the same call again.
+ *
+ * {@link #execute(Object, Callable)} runs the call on the thread of the first caller, while
+ * {@link #executeAsync(Object, Callable, Executor)} runs it on an executor, so that the shared
+ * call does not fail when the thread of the caller which started it is interrupted.
+ */
+public class SingleFlight<K, V> {
+  private final ConcurrentMap<K, CompletableFuture<V>> inFlightCalls = new ConcurrentHashMap<>();
+  private final AtomicLong coalescedCallCount = new AtomicLong();
+
+  /**
+   * Runs {@code call} and returns its result, unless a call for {@code key} is already in flight,
+   * in which case waits for that call and returns its result.
+   *
+   * @throws ExecutionException wrapping the exception thrown by the call.
+   */
+  public V execute(K key, Callable<V> call) throws ExecutionException {
+    CompletableFuture<V> future = new CompletableFuture<>();
+    CompletableFuture<V> inFlightCall = inFlightCalls.putIfAbsent(key, future);
+    if (inFlightCall != null) {
+      coalescedCallCount.incrementAndGet();
+      return Uninterruptibles.getUninterruptibly(inFlightCall);
+    }
+
+    try {
+      V result = call.call();
+      future.complete(result);
+      return result;
+    } catch (Exception exception) {
+      future.completeExceptionally(exception);
+      throw new ExecutionException(exception);
+    } catch (Error error) {
+      future.completeExceptionally(error);
+      throw error;
+    } finally {
+      // Callers arriving from now on start a new call.
+      inFlightCalls.remove(key, future);
+    }
+  }
+
+  /**
+   * Runs {@code call} on {@code executor}, unless a call for {@code key} is already in flight, and
+   * returns a future of the result of the call. Each caller gets its own future, so cancelling it
+   * or giving up waiting for it does not affect the call, nor the other callers.
+   */
+  public CompletableFuture<V> executeAsync(K key, Callable<V> call, Executor executor) {
+    CompletableFuture<V> future = new CompletableFuture<>();
+    CompletableFuture<V> inFlightCall = inFlightCalls.putIfAbsent(key, future);
+    if (inFlightCall != null) {
+      coalescedCallCount.incrementAndGet();
+      return inFlightCall.thenApply(result -> result);
+    }
+
+    try {
+      executor.execute(() -> {
+        try {
+          future.complete(call.call());
+        } catch (Throwable throwable) {
+          future.completeExceptionally(throwable);
+        } finally {
+          // Callers arriving from now on start a new call.
+          inFlightCalls.remove(key, future);
+        }
+      });
+    } catch (RejectedExecutionException exception) {
+      inFlightCalls.remove(key, future);
+      future.completeExceptionally(exception);
+    }
+    return future.thenApply(result -> result);
+  }
+
+  /** Returns the number of calls that shared the result of a call already in flight. */
+  public long getCoalescedCallCount() {
+    return coalescedCallCount.get();
+  }
+
+  /** Returns the number of keys with a call currently in flight. */
+  public int getInFlightCallCount() {
+    return inFlightCalls.size();
+  }
+}
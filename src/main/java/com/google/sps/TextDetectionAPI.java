@@ -21,5 +21,5 @@ import java.util.List;
  * Interface used for Cloud Vision API related functionality.
  */
 public interface TextDetectionAPI {
-  public List<ShoppingListTextEntry> detect(byte[] imageBytes) throws PhotoDetectionException;
+  public List<ShoppingListTextEntry> detect(ImageBuffer image) throws PhotoDetectionException;
 }
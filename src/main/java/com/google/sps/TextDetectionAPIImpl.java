@@ -16,22 +16,32 @@ package com.google.sps;
 
 import com.google.cloud.vision.v1.AnnotateImageRequest;
 import com.google.cloud.vision.v1.AnnotateImageResponse;
-import com.google.cloud.vision.v1.BatchAnnotateImagesResponse;
+import com.google.cloud.vision.v1.BoundingPoly;
 import com.google.cloud.vision.v1.EntityAnnotation;
 import com.google.cloud.vision.v1.Image;
-import com.google.cloud.vision.v1.ImageAnnotatorClient;
+import com.google.cloud.vision.v1.Vertex;
 import com.google.sps.data.ShoppingListTextEntry;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
 public class TextDetectionAPIImpl implements TextDetectionAPI {
-  public List<ShoppingListTextEntry> detect(byte[] imageBytes) throws PhotoDetectionException {
-    Image shoppingImage = PhotoShoppingUtil.getImageFromBytes(imageBytes);
+  private final ImagePreprocessor imagePreprocessor;
+
+  public TextDetectionAPIImpl() {
+    this(ImagePreprocessor.forTextDetection());
+  }
+
+  public TextDetectionAPIImpl(ImagePreprocessor imagePreprocessor) {
+    this.imagePreprocessor = imagePreprocessor;
+  }
+
+  public List<ShoppingListTextEntry> detect(ImageBuffer image) throws PhotoDetectionException {
+    // Scale the image down to the resolution needed to read the text.
+    Image shoppingImage = PhotoShoppingUtil.getImageFromBuffer(imagePreprocessor.preprocess(image));
 
     AnnotateImageRequest request = generateShoppingImageRequest(shoppingImage);
 
-    BatchAnnotateImagesResponse response = detectTextFromImage(request);
+    AnnotateImageResponse response = detectTextFromImage(request);
 
     return parseAnnotateImageResponse(response);
   }
@@ -40,7 +50,7 @@ public class TextDetectionAPIImpl implements TextDetectionAPI {
   private AnnotateImageRequest generateShoppingImageRequest(Image shoppingImage) {
     AnnotateImageRequest request =
         AnnotateImageRequest.newBuilder()
-            .addFeatures(Constants.TEXT_DETECTION_FEATURE)
+            .addAllFeatures(Constants.TEXT_DETECTION_FEATURES)
             .setImage(shoppingImage)
             .build();
 
@@ -51,20 +61,10 @@ public class TextDetectionAPIImpl implements TextDetectionAPI {
    * Sends request to cloudVisionAPI. The Cloud Vision API scans the image and returns back the
    * text, its position and properties as the response.
    */
-  private BatchAnnotateImagesResponse detectTextFromImage(AnnotateImageRequest request)
+  private AnnotateImageResponse detectTextFromImage(AnnotateImageRequest request)
       throws PhotoDetectionException {
-    ImageAnnotatorClient cloudVisionClient;
-    try {
-      cloudVisionClient = ImageAnnotatorClient.create();
-    } catch (IOException exception) {
-      throw new PhotoDetectionException(
-          "Failed to create cloudVisionClient\n" + exception.getMessage(), exception);
-    }
-    List<AnnotateImageRequest> requests = new ArrayList<>();
-    requests.add(request);
-    BatchAnnotateImagesResponse response = cloudVisionClient.batchAnnotateImages(requests);
-    cloudVisionClient.close();
-    return response;
+    // Sent in a single call with the requests of concurrent uploads.
+    return VisionBatchDispatcher.getInstance().annotate(request);
   }
 
   /**
@@ -72,24 +72,32 @@ public class TextDetectionAPIImpl implements TextDetectionAPI {
    * The positions from annotation will be used in sentence formation algorithm to separate
    * individual queries from the shopping list.
    */
-  private List<ShoppingListTextEntry> parseAnnotateImageResponse(
-      BatchAnnotateImagesResponse response) throws PhotoDetectionException {
-    List<AnnotateImageResponse> responses = response.getResponsesList();
-    List<ShoppingListTextEntry> shoppingListText = new ArrayList<>();
-    for (AnnotateImageResponse identifiedText : responses) {
-      if (identifiedText.hasError()) {
-        throw new PhotoDetectionException(
-            "An error occurred while identifying the text from the image\n"
-                + identifiedText.getError().getMessage());
-      }
+  static List<ShoppingListTextEntry> parseAnnotateImageResponse(
+      AnnotateImageResponse identifiedText) throws PhotoDetectionException {
+    if (identifiedText.hasError()) {
+      throw new PhotoDetectionException(
+          "An error occurred while identifying the text from the image\n"
+              + identifiedText.getError().getMessage());
+    }
 
-      for (EntityAnnotation annotation : identifiedText.getTextAnnotationsList()) {
-        shoppingListText.add(
-            ShoppingListTextEntry.create(
-                annotation.getDescription(),
-                annotation.getBoundingPoly().getVertices(0).getY(),
-                annotation.getBoundingPoly().getVertices(3).getY()));
+    List<ShoppingListTextEntry> shoppingListText = new ArrayList<>();
+    for (EntityAnnotation annotation : identifiedText.getTextAnnotationsList()) {
+      BoundingPoly boundingPoly = annotation.getBoundingPoly();
+      // The vertices go clockwise from the top-left corner of the word, so the left and right
+      // boundaries are the extreme x values of the four corners, even for a slanted word.
+      int leftXBoundary = Integer.MAX_VALUE;
+      int rightXBoundary = Integer.MIN_VALUE;
+      for (Vertex vertex : boundingPoly.getVerticesList()) {
+        leftXBoundary = Math.min(leftXBoundary, vertex.getX());
+        rightXBoundary = Math.max(rightXBoundary, vertex.getX());
       }
+      shoppingListText.add(
+          ShoppingListTextEntry.create(
+              annotation.getDescription(),
+              boundingPoly.getVertices(0).getY(),
+              boundingPoly.getVertices(3).getY(),
+              leftXBoundary,
+              rightXBoundary));
     }
     return shoppingListText;
   }
@@ -0,0 +1,334 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.cloud.vision.v1.AnnotateImageRequest;
+import com.google.cloud.vision.v1.AnnotateImageResponse;
+import com.google.cloud.vision.v1.BatchAnnotateImagesResponse;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends the Cloud Vision API requests of concurrent uploads together, in a single
+ * batchAnnotateImages call, and hands each caller the response to its own request.
+ *
+ * A batch is sent once it holds "sps.vision.batch.maxSize" requests (at most 16, the most Cloud
+ * Vision API accepts in one call), once adding the next request would make it larger than
+ * "sps.vision.batch.maxBytes", or "sps.vision.batch.lingerMillis" after its first request
+ * arrived, whichever comes first. A lone request therefore waits at most the linger time, while
+ * under load several uploads share one call, reducing the per-call overhead and quota usage.
+ *
+ * Each caller waits at most "sps.vision.batch.timeoutMillis" for its response, so that a batch
+ * which never completes, e.g. one lost while the application stops, does not hold the request
+ * thread forever.
+ */
+public class VisionBatchDispatcher {
+  // Maximum number of images Cloud Vision API accepts in one batchAnnotateImages call.
+  public static final int MAX_BATCH_SIZE = 16;
+  private static final long DEFAULT_LINGER_MILLIS = 5;
+  // Cloud Vision API rejects calls larger than 10 MB, so keep a margin.
+  private static final long DEFAULT_MAX_BATCH_BYTES = 8 * 1024 * 1024;
+  private static final long DEFAULT_TIMEOUT_MILLIS = 30000;
+  private static final long STOP_TIMEOUT_SECONDS = 10;
+
+  private static VisionBatchDispatcher instance;
+
+  /** Sends a batch of annotation requests to Cloud Vision API. */
+  public interface BatchSender {
+    /** Returns the responses to the {@code requests}, in the same order. */
+    BatchAnnotateImagesResponse batchAnnotateImages(List<AnnotateImageRequest> requests)
+        throws PhotoDetectionException;
+  }
+
+  /** A request waiting to be sent, and the response its caller waits for. */
+  private static class PendingRequest {
+    private final AnnotateImageRequest request;
+    private final int size;
+    private final CompletableFuture<AnnotateImageResponse> response = new CompletableFuture<>();
+
+    PendingRequest(AnnotateImageRequest request) {
+      this.request = request;
+      this.size = request.getSerializedSize();
+    }
+  }
+
+  private final BatchSender sender;
+  private final int maxBatchSize;
+  private final long lingerNanos;
+  private final long maxBatchBytes;
+  private final long timeoutMillis;
+  private final BlockingQueue<PendingRequest> pendingRequests = new LinkedBlockingQueue<>();
+  private final ExecutorService batchSenderExecutor;
+  private final Thread dispatcherThread;
+  private volatile boolean isStopped;
+  // The request which did not fit in the last batch, so it starts the next one. Only used by the
+  // dispatcher thread.
+  private PendingRequest nextBatchFirstRequest;
+  private final AtomicLong batchCount = new AtomicLong();
+  private final AtomicLong requestCount = new AtomicLong();
+
+  public VisionBatchDispatcher(
+      BatchSender sender, int maxBatchSize, long lingerMillis, long maxBatchBytes) {
+    this(sender, maxBatchSize, lingerMillis, maxBatchBytes, DEFAULT_TIMEOUT_MILLIS);
+  }
+
+  /**
+   * @param timeoutMillis the time each caller waits for its response, from when its request is
+   *                      added.
+   */
+  public VisionBatchDispatcher(
+      BatchSender sender,
+      int maxBatchSize,
+      long lingerMillis,
+      long maxBatchBytes,
+      long timeoutMillis) {
+    if (maxBatchSize < 1 || maxBatchSize > MAX_BATCH_SIZE) {
+      throw new IllegalArgumentException(
+          "Batch size must be between 1 and " + MAX_BATCH_SIZE + ".");
+    }
+    this.sender = sender;
+    this.maxBatchSize = maxBatchSize;
+    this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+    this.maxBatchBytes = maxBatchBytes;
+    this.timeoutMillis = timeoutMillis;
+
+    // Batches are sent from their own threads, so that the next batch is collected while the
+    // previous one waits for its response.
+    batchSenderExecutor =
+        Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder()
+                .setNameFormat("vision-batch-sender-%d")
+                .setDaemon(true)
+                .build());
+    dispatcherThread =
+        new ThreadFactoryBuilder()
+            .setNameFormat("vision-batch-dispatcher")
+            .setDaemon(true)
+            .build()
+            .newThread(this::dispatch);
+    dispatcherThread.start();
+  }
+
+  /**
+   * Returns the dispatcher shared by all requests, sending its batches with the shared Cloud
+   * Vision client, and creating it if this is the first call.
+   */
+  public static synchronized VisionBatchDispatcher getInstance() {
+    if (instance == null) {
+      instance = new VisionBatchDispatcher(
+          requests -> SharedImageAnnotatorClient.getInstance().batchAnnotateImages(requests),
+          Math.min(Integer.getInteger("sps.vision.batch.maxSize", MAX_BATCH_SIZE), MAX_BATCH_SIZE),
+          Long.getLong("sps.vision.batch.lingerMillis", DEFAULT_LINGER_MILLIS),
+          Long.getLong("sps.vision.batch.maxBytes", DEFAULT_MAX_BATCH_BYTES),
+          Long.getLong("sps.vision.batch.timeoutMillis", DEFAULT_TIMEOUT_MILLIS));
+    }
+    return instance;
+  }
+
+  /**
+   * Stops the shared dispatcher, if it was created, failing the requests not sent yet. Called
+   * when the application stops, before the shared Cloud Vision client is closed.
+   */
+  public static synchronized void shutdown() {
+    if (instance != null) {
+      instance.stop();
+      instance = null;
+    }
+  }
+
+  /**
+   * Returns the shared dispatcher, or null if it has not been created or has been shut down, without
+   * creating it.
+   */
+  public static synchronized VisionBatchDispatcher getInstanceIfCreated() {
+    return instance;
+  }
+
+  /**
+   * Sends the {@code request} to Cloud Vision API, along with the requests of other callers, and
+   * returns its response.
+   */
+  public AnnotateImageResponse annotate(AnnotateImageRequest request)
+      throws PhotoDetectionException {
+    if (isStopped) {
+      throw new PhotoDetectionException("The Vision batch dispatcher is stopped.");
+    }
+    PendingRequest pendingRequest = new PendingRequest(request);
+    pendingRequests.add(pendingRequest);
+    if (isStopped) {
+      // Stopped while the request was added, so it may never be sent.
+      failPendingRequests();
+    }
+
+    try {
+      return pendingRequest.response.get(timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (ExecutionException exception) {
+      // Re-throw the exception thrown when sending the batch.
+      Throwable cause = exception.getCause();
+      Throwables.propagateIfPossible(cause, PhotoDetectionException.class);
+      throw new PhotoDetectionException(cause.getMessage(), cause);
+    } catch (TimeoutException exception) {
+      throw new PhotoDetectionException("Timed out waiting for Cloud Vision API.", exception);
+    } catch (InterruptedException exception) {
+      Thread.currentThread().interrupt();
+      throw new PhotoDetectionException(
+          "Interrupted while waiting for Cloud Vision API.", exception);
+    }
+  }
+
+  /**
+   * Stops collecting batches and fails the requests not sent yet. The batches already sent still
+   * get their responses.
+   */
+  public void stop() {
+    isStopped = true;
+    dispatcherThread.interrupt();
+    try {
+      dispatcherThread.join(TimeUnit.SECONDS.toMillis(STOP_TIMEOUT_SECONDS));
+    } catch (InterruptedException exception) {
+      Thread.currentThread().interrupt();
+    }
+    batchSenderExecutor.shutdown();
+    if (nextBatchFirstRequest != null) {
+      failBatch(
+          singletonBatch(nextBatchFirstRequest),
+          new PhotoDetectionException("The Vision batch dispatcher is stopped."));
+      nextBatchFirstRequest = null;
+    }
+    failPendingRequests();
+  }
+
+  /** Returns the number of batchAnnotateImages calls made. */
+  public long getBatchCount() {
+    return batchCount.get();
+  }
+
+  /** Returns the number of requests sent, over all the batches. */
+  public long getRequestCount() {
+    return requestCount.get();
+  }
+
+  /** Returns the number of requests waiting to be added to a batch. */
+  public int getQueuedRequestCount() {
+    return pendingRequests.size();
+  }
+
+  /** Collects the pending requests into batches and hands them over to be sent, until stopped. */
+  private void dispatch() {
+    while (!isStopped) {
+      List<PendingRequest> batch;
+      try {
+        batch = takeBatch();
+      } catch (InterruptedException exception) {
+        // Stopped.
+        return;
+      }
+
+      try {
+        batchSenderExecutor.execute(() -> send(batch));
+      } catch (RejectedExecutionException exception) {
+        failBatch(batch, new PhotoDetectionException("The Vision batch dispatcher is stopped."));
+      }
+    }
+  }
+
+  /**
+   * Waits for a request, then collects the next requests arriving within the linger time, as long
+   * as the batch is not full.
+   */
+  private List<PendingRequest> takeBatch() throws InterruptedException {
+    PendingRequest firstRequest =
+        nextBatchFirstRequest != null ? nextBatchFirstRequest : pendingRequests.take();
+    nextBatchFirstRequest = null;
+
+    List<PendingRequest> batch = singletonBatch(firstRequest);
+    long batchBytes = firstRequest.size;
+    long deadline = System.nanoTime() + lingerNanos;
+    while (batch.size() < maxBatchSize) {
+      PendingRequest nextRequest = pendingRequests.poll(
+          Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+      if (nextRequest == null) {
+        break;
+      }
+      if (batchBytes + nextRequest.size > maxBatchBytes) {
+        nextBatchFirstRequest = nextRequest;
+        break;
+      }
+      batch.add(nextRequest);
+      batchBytes += nextRequest.size;
+    }
+    return batch;
+  }
+
+  /** Sends the batch and completes the response of each request in it. */
+  private void send(List<PendingRequest> batch) {
+    List<AnnotateImageRequest> requests = new ArrayList<>();
+    for (PendingRequest pendingRequest : batch) {
+      requests.add(pendingRequest.request);
+    }
+    batchCount.incrementAndGet();
+    requestCount.addAndGet(batch.size());
+
+    BatchAnnotateImagesResponse response;
+    try {
+      response = sender.batchAnnotateImages(requests);
+    } catch (PhotoDetectionException | RuntimeException exception) {
+      failBatch(batch, exception);
+      return;
+    }
+
+    if (response.getResponsesCount() != batch.size()) {
+      failBatch(batch, new PhotoDetectionException(
+          "Cloud Vision API returned " + response.getResponsesCount() + " responses to "
+              + batch.size() + " requests."));
+      return;
+    }
+    for (int i = 0; i < batch.size(); i++) {
+      batch.get(i).response.complete(response.getResponses(i));
+    }
+  }
+
+  private void failPendingRequests() {
+    List<PendingRequest> unsentRequests = new ArrayList<>();
+    pendingRequests.drainTo(unsentRequests);
+    failBatch(
+        unsentRequests, new PhotoDetectionException("The Vision batch dispatcher is stopped."));
+  }
+
+  private static void failBatch(List<PendingRequest> batch, Exception exception) {
+    for (PendingRequest pendingRequest : batch) {
+      pendingRequest.response.completeExceptionally(exception);
+    }
+  }
+
+  private static List<PendingRequest> singletonBatch(PendingRequest pendingRequest) {
+    List<PendingRequest> batch = new ArrayList<>();
+    batch.add(pendingRequest);
+    return batch;
+  }
+}
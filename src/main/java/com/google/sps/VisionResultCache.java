@@ -0,0 +1,179 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.cloud.vision.v1.Feature;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.base.Throwables;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the parsed Cloud Vision API results for an image, keyed by a digest of the image bytes
+ * and the features requested from Cloud Vision API, so that uploading the same photo again does
+ * not trigger another Cloud Vision API call.
+ *
+ * The cache is bounded both by the number of entries and by their age. Failed detections are
+ * also cached, but only for a short time, so that retries of an image Cloud Vision API cannot
+ * process fail fast, while transient errors are not remembered for long. Concurrent lookups of an
+ * image which is not cached yet share a single call.
+ */
+public class VisionResultCache<V> {
+  private final String featuresKey;
+  private final Cache<String, V> results;
+  private final Cache<String, Failure> failures;
+  private final SingleFlight<String, V> singleFlight = new SingleFlight<>();
+
+  /** Computes the detection result for an image when it is not cached. */
+  public interface Loader<V> {
+    V load() throws PhotoDetectionException;
+  }
+
+  /**
+   * @param features         the features requested from Cloud Vision API for each image.
+   * @param maxEntries       the maximum number of results (and of failures) kept in the cache.
+   * @param ttlSeconds       the time a result is kept for, after being loaded.
+   * @param failureTtlSeconds the time a failure is kept for, after being thrown.
+   */
+  public VisionResultCache(
+      List<Feature> features, long maxEntries, long ttlSeconds, long failureTtlSeconds) {
+    this.featuresKey = getFeaturesKey(features);
+    this.results =
+        CacheBuilder.newBuilder()
+            .maximumSize(maxEntries)
+            .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+    this.failures =
+        CacheBuilder.newBuilder()
+            .maximumSize(maxEntries)
+            .expireAfterWrite(failureTtlSeconds, TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+  }
+
+  /**
+   * Creates a cache for the given features, configured from the "sps.vision.cache.*" system
+   * properties.
+   */
+  public static <V> VisionResultCache<V> create(List<Feature> features) {
+    return new VisionResultCache<>(
+        features,
+        Long.getLong("sps.vision.cache.maxEntries", 1000),
+        Long.getLong("sps.vision.cache.ttlSeconds", 3600),
+        Long.getLong("sps.vision.cache.failureTtlSeconds", 30));
+  }
+
+  /**
+   * Returns the cached result for {@code image}, re-throws the cached failure, or calls the
+   * {@code loader} and caches what it returns or throws.
+   */
+  public V get(ImageBuffer image, Loader<V> loader) throws PhotoDetectionException {
+    // The digest of the image is computed once per request, however many caches it is looked up in.
+    String key = image.getSha256() + "/" + featuresKey;
+
+    V result = results.getIfPresent(key);
+    if (result != null) {
+      return result;
+    }
+    Failure failure = failures.getIfPresent(key);
+    if (failure != null) {
+      // A new exception for each request, as the stack trace and suppressed exceptions of a
+      // shared instance could be changed by any of them.
+      throw new PhotoDetectionException(failure.message, failure.cause);
+    }
+
+    // Concurrent uploads of the same image share a single Cloud Vision API call.
+    try {
+      return singleFlight.execute(key, () -> load(key, loader));
+    } catch (ExecutionException exception) {
+      Throwables.propagateIfPossible(exception.getCause(), PhotoDetectionException.class);
+      throw new IllegalStateException(exception.getCause());
+    }
+  }
+
+  private V load(String key, Loader<V> loader) throws PhotoDetectionException {
+    // The result may have been cached by a call which completed since the lookup.
+    V result = results.asMap().get(key);
+    if (result != null) {
+      return result;
+    }
+
+    try {
+      result = loader.load();
+    } catch (PhotoDetectionException exception) {
+      failures.put(key, new Failure(exception.getMessage(), exception.getCause()));
+      throw exception;
+    }
+    results.put(key, result);
+    return result;
+  }
+
+  /** Returns the features as a string, e.g. "LABEL_DETECTION:0,IMAGE_PROPERTIES:5". */
+  private static String getFeaturesKey(List<Feature> features) {
+    StringBuilder featuresKey = new StringBuilder();
+    for (Feature feature : features) {
+      if (featuresKey.length() > 0) {
+        featuresKey.append(',');
+      }
+      featuresKey.append(feature.getType()).append(':').append(feature.getMaxResults());
+    }
+    return featuresKey.toString();
+  }
+
+  /** The message and cause of a PhotoDetectionException thrown while loading a result. */
+  private static final class Failure {
+    final String message;
+    final Throwable cause;
+
+    Failure(String message, Throwable cause) {
+      this.message = message;
+      this.cause = cause;
+    }
+  }
+
+  /** Returns the number of lookups answered with a cached result. */
+  public long getHitCount() {
+    return results.stats().hitCount();
+  }
+
+  /** Returns the number of lookups answered by re-throwing a cached failure. */
+  public long getFailureHitCount() {
+    return failures.stats().hitCount();
+  }
+
+  /** Returns the number of lookups for which the result was not cached. */
+  public long getMissCount() {
+    return results.stats().missCount();
+  }
+
+  /** Returns the number of results and failures removed to keep the cache within its size. */
+  public long getEvictionCount() {
+    return results.stats().evictionCount() + failures.stats().evictionCount();
+  }
+
+  /** Returns the number of lookups which shared the Cloud Vision API call of another lookup. */
+  public long getCoalescedCount() {
+    return singleFlight.getCoalescedCallCount();
+  }
+
+  /** Returns the number of results currently cached. */
+  public long getSize() {
+    return results.size();
+  }
+}
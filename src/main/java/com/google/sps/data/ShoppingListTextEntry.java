@@ -17,16 +17,26 @@ package com.google.sps.data;
 import com.google.auto.value.AutoValue;
 
 /** 
- * Class containing Google Shopping list's words and their y-axis position.
+ * Class containing Google Shopping list's words and their position: the y-axis position of their
+ * upper and lower boundaries, and the x-axis position of their left and right boundaries.
  */
 @AutoValue
 public abstract class ShoppingListTextEntry {
 
+  /** Creates an entry whose x-axis position is not known, as if all words were left-aligned. */
   public static ShoppingListTextEntry create(String text, int upperYBoundary, int lowerYBoundary) {
-    return new AutoValue_ShoppingListTextEntry(text, upperYBoundary, lowerYBoundary);
+    return create(text, upperYBoundary, lowerYBoundary, 0, 0);
+  }
+
+  public static ShoppingListTextEntry create(
+      String text, int upperYBoundary, int lowerYBoundary, int leftXBoundary, int rightXBoundary) {
+    return new AutoValue_ShoppingListTextEntry(
+        text, upperYBoundary, lowerYBoundary, leftXBoundary, rightXBoundary);
   }
 
   public abstract String getText();
   public abstract int getUpperYBoundary();
   public abstract int getLowerYBoundary();
+  public abstract int getLeftXBoundary();
+  public abstract int getRightXBoundary();
 }
@@ -15,16 +15,26 @@
 package com.google.sps.data;
 
 import com.google.auto.value.AutoValue;
+import java.util.Collections;
 import java.util.List;
+import javax.annotation.Nullable;
 
-/** Class containing the query sent to Google Shopping and its Results. */
+/**
+ * Class containing the query sent to Google Shopping and its Results, or the error message if
+ * the query failed.
+ */
 @AutoValue
 public abstract class ShoppingResult {
 
   public static ShoppingResult create(String query, List<Product> products) {
-    return new AutoValue_ShoppingResult(query, products);
+    return new AutoValue_ShoppingResult(query, products, null);
+  }
+
+  public static ShoppingResult createError(String query, String error) {
+    return new AutoValue_ShoppingResult(query, Collections.emptyList(), error);
   }
 
   public abstract String getQuery();
   public abstract List<Product> getProducts();
+  @Nullable public abstract String getError();
 }
@@ -0,0 +1,53 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.sps.CoalescingShoppingQuerier;
+import com.google.sps.DominantColorExtractor;
+import com.google.sps.ParallelShoppingQuerier;
+import com.google.sps.RacingBarcodeDecoder;
+import com.google.sps.SharedImageAnnotatorClient;
+import com.google.sps.ShoppingHttpClient;
+import com.google.sps.VisionBatchDispatcher;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+
+/**
+ * Releases the resources shared across requests when the application stops.
+ */
+@WebListener
+public class ApplicationLifecycleListener implements ServletContextListener {
+
+  @Override
+  public void contextInitialized(ServletContextEvent event) {}
+
+  @Override
+  public void contextDestroyed(ServletContextEvent event) {
+    // Stop batching Cloud Vision API requests, before the client sending them is closed.
+    VisionBatchDispatcher.shutdown();
+    // Close the gRPC channels of the Cloud Vision client.
+    SharedImageAnnotatorClient.shutdown();
+    // Stop the threads extracting the dominant colors in local color mode.
+    DominantColorExtractor.shutdownSharedPool();
+    // Stop the threads searching the barcode photos in racing mode.
+    RacingBarcodeDecoder.shutdownSharedPool();
+    // Stop the threads running the shopping queries.
+    ParallelShoppingQuerier.shutdownSharedExecutor();
+    CoalescingShoppingQuerier.shutdownSharedExecutor();
+    // Close the connections used to fetch the Google Shopping results pages.
+    ShoppingHttpClient.shutdown();
+  }
+}
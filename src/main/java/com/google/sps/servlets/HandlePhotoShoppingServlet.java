@@ -16,28 +16,52 @@ package com.google.sps.servlets;
 
 import static javax.servlet.http.HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
 
+import com.google.appengine.api.ThreadManager;
 import com.google.appengine.api.blobstore.BlobInfo;
 import com.google.appengine.api.blobstore.BlobInfoFactory;
 import com.google.appengine.api.blobstore.BlobKey;
 import com.google.appengine.api.blobstore.BlobstoreService;
 import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import com.google.common.collect.ImmutableList;
 import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.cloud.vision.v1.AnnotateImageResponse;
+import com.google.sps.AllocationMeter;
+import com.google.sps.AutoPhotoDetector;
 import com.google.sps.BarcodeImageDetector;
+import com.google.sps.BlobReader;
+import com.google.sps.CachingCombinedDetectionAPI;
+import com.google.sps.CachingProductDetectionAPI;
+import com.google.sps.CachingShoppingQuerier;
+import com.google.sps.CachingTextDetectionAPI;
+import com.google.sps.CoalescingShoppingQuerier;
+import com.google.sps.CombinedDetectionAPI;
+import com.google.sps.CombinedDetectionAPIImpl;
+import com.google.sps.Constants;
+import com.google.sps.DominantColorExtractor;
 import com.google.sps.GoogleShoppingQuerier;
+import com.google.sps.ImageBuffer;
+import com.google.sps.ImagePreprocessor;
 import com.google.sps.ImageTextDectector;
+import com.google.sps.NearDuplicateIndex;
+import com.google.sps.NearDuplicateProductDetectionAPI;
+import com.google.sps.ParallelShoppingQuerier;
 import com.google.sps.PhotoDetectionException;
 import com.google.sps.ProductDetectionAPI;
 import com.google.sps.ProductDetectionAPIImpl;
 import com.google.sps.ProductPhotoDetector;
-import com.google.sps.ShoppingQuerierConnectionException;
+import com.google.sps.TextDetectionAPI;
 import com.google.sps.TextDetectionAPIImpl;
-import com.google.sps.data.Product;
+import com.google.sps.VisionResultCache;
+import com.google.sps.data.ProductDetectionData;
+import com.google.sps.data.ShoppingListTextEntry;
 import com.google.sps.data.ShoppingQueryInput;
 import com.google.sps.data.ShoppingResult;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 import javax.servlet.annotation.WebServlet;
@@ -49,43 +73,121 @@ import javax.servlet.http.HttpServletResponse;
  * When the user submits the form for image uploading, Blobstore processes the file upload and
  * forwards the request to this servlet, which returns the product shopping results for the
  * respective photo, in JSON format, along with the shopping query used to search.
+ *
+ * If the "response-format" parameter is "ndjson", the results of the shopping queries are
+ * streamed as newline-delimited JSON, each as soon as it is available.
  */
 @WebServlet("/handle-photo-shopping")
 public class HandlePhotoShoppingServlet extends HttpServlet {
+  // Value of the "response-format" parameter requesting the streaming response.
+  private static final String NDJSON_RESPONSE_FORMAT = "ndjson";
+
+  // Cloud Vision API results, shared across requests, so that uploading the same photo again
+  // does not call Cloud Vision API again.
+  static final VisionResultCache<ProductDetectionData> PRODUCT_DETECTION_CACHE =
+      VisionResultCache.create(Constants.PRODUCT_DETECTION_FEATURES);
+  static final VisionResultCache<ImmutableList<ShoppingListTextEntry>> TEXT_DETECTION_CACHE =
+      VisionResultCache.create(Constants.TEXT_DETECTION_FEATURES);
+  static final VisionResultCache<AnnotateImageResponse> AUTO_DETECTION_CACHE =
+      VisionResultCache.create(Constants.AUTO_DETECTION_FEATURES);
+  // Product detection results of recent photos, by perceptual hash, so that a photo looking the
+  // same as a recent one, e.g. taken again seconds later, does not call Cloud Vision API again.
+  static final NearDuplicateIndex<ProductDetectionData> PRODUCT_NEAR_DUPLICATE_INDEX =
+      NearDuplicateIndex.create();
+
+  // Decodes the barcodes, reusing the ZXing readers of each thread across requests.
+  static final BarcodeImageDetector BARCODE_IMAGE_DETECTOR = new BarcodeImageDetector();
+
+  // Shrink the photos to the resolution needed by the features requested from Cloud Vision API.
+  static final ImagePreprocessor PRODUCT_IMAGE_PREPROCESSOR =
+      ImagePreprocessor.forProductDetection();
+  static final ImagePreprocessor TEXT_IMAGE_PREPROCESSOR = ImagePreprocessor.forTextDetection();
+
+  // Extracts the dominant colors of the photos locally, instead of requesting them from Cloud
+  // Vision API, or null in remote color mode.
+  static final DominantColorExtractor DOMINANT_COLOR_EXTRACTOR =
+      DominantColorExtractor.createIfConfigured();
+
+  // Identical shopping queries made concurrently by different requests share one search.
+  static final CoalescingShoppingQuerier COALESCING_SHOPPING_QUERIER =
+      new CoalescingShoppingQuerier(new GoogleShoppingQuerier());
+  // Products of recent shopping queries, shared across requests, so that popular queries do not
+  // search Google Shopping again.
+  static final CachingShoppingQuerier SHOPPING_QUERIER =
+      CachingShoppingQuerier.create(COALESCING_SHOPPING_QUERIER);
+
+  // Reads the uploaded images from Blobstore, fetching the parts of large images concurrently, on
+  // threads tied to the request.
+  static final BlobReader BLOB_READER =
+      BlobReader.create(
+          BlobstoreServiceFactory.getBlobstoreService(),
+          ThreadManager::currentRequestThreadFactory);
+
+  // Bytes allocated by the request threads to read the uploaded images and detect their content.
+  static final AllocationMeter DETECTION_ALLOCATION_METER = new AllocationMeter();
+
+  private final ProductDetectionAPI productDetectionAPI =
+      new CachingProductDetectionAPI(
+          new NearDuplicateProductDetectionAPI(
+              new ProductDetectionAPIImpl(PRODUCT_IMAGE_PREPROCESSOR, DOMINANT_COLOR_EXTRACTOR),
+              PRODUCT_NEAR_DUPLICATE_INDEX),
+          PRODUCT_DETECTION_CACHE);
+  private final TextDetectionAPI textDetectionAPI =
+      new CachingTextDetectionAPI(
+          new TextDetectionAPIImpl(TEXT_IMAGE_PREPROCESSOR), TEXT_DETECTION_CACHE);
+  private final CombinedDetectionAPI combinedDetectionAPI =
+      new CachingCombinedDetectionAPI(
+          new CombinedDetectionAPIImpl(TEXT_IMAGE_PREPROCESSOR, DOMINANT_COLOR_EXTRACTOR),
+          AUTO_DETECTION_CACHE);
 
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    // Get the BlobKey that points to the image uploaded by the user.
-    BlobKey uploadedImageBlobKey = getBlobKey(request, "photo");
+    // Get the BlobInfo, holding the BlobKey and the size, of the image uploaded by the user.
+    BlobInfo uploadedImageBlobInfo = getBlobInfo(request, "photo");
 
     // Send an error if the user did not upload a file.
-    if (uploadedImageBlobKey == null) {
+    if (uploadedImageBlobInfo == null) {
       response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Missing input image file.");
       return;
     }
 
-    // Get the photo category (i.e. product, shopping-list or barcode) entered by the user.
+    // Get the photo category (i.e. auto, product, shopping-list, barcode or multi-barcode) entered
+    // by the user.
     String photoCategory = request.getParameter("photo-category");
     if (photoCategory.isEmpty()) {
       response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Missing photo category.");
       return;
     }
 
-    // Get the image the user uploaded as bytes.
-    byte[] uploadedImageBytes = getBlobBytes(uploadedImageBlobKey);
+    // Get the image the user uploaded as bytes, read once into the buffer handed to the
+    // detectors, and report the time taken to fetch it.
+    long detectionStartAllocatedBytes = AllocationMeter.getCurrentThreadAllocatedBytes();
+    long blobFetchStartNanos = System.nanoTime();
+    ImageBuffer uploadedImage =
+        ImageBuffer.wrap(
+            BLOB_READER.read(
+                uploadedImageBlobInfo.getBlobKey(), uploadedImageBlobInfo.getSize()));
+    response.addHeader(
+        "Server-Timing",
+        String.format(
+            Locale.ROOT,
+            "blob-fetch;dur=%.1f",
+            (System.nanoTime() - blobFetchStartNanos) / 1e6));
 
     // Call GoogleShoppingQuerier to return the extracted products data.
     // First, build the shopping query input.
     List<String> shoppingQueries = new ArrayList<>();
     try {
-      shoppingQueries = getQuery(request.getParameter("photo-category"), uploadedImageBytes);
+      shoppingQueries = getQuery(request.getParameter("photo-category"), uploadedImage);
     } catch (IllegalArgumentException | PhotoDetectionException exception) {
       response.sendError(SC_INTERNAL_SERVER_ERROR, exception.getMessage());
       return;
+    } finally {
+      DETECTION_ALLOCATION_METER.record(detectionStartAllocatedBytes);
     }
 
     int maxResultsNumber = 24;
-    // For shopping-list, where the number of queries exceeds 1, 
+    // For shopping-list and multi-barcode, where the number of queries may exceed 1,
     // limit the number of products displayed for each item.
     if (shoppingQueries.size() > 1) {
       maxResultsNumber = 15;
@@ -99,56 +201,70 @@ public class HandlePhotoShoppingServlet extends HttpServlet {
               .build());
     }
 
-    // Initialize the Google Shopping querier.
-    GoogleShoppingQuerier querier = new GoogleShoppingQuerier();
-
-    List<ShoppingResult> shoppingResults = new ArrayList<>();
-    List<Product> shoppingQuerierResults = new ArrayList<>();
-    for (ShoppingQueryInput shoppingQueryInput : shoppingQueryInputs) {
-      try {
-        shoppingQuerierResults = querier.query(shoppingQueryInput);
-      } catch (IllegalArgumentException
-          | ShoppingQuerierConnectionException
-          | IOException exception) {
-        response.sendError(SC_INTERNAL_SERVER_ERROR, exception.getMessage());
-        return;
-      }
-      shoppingResults.add(
-          ShoppingResult.create(shoppingQueryInput.getShoppingQuery(), shoppingQuerierResults));
-    }
-    // Convert {@code shoppingQuery} and products List - {@code shoppingQuerierResults} - into JSON
-    // strings
-    // using Gson library and send a JSON array with both of the JSON strings as response.
+    // Query Google Shopping for all the shopping queries at once. Queries that fail get a
+    // ShoppingResult with the error message instead of products.
+    ParallelShoppingQuerier querier = ParallelShoppingQuerier.create(SHOPPING_QUERIER);
     Gson gson = new Gson();
+
+    // In streaming mode, write each ShoppingResult as soon as its query completes, as a line of
+    // newline-delimited JSON holding the result and its index in the list of queries. The lines
+    // only reach the client one by one on runtimes that stream responses, e.g. the development
+    // server; App Engine standard buffers the whole response and sends all the lines at the end.
+    if (NDJSON_RESPONSE_FORMAT.equals(request.getParameter("response-format"))) {
+      response.setContentType("application/x-ndjson;");
+      PrintWriter writer = response.getWriter();
+      querier.query(shoppingQueryInputs, (index, shoppingResult) -> {
+        JsonObject shoppingResultJson = gson.toJsonTree(shoppingResult).getAsJsonObject();
+        shoppingResultJson.addProperty("index", index);
+        writer.write(gson.toJson(shoppingResultJson) + "\n");
+        // Flushing commits the response without a content length, so a runtime which streams
+        // responses sends it in chunks.
+        writer.flush();
+        // PrintWriter swallows I/O errors, so stop querying once the client has gone away.
+        if (writer.checkError()) {
+          throw new IOException("The client closed the connection.");
+        }
+      });
+      return;
+    }
+
+    List<ShoppingResult> shoppingResults = querier.query(shoppingQueryInputs);
+
+    // Convert {@code shoppingResults}, containing each query and its products List, into JSON
+    // strings using Gson library and send them as a JSON array as response.
     response.setContentType("application/json;");
     response.getWriter().write(gson.toJson(shoppingResults));
   }
 
   /**
    * Returns the shopping query by calling methods from the photo content detection classes, based
-   * on the {@code photoCategory}, passing {@code uploadedImageBytes} as argument.
+   * on the {@code photoCategory}, passing {@code uploadedImage} as argument.
    */
-  private List<String> getQuery(String photoCategory, byte[] uploadedImageBytes)
+  private List<String> getQuery(String photoCategory, ImageBuffer uploadedImage)
       throws IllegalArgumentException, PhotoDetectionException {
     List<String> queryResults = new ArrayList<>();
     switch (photoCategory) {
+      case "auto":
+        // Find out whether the photo shows a barcode, a product or a shopping list, with at most
+        // one Cloud Vision API request.
+        AutoPhotoDetector autoPhotoDetector =
+            new AutoPhotoDetector(BARCODE_IMAGE_DETECTOR, combinedDetectionAPI);
+        return autoPhotoDetector.buildShoppingQueries(uploadedImage);
       case "product":
-        ProductDetectionAPI productDetectionAPI = new ProductDetectionAPIImpl();
         ProductPhotoDetector productPhotoDetector = new ProductPhotoDetector(productDetectionAPI);
 
         String productShoppingQuery;
         try {
-          queryResults.add(productPhotoDetector.buildShoppingQuery(uploadedImageBytes));
+          queryResults.add(productPhotoDetector.buildShoppingQuery(uploadedImage));
         } catch (PhotoDetectionException exception) {
           throw exception;
         }
         return queryResults;
       case "shopping-list":
-        TextDetectionAPIImpl textDetectionAPI = new TextDetectionAPIImpl();
         ImageTextDectector imageTextDectector = new ImageTextDectector(textDetectionAPI);
 
         try {
-          queryResults = imageTextDectector.extractShoppingList(uploadedImageBytes);
+          queryResults = imageTextDectector.extractShoppingList(uploadedImage);
         } catch (PhotoDetectionException exception) {
           throw exception;
         } catch (IOException e) {
@@ -156,20 +272,23 @@ public class HandlePhotoShoppingServlet extends HttpServlet {
         }
         return queryResults;
       case "barcode":
-        BarcodeImageDetector barcodeImageDetector = new BarcodeImageDetector();
-        queryResults.add(barcodeImageDetector.detect(uploadedImageBytes));
+        queryResults.add(BARCODE_IMAGE_DETECTOR.detect(uploadedImage));
         return queryResults;
+      case "multi-barcode":
+        // Search each distinct barcode of the photo, e.g. of a shelf, as its own query.
+        return BARCODE_IMAGE_DETECTOR.detectAll(uploadedImage);
       default:
         throw new IllegalArgumentException(
-            "Photo category has to be either product, shopping-list or barcode.");
+            "Photo category has to be either auto, product, shopping-list, barcode or "
+                + "multi-barcode.");
     }
   }
 
   /**
-   * Returns the BlobKey corresponding to the file uploaded by the user, or null if the user did not
-   * upload a file.
+   * Returns the BlobInfo corresponding to the file uploaded by the user, or null if the user did
+   * not upload a file.
    */
-  private BlobKey getBlobKey(HttpServletRequest request, String formFileInputElementName) {
+  private BlobInfo getBlobInfo(HttpServletRequest request, String formFileInputElementName) {
     BlobstoreService blobstoreService = BlobstoreServiceFactory.getBlobstoreService();
     Map<String, List<BlobKey>> blobs = blobstoreService.getUploads(request);
     List<BlobKey> blobKeys = blobs.get(formFileInputElementName);
@@ -189,34 +308,6 @@ public class HandlePhotoShoppingServlet extends HttpServlet {
       return null;
     }
 
-    return blobKey;
-  }
-
-  /**
-   * Blobstore stores files as binary data. This function retrieves the image represented by the
-   * binary data stored at the BlobKey parameter.
-   */
-  private byte[] getBlobBytes(BlobKey blobKey) throws IOException {
-    BlobstoreService blobstoreService = BlobstoreServiceFactory.getBlobstoreService();
-    ByteArrayOutputStream outputBytes = new ByteArrayOutputStream();
-
-    int fetchSize = BlobstoreService.MAX_BLOB_FETCH_SIZE;
-    long currentByteIndex = 0;
-    boolean continueReading = true;
-    while (continueReading) {
-      // End index is inclusive, therefore subtract 1 to get fetchSize bytes.
-      byte[] b =
-          blobstoreService.fetchData(blobKey, currentByteIndex, currentByteIndex + fetchSize - 1);
-      outputBytes.write(b);
-
-      // If fewer bytes than requested have been read, the end is reached.
-      if (b.length < fetchSize) {
-        continueReading = false;
-      }
-
-      currentByteIndex += fetchSize;
-    }
-
-    return outputBytes.toByteArray();
+    return blobInfo;
   }
 }
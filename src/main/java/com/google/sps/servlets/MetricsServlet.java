@@ -0,0 +1,245 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import com.google.gson.Gson;
+import com.google.sps.AllocationMeter;
+import com.google.sps.BarcodeImageDetector;
+import com.google.sps.BlobReader;
+import com.google.sps.DominantColorExtractor;
+import com.google.sps.CachingShoppingQuerier;
+import com.google.sps.ImagePreprocessor;
+import com.google.sps.NearDuplicateIndex;
+import com.google.sps.RacingBarcodeDecoder;
+import com.google.sps.SharedImageAnnotatorClient;
+import com.google.sps.ShoppingHttpClient;
+import com.google.sps.VisionBatchDispatcher;
+import com.google.sps.VisionResultCache;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Returns, in JSON format, the metrics of the resources shared across requests, such as the
+ * Cloud Vision client.
+ */
+@WebServlet("/metrics")
+public class MetricsServlet extends HttpServlet {
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    Map<String, Object> metrics = new LinkedHashMap<>();
+    metrics.put("blobReader", getBlobReaderMetrics(HandlePhotoShoppingServlet.BLOB_READER));
+    metrics.put(
+        "detectionAllocation",
+        getAllocationMeterMetrics(HandlePhotoShoppingServlet.DETECTION_ALLOCATION_METER));
+    metrics.put(
+        "barcodeDecoder",
+        getBarcodeDecoderMetrics(HandlePhotoShoppingServlet.BARCODE_IMAGE_DETECTOR));
+    metrics.put("visionClient", getVisionClientMetrics());
+    metrics.put("visionBatchDispatcher", getVisionBatchDispatcherMetrics());
+    metrics.put(
+        "productImagePreprocessor",
+        getImagePreprocessorMetrics(HandlePhotoShoppingServlet.PRODUCT_IMAGE_PREPROCESSOR));
+    metrics.put(
+        "textImagePreprocessor",
+        getImagePreprocessorMetrics(HandlePhotoShoppingServlet.TEXT_IMAGE_PREPROCESSOR));
+    DominantColorExtractor dominantColorExtractor =
+        HandlePhotoShoppingServlet.DOMINANT_COLOR_EXTRACTOR;
+    if (dominantColorExtractor != null) {
+      metrics.put(
+          "dominantColorExtractor", getDominantColorExtractorMetrics(dominantColorExtractor));
+    }
+    metrics.put(
+        "productDetectionCache",
+        getVisionResultCacheMetrics(HandlePhotoShoppingServlet.PRODUCT_DETECTION_CACHE));
+    metrics.put(
+        "productNearDuplicateIndex",
+        getNearDuplicateIndexMetrics(HandlePhotoShoppingServlet.PRODUCT_NEAR_DUPLICATE_INDEX));
+    metrics.put(
+        "textDetectionCache",
+        getVisionResultCacheMetrics(HandlePhotoShoppingServlet.TEXT_DETECTION_CACHE));
+    metrics.put(
+        "autoDetectionCache",
+        getVisionResultCacheMetrics(HandlePhotoShoppingServlet.AUTO_DETECTION_CACHE));
+    metrics.put(
+        "shoppingQueryCache",
+        getShoppingQueryCacheMetrics(HandlePhotoShoppingServlet.SHOPPING_QUERIER));
+    metrics.put("shoppingHttpClient", getShoppingHttpClientMetrics());
+    metrics.put(
+        "coalescedShoppingQueryCount",
+        HandlePhotoShoppingServlet.COALESCING_SHOPPING_QUERIER.getCoalescedQueryCount());
+
+    Gson gson = new Gson();
+    response.setContentType("application/json;");
+    response.getWriter().write(gson.toJson(metrics));
+  }
+
+  private Map<String, Object> getBlobReaderMetrics(BlobReader blobReader) {
+    Map<String, Object> metrics = new LinkedHashMap<>();
+    long readCount = blobReader.getReadCount();
+    metrics.put("readCount", readCount);
+    metrics.put("byteCount", blobReader.getByteCount());
+    metrics.put("fetchCount", blobReader.getFetchCount());
+    metrics.put(
+        "averageReadMillis", readCount == 0 ? 0 : (double) blobReader.getReadMillis() / readCount);
+    return metrics;
+  }
+
+  private Map<String, Object> getAllocationMeterMetrics(AllocationMeter allocationMeter) {
+    Map<String, Object> metrics = new LinkedHashMap<>();
+    long measurementCount = allocationMeter.getMeasurementCount();
+    metrics.put("measurementCount", measurementCount);
+    metrics.put("allocatedByteCount", allocationMeter.getAllocatedByteCount());
+    metrics.put(
+        "averageAllocatedBytes",
+        measurementCount == 0
+            ? 0
+            : (double) allocationMeter.getAllocatedByteCount() / measurementCount);
+    return metrics;
+  }
+
+  private Map<String, Object> getDominantColorExtractorMetrics(
+      DominantColorExtractor dominantColorExtractor) {
+    Map<String, Object> metrics = new LinkedHashMap<>();
+    long extractionCount = dominantColorExtractor.getExtractionCount();
+    metrics.put("extractionCount", extractionCount);
+    metrics.put("failureCount", dominantColorExtractor.getFailureCount());
+    metrics.put(
+        "averageExtractionMillis",
+        extractionCount == 0 ? 0 : dominantColorExtractor.getExtractionMillis() / extractionCount);
+    return metrics;
+  }
+
+  private Map<String, Object> getNearDuplicateIndexMetrics(NearDuplicateIndex<?> index) {
+    Map<String, Object> metrics = new LinkedHashMap<>();
+    long lookupCount = index.getLookupCount();
+    metrics.put("size", index.size());
+    metrics.put("lookupCount", lookupCount);
+    metrics.put("hitCount", index.getHitCount());
+    metrics.put(
+        "averageComparisons",
+        lookupCount == 0 ? 0 : (double) index.getComparisonCount() / lookupCount);
+    return metrics;
+  }
+
+  private Map<String, Object> getBarcodeDecoderMetrics(BarcodeImageDetector barcodeImageDetector) {
+    Map<String, Object> metrics = new LinkedHashMap<>();
+    for (BarcodeImageDetector.DecodeTier tier : BarcodeImageDetector.DecodeTier.values()) {
+      Map<String, Object> tierMetrics = new LinkedHashMap<>();
+      long attemptCount = barcodeImageDetector.getAttemptCount(tier);
+      tierMetrics.put("attemptCount", attemptCount);
+      tierMetrics.put("successCount", barcodeImageDetector.getSuccessCount(tier));
+      tierMetrics.put(
+          "averageDecodeMillis",
+          attemptCount == 0 ? 0 : barcodeImageDetector.getDecodeMillis(tier) / attemptCount);
+      metrics.put(tier.name().toLowerCase(Locale.ROOT), tierMetrics);
+    }
+    metrics.put(
+        "fullResolutionFallbackCount", barcodeImageDetector.getFullResolutionFallbackCount());
+
+    RacingBarcodeDecoder racingDecoder = barcodeImageDetector.getRacingDecoder();
+    if (racingDecoder != null) {
+      Map<String, Object> raceMetrics = new LinkedHashMap<>();
+      long raceCount = racingDecoder.getRaceCount();
+      raceMetrics.put("raceCount", raceCount);
+      raceMetrics.put("foundCount", racingDecoder.getFoundCount());
+      raceMetrics.put("timeoutCount", racingDecoder.getTimeoutCount());
+      raceMetrics.put("abandonedVariantCount", racingDecoder.getAbandonedVariantCount());
+      raceMetrics.put(
+          "averageRaceMillis", raceCount == 0 ? 0 : racingDecoder.getRaceMillis() / raceCount);
+      raceMetrics.put("winCounts", racingDecoder.getWinCounts());
+      metrics.put("racing", raceMetrics);
+    }
+    return metrics;
+  }
+
+  private Map<String, Object> getVisionClientMetrics() {
+    Map<String, Object> metrics = new LinkedHashMap<>();
+    // Do not create the client only to report its metrics, nor re-create it once shut down.
+    SharedImageAnnotatorClient client = SharedImageAnnotatorClient.getInstanceIfCreated();
+    metrics.put("created", client != null);
+    if (client != null) {
+      metrics.put("channelPoolSize", client.getChannelPoolSize());
+      metrics.put("inFlightCallCount", client.getInFlightCallCount());
+    }
+    return metrics;
+  }
+
+  private Map<String, Object> getVisionBatchDispatcherMetrics() {
+    Map<String, Object> metrics = new LinkedHashMap<>();
+    // Do not create the dispatcher only to report its metrics, nor re-create it once shut down.
+    VisionBatchDispatcher dispatcher = VisionBatchDispatcher.getInstanceIfCreated();
+    metrics.put("created", dispatcher != null);
+    if (dispatcher != null) {
+      long batchCount = dispatcher.getBatchCount();
+      long requestCount = dispatcher.getRequestCount();
+      metrics.put("batchCount", batchCount);
+      metrics.put("requestCount", requestCount);
+      metrics.put("averageBatchSize", batchCount == 0 ? 0 : (double) requestCount / batchCount);
+      metrics.put("queuedRequestCount", dispatcher.getQueuedRequestCount());
+    }
+    return metrics;
+  }
+
+  private Map<String, Object> getImagePreprocessorMetrics(ImagePreprocessor imagePreprocessor) {
+    Map<String, Object> metrics = new LinkedHashMap<>();
+    metrics.put("processedImageCount", imagePreprocessor.getProcessedImageCount());
+    metrics.put("skippedImageCount", imagePreprocessor.getSkippedImageCount());
+    metrics.put("inputByteCount", imagePreprocessor.getInputByteCount());
+    metrics.put("outputByteCount", imagePreprocessor.getOutputByteCount());
+    return metrics;
+  }
+
+  private Map<String, Object> getVisionResultCacheMetrics(VisionResultCache<?> cache) {
+    Map<String, Object> metrics = new LinkedHashMap<>();
+    metrics.put("size", cache.getSize());
+    metrics.put("hitCount", cache.getHitCount());
+    metrics.put("failureHitCount", cache.getFailureHitCount());
+    metrics.put("missCount", cache.getMissCount());
+    metrics.put("evictionCount", cache.getEvictionCount());
+    metrics.put("coalescedCount", cache.getCoalescedCount());
+    return metrics;
+  }
+
+  private Map<String, Object> getShoppingQueryCacheMetrics(CachingShoppingQuerier querier) {
+    Map<String, Object> metrics = new LinkedHashMap<>();
+    metrics.put("size", querier.getSize());
+    metrics.put("hitCount", querier.getHitCount());
+    metrics.put("missCount", querier.getMissCount());
+    metrics.put("hitRate", querier.getHitRate());
+    metrics.put("evictionCount", querier.getEvictionCount());
+    return metrics;
+  }
+
+  private Map<String, Object> getShoppingHttpClientMetrics() {
+    Map<String, Object> metrics = new LinkedHashMap<>();
+    // Do not create the client only to report its metrics, nor re-create it once shut down.
+    ShoppingHttpClient client = ShoppingHttpClient.getInstanceIfCreated();
+    metrics.put("created", client != null);
+    if (client != null) {
+      metrics.put("maxConnectionCount", client.getMaxConnectionCount());
+      metrics.put("leasedConnectionCount", client.getLeasedConnectionCount());
+      metrics.put("availableConnectionCount", client.getAvailableConnectionCount());
+      metrics.put("pendingRequestCount", client.getPendingRequestCount());
+    }
+    return metrics;
+  }
+}
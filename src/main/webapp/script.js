@@ -35,9 +35,8 @@ async function fetchBlobstoreUrlAndShowForm() {
 
 /**
  * Makes a POST request to {@code imageUploadUrl}, gets the
- * shopping results in JSON format, into {@code products},
- * and calls the method for integrating those results into the main
- * web page.
+ * shopping results as a stream of JSON objects, and calls the
+ * method for integrating those results into the main web page.
  */
 async function onSubmitUploadImageForm() {
   // Get the data introduced by the user in the form.
@@ -48,6 +47,10 @@ async function onSubmitUploadImageForm() {
   const formData = new FormData();
   formData.append('photo-category', photoCategory);
   formData.append('photo', selectedFile);
+  // Ask for the results to be streamed, so that each is shown as soon as it is available where
+  // the server streams responses. App Engine standard buffers the response, so there they all
+  // arrive, and are shown, together once the last query completes.
+  formData.append('response-format', 'ndjson');
 
   // Before making the POST request, empty or hide containers from previous photo requests.
   $('#shopping-query-display').empty();
@@ -81,29 +84,68 @@ async function onSubmitUploadImageForm() {
     return Promise.reject(response);
   }
 
-  // The request returns a JSON object with the all the shopping queries
-  // used to search on Google Shopping and the data about each product
-  // for each query from the Google Shopping results page.
-  const shoppingResults = await response.json();
+  // The request returns the shopping queries used to search on Google Shopping and
+  // the data about each product for each query from the Google Shopping results page,
+  // as one JSON object per line, each written as soon as its query completes.
+  await appendShoppingResults(response);
+}
 
-  // Empty the prompt container and add the query and its resultant content into the page.
-  $('#search-loading-prompt').empty();
-  $('#loading-gif-prompt').addClass('hidden');
-  $('#shopping-query-display-container').removeClass('hidden');
+/**
+ * Reads the newline-delimited JSON shopping results from the {@code response} stream
+ * and integrates each into the web page as soon as it arrives.
+ */
+async function appendShoppingResults(response) {
+  const reader = response.body.getReader();
+  const decoder = new TextDecoder();
+  let bufferedText = '';
+  let isFirstResult = true;
+
+  while (true) {
+    const {done, value} = await reader.read();
+    bufferedText += done ? decoder.decode() : decoder.decode(value, {stream: true});
+
+    // Every complete line holds one shopping result; keep the incomplete rest for later.
+    const lines = bufferedText.split('\n');
+    bufferedText = done ? '' : lines.pop();
+
+    lines.filter((line) => line.trim() !== '').forEach((line) => {
+      if (isFirstResult) {
+        // Empty the prompt container, as results start to come in.
+        $('#search-loading-prompt').empty();
+        $('#loading-gif-prompt').addClass('hidden');
+        $('#shopping-query-display-container').removeClass('hidden');
+        isFirstResult = false;
+      }
+      appendShoppingResult(JSON.parse(line));
+    });
 
-  appendShoppingResults(shoppingResults);
+    if (done) {
+      return;
+    }
+  }
 }
 
 /**
- * Integrates product results from Google Shopping and their respective queries into the web page.
+ * Integrates the product results from Google Shopping for one query, and the query itself,
+ * into the web page, at the position given by the query's index in the shopping list.
  */
-function appendShoppingResults(shoppingResults) {
-  shoppingResults.forEach((result) => {
-    // Show the user the shopping query built to search on Google Shopping.
-    $('#shopping-query').append('<br>' + result['query']);
-    const query = `<div class='text-center query'>${result['query']}</div>`;
-    $('#shopping-results-wrapper').append(query);
-
+function appendShoppingResult(result) {
+  const index = result['index'];
+
+  // Show the user the shopping query built to search on Google Shopping.
+  const queryDisplay = $('<div>', {'data-index': index}).text(result['query']);
+  insertByIndex($('#shopping-query'), queryDisplay, index);
+
+  const resultContainer = $('<div>', {'data-index': index});
+  // The query and the error are shown as text, as they may hold characters such as '<'.
+  const query = $('<div>', {class: 'text-center query'}).text(result['query']);
+  resultContainer.append(query);
+
+  if (result['error']) {
+    // The query failed, so show the error instead of its products.
+    const error = $('<div>', {class: 'text-center text-muted'}).text(result['error']);
+    resultContainer.append(error);
+  } else {
     const listProductsContainer = $('<div>', {class: 'row'});
 
     const products = result['products'];
@@ -125,8 +167,24 @@ function appendShoppingResults(shoppingResults) {
       // Add the container to the results page, into the corresponding product wrapper.
       listProductsContainer.append(productContainer);
     });
-    $('#shopping-results-wrapper').append(listProductsContainer);
-  });
+    resultContainer.append(listProductsContainer);
+  }
+
+  insertByIndex($('#shopping-results-wrapper'), resultContainer, index);
+}
+
+/**
+ * Inserts {@code element} into {@code container}, before the first child with a
+ * greater "data-index", so that results arriving out of order keep the list's order.
+ */
+function insertByIndex(container, element, index) {
+  const nextElement = container.children().filter(
+      (i, child) => $(child).data('index') > index).first();
+  if (nextElement.length) {
+    nextElement.before(element);
+  } else {
+    container.append(element);
+  }
 }
 
 /**
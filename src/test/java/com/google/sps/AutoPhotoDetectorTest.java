@@ -0,0 +1,150 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.cloud.vision.v1.AnnotateImageResponse;
+import com.google.cloud.vision.v1.BoundingPoly;
+import com.google.cloud.vision.v1.EntityAnnotation;
+import com.google.cloud.vision.v1.Vertex;
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.MultiFormatWriter;
+import com.google.zxing.client.j2se.MatrixToImageWriter;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests {@link AutoPhotoDetector}, with a fake Cloud Vision API response, checking that each
+ * photo is searched as the right category.
+ */
+@RunWith(JUnit4.class)
+public final class AutoPhotoDetectorTest {
+  private static final String EAN_13_CODE = "5901234123457";
+
+  private int detectionCallCount;
+  private AnnotateImageResponse detectionResponse;
+  private AutoPhotoDetector autoPhotoDetector;
+
+  @Before
+  public void setUp() {
+    detectionCallCount = 0;
+    autoPhotoDetector = new AutoPhotoDetector(new BarcodeImageDetector(), imageBytes -> {
+      detectionCallCount++;
+      return detectionResponse;
+    });
+  }
+
+  private static ImageBuffer createBarcodePhoto(int width, int height) throws Exception {
+    BufferedImage image = MatrixToImageWriter.toBufferedImage(
+        new MultiFormatWriter().encode(EAN_13_CODE, BarcodeFormat.EAN_13, width, height));
+    return toPng(image);
+  }
+
+  private static ImageBuffer createBlankPhoto() throws IOException {
+    BufferedImage image = new BufferedImage(200, 100, BufferedImage.TYPE_INT_RGB);
+    return toPng(image);
+  }
+
+  private static ImageBuffer toPng(BufferedImage image) throws IOException {
+    ByteArrayOutputStream imageBytes = new ByteArrayOutputStream();
+    ImageIO.write(image, "png", imageBytes);
+    return ImageBuffer.wrap(imageBytes.toByteArray());
+  }
+
+  private static EntityAnnotation createLabel(String description) {
+    return EntityAnnotation.newBuilder().setDescription(description).build();
+  }
+
+  /** Returns a text annotation spanning from {@code upperY} to {@code lowerY}. */
+  private static EntityAnnotation createText(String description, int upperY, int lowerY) {
+    return EntityAnnotation.newBuilder()
+        .setDescription(description)
+        .setBoundingPoly(
+            BoundingPoly.newBuilder()
+                .addVertices(Vertex.newBuilder().setY(upperY))
+                .addVertices(Vertex.newBuilder().setY(upperY))
+                .addVertices(Vertex.newBuilder().setY(lowerY))
+                .addVertices(Vertex.newBuilder().setY(lowerY)))
+        .build();
+  }
+
+  @Test
+  public void barcodeIsFoundWithoutCallingVision() throws Exception {
+    Assert.assertEquals(
+        Collections.singletonList(EAN_13_CODE),
+        autoPhotoDetector.buildShoppingQueries(createBarcodePhoto(400, 200)));
+    Assert.assertEquals(0, detectionCallCount);
+  }
+
+  @Test
+  public void barcodeIsFoundInDownsampledLargePhoto() throws Exception {
+    Assert.assertEquals(
+        Collections.singletonList(EAN_13_CODE),
+        autoPhotoDetector.buildShoppingQueries(createBarcodePhoto(3000, 1200)));
+    Assert.assertEquals(0, detectionCallCount);
+  }
+
+  @Test
+  public void textPhotoIsSearchedAsShoppingList() throws Exception {
+    detectionResponse =
+        AnnotateImageResponse.newBuilder()
+            .addLabelAnnotations(createLabel("Text"))
+            .addLabelAnnotations(createLabel("Font"))
+            .addTextAnnotations(createText("Milk Eggs", 0, 40))
+            .addTextAnnotations(createText("Milk", 0, 10))
+            .addTextAnnotations(createText("Eggs", 30, 40))
+            .build();
+
+    Assert.assertEquals(
+        Arrays.asList("Milk", "Eggs"), autoPhotoDetector.buildShoppingQueries(createBlankPhoto()));
+    Assert.assertEquals(1, detectionCallCount);
+  }
+
+  @Test
+  public void productPhotoWithTextIsSearchedAsProduct() throws Exception {
+    // Text printed on a product does not make it a shopping list.
+    detectionResponse =
+        AnnotateImageResponse.newBuilder()
+            .addLabelAnnotations(createLabel("Shoe"))
+            .addLabelAnnotations(createLabel("Footwear"))
+            .addLogoAnnotations(createLabel("Nike"))
+            .addTextAnnotations(createText("NIKE", 0, 10))
+            .addTextAnnotations(createText("NIKE", 0, 10))
+            .build();
+
+    Assert.assertEquals(
+        Collections.singletonList("Nike Shoe"),
+        autoPhotoDetector.buildShoppingQueries(createBlankPhoto()));
+    Assert.assertEquals(1, detectionCallCount);
+  }
+
+  @Test(expected = PhotoDetectionException.class)
+  public void photoWithoutContentIsAnError() throws Exception {
+    detectionResponse = AnnotateImageResponse.getDefaultInstance();
+
+    autoPhotoDetector.buildShoppingQueries(createBlankPhoto());
+  }
+}
@@ -0,0 +1,197 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.common.collect.ImmutableList;
+import com.google.sps.BarcodeImageDetector.DecodeTier;
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.MultiFormatWriter;
+import com.google.zxing.client.j2se.MatrixToImageWriter;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import javax.imageio.ImageIO;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests {@link BarcodeImageDetector}, checking that each barcode is found in the cheapest tier
+ * that can find it, that only the requested formats are searched for, and that every distinct
+ * barcode of a photo is found.
+ */
+@RunWith(JUnit4.class)
+public final class BarcodeImageDetectorTest {
+  private static final String EAN_13_CODE = "5901234123457";
+  private static final String OTHER_EAN_13_CODE = "4006381333931";
+
+  @Rule public final ExpectedException exceptionRule = ExpectedException.none();
+
+  private final BarcodeImageDetector barcodeImageDetector = new BarcodeImageDetector();
+
+  private static BufferedImage createBarcodeImage(
+      String code, BarcodeFormat format, int width, int height) throws Exception {
+    return MatrixToImageWriter.toBufferedImage(
+        new MultiFormatWriter().encode(code, format, width, height));
+  }
+
+  /** Returns the image turned a quarter clockwise. */
+  private static BufferedImage rotate(BufferedImage image) {
+    BufferedImage rotatedImage =
+        new BufferedImage(image.getHeight(), image.getWidth(), BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < image.getHeight(); y++) {
+      for (int x = 0; x < image.getWidth(); x++) {
+        rotatedImage.setRGB(image.getHeight() - 1 - y, x, image.getRGB(x, y));
+      }
+    }
+    return rotatedImage;
+  }
+
+  /** Returns an image of the barcodes side by side, as on a shelf. */
+  private static BufferedImage createShelfImage(String... codes) throws Exception {
+    BufferedImage shelfImage =
+        new BufferedImage(codes.length * 300, 200, BufferedImage.TYPE_INT_RGB);
+    Graphics2D graphics = shelfImage.createGraphics();
+    graphics.setColor(Color.WHITE);
+    graphics.fillRect(0, 0, shelfImage.getWidth(), shelfImage.getHeight());
+    for (int i = 0; i < codes.length; i++) {
+      graphics.drawImage(
+          createBarcodeImage(codes[i], BarcodeFormat.EAN_13, 260, 150), i * 300 + 20, 25, null);
+    }
+    graphics.dispose();
+    return shelfImage;
+  }
+
+  private static ImageBuffer toPng(BufferedImage image) throws IOException {
+    ByteArrayOutputStream imageBytes = new ByteArrayOutputStream();
+    ImageIO.write(image, "png", imageBytes);
+    return ImageBuffer.wrap(imageBytes.toByteArray());
+  }
+
+  @Test
+  public void barcodeIsFoundInFastTier() throws Exception {
+    ImageBuffer image = toPng(createBarcodeImage(EAN_13_CODE, BarcodeFormat.EAN_13, 400, 200));
+
+    Assert.assertEquals(EAN_13_CODE, barcodeImageDetector.detect(image));
+    Assert.assertEquals(1, barcodeImageDetector.getSuccessCount(DecodeTier.FAST));
+    Assert.assertEquals(0, barcodeImageDetector.getAttemptCount(DecodeTier.ROTATED));
+    Assert.assertEquals(0, barcodeImageDetector.getAttemptCount(DecodeTier.TRY_HARDER));
+  }
+
+  @Test
+  public void uprightBarcodeIsFoundInRotatedTier() throws Exception {
+    ImageBuffer image =
+        toPng(rotate(createBarcodeImage(EAN_13_CODE, BarcodeFormat.EAN_13, 400, 200)));
+
+    Assert.assertEquals(EAN_13_CODE, barcodeImageDetector.detect(image));
+    Assert.assertEquals(0, barcodeImageDetector.getSuccessCount(DecodeTier.FAST));
+    Assert.assertEquals(1, barcodeImageDetector.getSuccessCount(DecodeTier.ROTATED));
+    Assert.assertEquals(0, barcodeImageDetector.getAttemptCount(DecodeTier.TRY_HARDER));
+  }
+
+  @Test
+  public void missingBarcodeIsSearchedInEveryTier() throws Exception {
+    ImageBuffer image = toPng(new BufferedImage(200, 100, BufferedImage.TYPE_INT_RGB));
+
+    exceptionRule.expect(PhotoDetectionException.class);
+    exceptionRule.expectMessage("No potential barcode found.");
+    try {
+      barcodeImageDetector.detect(image);
+    } finally {
+      Assert.assertEquals(1, barcodeImageDetector.getAttemptCount(DecodeTier.FAST));
+      // A landscape image is not turned before being searched harder.
+      Assert.assertEquals(0, barcodeImageDetector.getAttemptCount(DecodeTier.ROTATED));
+      Assert.assertEquals(1, barcodeImageDetector.getAttemptCount(DecodeTier.TRY_HARDER));
+    }
+  }
+
+  @Test
+  public void onlyRequestedFormatsAreFound() throws Exception {
+    ImageBuffer image = toPng(createBarcodeImage("shop", BarcodeFormat.QR_CODE, 200, 200));
+
+    Assert.assertEquals(
+        "shop",
+        new BarcodeImageDetector(ImmutableList.of(BarcodeFormat.QR_CODE)).detect(image));
+    exceptionRule.expect(PhotoDetectionException.class);
+    exceptionRule.expectMessage("No potential barcode found.");
+    barcodeImageDetector.detect(image);
+  }
+
+  @Test
+  public void smallBarcodeOfLargePhotoIsFoundAtFullResolution() throws Exception {
+    // The bars, two pixels wide, are lost once the photo is subsampled to a third.
+    BufferedImage photo = new BufferedImage(6000, 400, BufferedImage.TYPE_INT_RGB);
+    Graphics2D graphics = photo.createGraphics();
+    graphics.setColor(Color.WHITE);
+    graphics.fillRect(0, 0, photo.getWidth(), photo.getHeight());
+    graphics.drawImage(
+        createBarcodeImage(EAN_13_CODE, BarcodeFormat.EAN_13, 200, 100), 2900, 150, null);
+    graphics.dispose();
+
+    Assert.assertEquals(EAN_13_CODE, barcodeImageDetector.detect(toPng(photo)));
+    Assert.assertEquals(1, barcodeImageDetector.getFullResolutionFallbackCount());
+  }
+
+  @Test
+  public void barcodeOfSmallPhotoIsNotReadAgain() throws Exception {
+    ImageBuffer image = toPng(new BufferedImage(200, 100, BufferedImage.TYPE_INT_RGB));
+
+    try {
+      barcodeImageDetector.detect(image);
+      Assert.fail("Expected PhotoDetectionException.");
+    } catch (PhotoDetectionException expected) {
+      // The photo is already read at full resolution.
+    }
+    Assert.assertEquals(0, barcodeImageDetector.getFullResolutionFallbackCount());
+  }
+
+  @Test
+  public void everyDistinctBarcodeIsFound() throws Exception {
+    ImageBuffer image = toPng(createShelfImage(EAN_13_CODE, OTHER_EAN_13_CODE, EAN_13_CODE));
+
+    List<String> codes = barcodeImageDetector.detectAll(image);
+
+    Assert.assertEquals(2, codes.size());
+    Assert.assertEquals(
+        new HashSet<>(Arrays.asList(EAN_13_CODE, OTHER_EAN_13_CODE)), new HashSet<>(codes));
+  }
+
+  @Test
+  public void singleBarcodeIsFoundByDetectAll() throws Exception {
+    ImageBuffer image =
+        toPng(rotate(createBarcodeImage(EAN_13_CODE, BarcodeFormat.EAN_13, 400, 200)));
+
+    Assert.assertEquals(
+        Collections.singletonList(EAN_13_CODE), barcodeImageDetector.detectAll(image));
+  }
+
+  @Test
+  public void missingBarcodesAreReported() throws Exception {
+    ImageBuffer image = toPng(new BufferedImage(200, 100, BufferedImage.TYPE_INT_RGB));
+
+    exceptionRule.expect(PhotoDetectionException.class);
+    exceptionRule.expectMessage("No potential barcode found.");
+    barcodeImageDetector.detectAll(image);
+  }
+}
@@ -0,0 +1,137 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appengine.api.blobstore.BlobstoreService;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests {@link BlobReader}, with a fake Blobstore holding a single file, checking that files are
+ * assembled from their fetched ranges.
+ */
+@RunWith(JUnit4.class)
+public final class BlobReaderTest {
+  private static final BlobKey BLOB_KEY = new BlobKey("photo");
+  private static final int FETCH_SIZE = 10;
+
+  private byte[] storedBytes;
+  // Number of bytes dropped from the end of each fetched range.
+  private int truncatedByteCount;
+  private AtomicInteger fetchCount;
+  private BlobReader blobReader;
+
+  @Before
+  public void setUp() {
+    truncatedByteCount = 0;
+    fetchCount = new AtomicInteger();
+    blobReader =
+        new BlobReader(createFakeBlobstore(), Executors::defaultThreadFactory, FETCH_SIZE, 3);
+  }
+
+  /** Returns a Blobstore implementing only fetchData, over {@code storedBytes}. */
+  private BlobstoreService createFakeBlobstore() {
+    return (BlobstoreService) Proxy.newProxyInstance(
+        BlobstoreService.class.getClassLoader(),
+        new Class<?>[] {BlobstoreService.class},
+        (proxy, method, args) -> {
+          if (!method.getName().equals("fetchData")) {
+            throw new UnsupportedOperationException(method.getName());
+          }
+          fetchCount.incrementAndGet();
+          int start = (int) (long) args[1];
+          int end = (int) Math.min((long) args[2] + 1, storedBytes.length);
+          return Arrays.copyOfRange(storedBytes, start, end - truncatedByteCount);
+        });
+  }
+
+  private static byte[] createBytes(int size) {
+    byte[] bytes = new byte[size];
+    for (int i = 0; i < size; i++) {
+      bytes[i] = (byte) i;
+    }
+    return bytes;
+  }
+
+  @Test
+  public void smallFileIsReadInOneFetch() throws Exception {
+    storedBytes = createBytes(7);
+
+    Assert.assertArrayEquals(storedBytes, blobReader.read(BLOB_KEY, 7));
+    Assert.assertEquals(1, fetchCount.get());
+  }
+
+  @Test
+  public void largeFileIsAssembledFromRanges() throws Exception {
+    storedBytes = createBytes(95);
+
+    Assert.assertArrayEquals(storedBytes, blobReader.read(BLOB_KEY, 95));
+    Assert.assertEquals(10, fetchCount.get());
+    Assert.assertEquals(1, blobReader.getReadCount());
+    Assert.assertEquals(95, blobReader.getByteCount());
+    Assert.assertEquals(10, blobReader.getFetchCount());
+  }
+
+  @Test
+  public void fileOfExactMultipleOfFetchSizeIsRead() throws Exception {
+    storedBytes = createBytes(40);
+
+    Assert.assertArrayEquals(storedBytes, blobReader.read(BLOB_KEY, 40));
+    Assert.assertEquals(4, fetchCount.get());
+  }
+
+  @Test
+  public void emptyFileIsReadWithoutFetching() throws Exception {
+    storedBytes = new byte[0];
+
+    Assert.assertEquals(0, blobReader.read(BLOB_KEY, 0).length);
+    Assert.assertEquals(0, fetchCount.get());
+  }
+
+  @Test(expected = IOException.class)
+  public void shortRangeIsAnError() throws Exception {
+    storedBytes = createBytes(35);
+    truncatedByteCount = 1;
+
+    blobReader.read(BLOB_KEY, 35);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void fetchFailureIsRethrown() throws Exception {
+    blobReader = new BlobReader(
+        (BlobstoreService) Proxy.newProxyInstance(
+            BlobstoreService.class.getClassLoader(),
+            new Class<?>[] {BlobstoreService.class},
+            (proxy, method, args) -> {
+              throw new IllegalArgumentException("Unknown blob key.");
+            }),
+        Executors::defaultThreadFactory,
+        FETCH_SIZE,
+        3);
+
+    blobReader.read(BLOB_KEY, 35);
+  }
+}
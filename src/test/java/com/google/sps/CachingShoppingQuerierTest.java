@@ -0,0 +1,109 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.common.collect.ImmutableList;
+import com.google.sps.data.Product;
+import com.google.sps.data.ShoppingQueryInput;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests {@link CachingShoppingQuerier#query(ShoppingQueryInput)}, using a fake shopping querier.
+ */
+@RunWith(JUnit4.class)
+public final class CachingShoppingQuerierTest {
+  private static final List<Product> PRODUCTS =
+      ImmutableList.of(Product.create("Milk", "image", "price", "link", "shipping"));
+
+  private int queryCount;
+  private ShoppingQuerier countingQuerier;
+
+  @Before
+  public void setUp() {
+    queryCount = 0;
+    countingQuerier = shoppingQueryInput -> {
+      queryCount++;
+      if (shoppingQueryInput.getShoppingQuery().equals("---")) {
+        throw new IllegalArgumentException("Invalid Shopping query.");
+      }
+      return PRODUCTS;
+    };
+  }
+
+  private static ShoppingQueryInput createShoppingQueryInput(
+      String shoppingQuery, int maxResultsNumber) {
+    return new ShoppingQueryInput.Builder(shoppingQuery)
+        .language("en")
+        .maxResultsNumber(maxResultsNumber)
+        .build();
+  }
+
+  @Test
+  public void equivalentQueriesAreSearchedOnce() throws Exception {
+    CachingShoppingQuerier cachingQuerier = new CachingShoppingQuerier(countingQuerier, 10, 60);
+
+    Assert.assertEquals(PRODUCTS, cachingQuerier.query(createShoppingQueryInput("Milk", 15)));
+    Assert.assertEquals(
+        PRODUCTS, cachingQuerier.query(createShoppingQueryInput("  milk!  ", 15)));
+
+    Assert.assertEquals(1, queryCount);
+    Assert.assertEquals(0.5, cachingQuerier.getHitRate(), 0);
+  }
+
+  @Test
+  public void differentMaxResultsNumberIsSearchedAgain() throws Exception {
+    CachingShoppingQuerier cachingQuerier = new CachingShoppingQuerier(countingQuerier, 10, 60);
+
+    cachingQuerier.query(createShoppingQueryInput("milk", 15));
+    cachingQuerier.query(createShoppingQueryInput("milk", 24));
+
+    Assert.assertEquals(2, queryCount);
+  }
+
+  @Test
+  public void failedQueryIsNotCached() throws Exception {
+    CachingShoppingQuerier cachingQuerier = new CachingShoppingQuerier(countingQuerier, 10, 60);
+
+    for (int i = 0; i < 2; i++) {
+      Assertions.assertThrows(IllegalArgumentException.class, () -> {
+          cachingQuerier.query(createShoppingQueryInput("---", 15));
+      });
+    }
+
+    Assert.assertEquals(2, queryCount);
+    Assert.assertEquals(0, cachingQuerier.getSize());
+  }
+
+  @Test
+  public void leastRecentlyUsedQueryIsEvicted() throws Exception {
+    CachingShoppingQuerier cachingQuerier = new CachingShoppingQuerier(countingQuerier, 2, 60);
+
+    cachingQuerier.query(createShoppingQueryInput("milk", 15));
+    cachingQuerier.query(createShoppingQueryInput("eggs", 15));
+    // Use "milk" again, so that "eggs" is the least recently used query.
+    cachingQuerier.query(createShoppingQueryInput("milk", 15));
+    cachingQuerier.query(createShoppingQueryInput("bread", 15));
+    cachingQuerier.query(createShoppingQueryInput("milk", 15));
+
+    Assert.assertEquals(3, queryCount);
+    Assert.assertEquals(1, cachingQuerier.getEvictionCount());
+  }
+}
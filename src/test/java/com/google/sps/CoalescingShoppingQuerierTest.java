@@ -0,0 +1,154 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.sps.data.Product;
+import com.google.sps.data.ShoppingQueryInput;
+import com.google.sps.data.ShoppingResult;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests {@link CoalescingShoppingQuerier}, checking that a caller giving up does not fail the
+ * search shared with the other callers.
+ */
+@RunWith(JUnit4.class)
+public final class CoalescingShoppingQuerierTest {
+  private static final List<Product> PRODUCTS =
+      ImmutableList.of(Product.create("Milk", "image", "price", "link", "shipping"));
+
+  private ExecutorService callerExecutor;
+  private ExecutorService searchExecutor;
+
+  @Before
+  public void setUp() {
+    callerExecutor = Executors.newFixedThreadPool(2);
+    searchExecutor = Executors.newCachedThreadPool();
+  }
+
+  @After
+  public void tearDown() {
+    callerExecutor.shutdownNow();
+    searchExecutor.shutdownNow();
+  }
+
+  @Test
+  public void cancelledLeaderDoesNotFailFollower() throws Exception {
+    AtomicInteger searchCount = new AtomicInteger();
+    CountDownLatch releaseSearch = new CountDownLatch(1);
+    // The search fails if its thread is interrupted, as a search waiting for a connection does.
+    ShoppingQuerier querier = shoppingQueryInput -> {
+      searchCount.incrementAndGet();
+      try {
+        releaseSearch.await();
+      } catch (InterruptedException exception) {
+        throw new InterruptedIOException("Request aborted.");
+      }
+      return PRODUCTS;
+    };
+    CoalescingShoppingQuerier coalescingQuerier =
+        new CoalescingShoppingQuerier(querier, searchExecutor);
+    ShoppingQueryInput shoppingQueryInput = new ShoppingQueryInput.Builder("milk").build();
+
+    Future<List<Product>> leader =
+        callerExecutor.submit(() -> coalescingQuerier.query(shoppingQueryInput));
+    while (searchCount.get() == 0) {
+      Thread.sleep(1);
+    }
+    Future<List<Product>> follower =
+        callerExecutor.submit(() -> coalescingQuerier.query(shoppingQueryInput));
+    while (coalescingQuerier.getCoalescedQueryCount() == 0) {
+      Thread.sleep(1);
+    }
+    // The leader times out, as ParallelShoppingQuerier cancels it.
+    leader.cancel(true);
+    releaseSearch.countDown();
+
+    Assert.assertEquals(PRODUCTS, follower.get());
+    Assert.assertEquals(1, searchCount.get());
+    Assertions.assertThrows(Exception.class, () -> leader.get());
+  }
+
+  @Test
+  public void searchExceptionIsRethrown() throws Exception {
+    ShoppingQuerier querier = shoppingQueryInput -> {
+      throw new ShoppingQuerierConnectionException("Fake error.", null);
+    };
+    CoalescingShoppingQuerier coalescingQuerier =
+        new CoalescingShoppingQuerier(querier, searchExecutor);
+
+    ShoppingQuerierConnectionException exception =
+        Assertions.assertThrows(
+            ShoppingQuerierConnectionException.class,
+            () -> coalescingQuerier.query(new ShoppingQueryInput.Builder("milk").build()));
+    Assert.assertEquals("Fake error.", exception.getMessage());
+  }
+
+  @Test
+  public void timedOutCallersDoNotAddThreads() throws Exception {
+    AtomicInteger runningSearchCount = new AtomicInteger();
+    AtomicInteger maxRunningSearchCount = new AtomicInteger();
+    // A slow shopping site, whose responses are not interrupted by the callers giving up.
+    ShoppingQuerier querier = shoppingQueryInput -> {
+      maxRunningSearchCount.accumulateAndGet(runningSearchCount.incrementAndGet(), Math::max);
+      Uninterruptibles.sleepUninterruptibly(100, TimeUnit.MILLISECONDS);
+      runningSearchCount.decrementAndGet();
+      return PRODUCTS;
+    };
+    ThreadPoolExecutor boundedExecutor = CoalescingShoppingQuerier.createBoundedExecutor(2);
+    ExecutorService queryExecutor = Executors.newFixedThreadPool(2);
+    ParallelShoppingQuerier parallelQuerier =
+        new ParallelShoppingQuerier(
+            new CoalescingShoppingQuerier(querier, boundedExecutor), queryExecutor, 20);
+
+    try {
+      for (int i = 0; i < 10; i++) {
+        // Distinct queries, so that none is coalesced, and all time out.
+        List<ShoppingResult> shoppingResults =
+            parallelQuerier.query(
+                ImmutableList.of(
+                    new ShoppingQueryInput.Builder("milk " + i).build(),
+                    new ShoppingQueryInput.Builder("bread " + i).build()));
+        for (ShoppingResult shoppingResult : shoppingResults) {
+          Assert.assertNotNull(shoppingResult.getError());
+        }
+      }
+
+      Assert.assertTrue(boundedExecutor.getLargestPoolSize() <= 2);
+      // Searches running on the executor, and on the query threads once it is full.
+      Assert.assertTrue(maxRunningSearchCount.get() <= 4);
+    } finally {
+      boundedExecutor.shutdownNow();
+      queryExecutor.shutdownNow();
+    }
+  }
+}
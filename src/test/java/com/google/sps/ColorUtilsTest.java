@@ -0,0 +1,106 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.cloud.vision.v1.ColorInfo;
+import com.google.cloud.vision.v1.DominantColorsAnnotation;
+import com.google.common.collect.ImmutableList;
+import com.google.sps.ColorUtils.ColorDistance;
+import com.google.type.Color;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests {@link ColorUtils}, checking that the lookup tables give the closest known color.
+ */
+@RunWith(JUnit4.class)
+public final class ColorUtilsTest {
+
+  @Test
+  public void knownColorsAreNamed() {
+    Assert.assertEquals("Red", ColorUtils.getColorNameFromRGB(0xFF, 0x00, 0x00));
+    Assert.assertEquals("Navy", ColorUtils.getColorNameFromRGB(0x00, 0x00, 0x80));
+    Assert.assertEquals("Brown", ColorUtils.getColorNameFromRGB(0x8B, 0x45, 0x13));
+    Assert.assertEquals("Light Green", ColorUtils.getColorNameFromRGB(0x90, 0xEE, 0x90));
+  }
+
+  @Test
+  public void channelLimitsAreAccepted() {
+    Assert.assertEquals("Black", ColorUtils.getColorNameFromRGB(0, 0, 0));
+    Assert.assertEquals("White", ColorUtils.getColorNameFromRGB(255, 255, 255));
+    Assert.assertEquals("Black", ColorUtils.getColorNameFromRGB(0, 0, 0, ColorDistance.CIELAB));
+    Assert.assertEquals(
+        "White", ColorUtils.getColorNameFromRGB(255, 255, 255, ColorDistance.CIELAB));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void negativeChannelIsRejected() {
+    ColorUtils.getColorNameFromRGB(-1, 0, 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void channelAbove255IsRejected() {
+    ColorUtils.getColorNameFromRGB(0, 256, 0);
+  }
+
+  @Test
+  public void lookupMatchesClosestColorAtQuantizedColors() {
+    // Every query color quantized to the center of a lookup table entry should be named the same
+    // as by computing the distance to each known color.
+    for (ColorDistance distance : ColorDistance.values()) {
+      for (int r = 4; r < 256; r += 8) {
+        for (int g = 4; g < 256; g += 8) {
+          for (int b = 4; b < 256; b += 8) {
+            Assert.assertEquals(
+                ColorUtils.findClosestColorName(r, g, b, distance),
+                ColorUtils.getColorNameFromRGB(r, g, b, distance));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void labDistanceFollowsPerceivedColor() {
+    // A brick red is closer to Saddle Brown in RGB, but perceived closer to Dark Red.
+    Assert.assertEquals("Brown", ColorUtils.getColorNameFromRGB(0xC0, 0x40, 0x40, ColorDistance.RGB));
+    Assert.assertEquals(
+        "Dark Red", ColorUtils.getColorNameFromRGB(0xC0, 0x40, 0x40, ColorDistance.CIELAB));
+    Assert.assertArrayEquals(
+        new double[] {53.24, 80.09, 67.20}, ColorUtils.toLab(0xFF, 0x00, 0x00), 0.01);
+  }
+
+  @Test
+  public void dominantColorsAreNamedInOrder() {
+    DominantColorsAnnotation dominantColors =
+        DominantColorsAnnotation.newBuilder()
+            .addColors(createColorInfo(0, 0, 0))
+            .addColors(createColorInfo(255, 0, 0))
+            .addColors(createColorInfo(255, 255, 255))
+            .build();
+
+    Assert.assertEquals(
+        ImmutableList.of("Black", "Red", "White"), ColorUtils.getColorNames(dominantColors));
+  }
+
+  private static ColorInfo createColorInfo(float r, float g, float b) {
+    return ColorInfo.newBuilder()
+        .setColor(Color.newBuilder().setRed(r).setGreen(g).setBlue(b))
+        .build();
+  }
+}
@@ -0,0 +1,123 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.cloud.vision.v1.AnnotateImageResponse;
+import com.google.cloud.vision.v1.DominantColorsAnnotation;
+import com.google.cloud.vision.v1.EntityAnnotation;
+import com.google.common.collect.ImmutableList;
+import com.google.sps.data.ProductDetectionData;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import javax.imageio.ImageIO;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests {@link DominantColorExtractor}, checking that the colors covering the most pixels are
+ * extracted first, that shades of a color form a single color, and that the colors reach the
+ * product detection data as if detected by Cloud Vision API.
+ */
+@RunWith(JUnit4.class)
+public final class DominantColorExtractorTest {
+  private final ForkJoinPool pool = new ForkJoinPool(4);
+  private final DominantColorExtractor dominantColorExtractor =
+      new DominantColorExtractor(pool, 256, 5);
+
+  @After
+  public void tearDown() {
+    pool.shutdownNow();
+  }
+
+  private static ImageBuffer encode(BufferedImage image, String format) throws Exception {
+    ByteArrayOutputStream imageBytes = new ByteArrayOutputStream();
+    ImageIO.write(image, format, imageBytes);
+    return ImageBuffer.wrap(imageBytes.toByteArray());
+  }
+
+  /** Returns a photo, three quarters red and one quarter blue. */
+  private static BufferedImage createRedAndBluePhoto() {
+    BufferedImage image = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+    Graphics2D graphics = image.createGraphics();
+    graphics.setColor(Color.RED);
+    graphics.fillRect(0, 0, 800, 450);
+    graphics.setColor(Color.BLUE);
+    graphics.fillRect(0, 450, 800, 150);
+    graphics.dispose();
+    return image;
+  }
+
+  @Test
+  public void colorCoveringMostPixelsIsFirst() throws Exception {
+    DominantColorsAnnotation dominantColors =
+        dominantColorExtractor.extract(encode(createRedAndBluePhoto(), "png"));
+
+    Assert.assertEquals(
+        ImmutableList.of("Red", "Blue"), ColorUtils.getColorNames(dominantColors));
+    Assert.assertEquals(0.75, dominantColors.getColors(0).getPixelFraction(), 0.01);
+    Assert.assertEquals(0.25, dominantColors.getColors(1).getPixelFraction(), 0.01);
+  }
+
+  @Test
+  public void shadesOfColorFormSingleColor() throws Exception {
+    // A green surface, lit unevenly and noisy, as in a photo.
+    BufferedImage image = new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB);
+    Random random = new Random(11);
+    for (int y = 0; y < image.getHeight(); y++) {
+      for (int x = 0; x < image.getWidth(); x++) {
+        int shade = x / 20 + random.nextInt(8);
+        image.setRGB(x, y, new Color(0x22 + shade, 0x8B + shade, 0x22 + shade).getRGB());
+      }
+    }
+
+    DominantColorsAnnotation dominantColors =
+        dominantColorExtractor.extract(encode(image, "jpg"));
+
+    Assert.assertEquals(ImmutableList.of("Green"), ColorUtils.getColorNames(dominantColors));
+  }
+
+  @Test
+  public void unreadablePhotoHasNoColors() {
+    DominantColorsAnnotation dominantColors =
+        dominantColorExtractor.extract(ImageBuffer.wrap(new byte[] {1, 2, 3}));
+
+    Assert.assertEquals(0, dominantColors.getColorsCount());
+    Assert.assertEquals(1, dominantColorExtractor.getFailureCount());
+  }
+
+  @Test
+  public void extractedColorsAreParsedAsDetectedColors() throws Exception {
+    AnnotateImageResponse response =
+        AnnotateImageResponse.newBuilder()
+            .addLabelAnnotations(EntityAnnotation.newBuilder().setDescription("Mug"))
+            .build();
+    DominantColorsAnnotation dominantColors =
+        dominantColorExtractor.extractAsync(encode(createRedAndBluePhoto(), "jpg")).join();
+
+    ProductDetectionData productDetectionData =
+        ProductDetectionAPIImpl.parseProductDetectionData(
+            DominantColorExtractor.withDominantColors(response, dominantColors));
+
+    Assert.assertEquals(ImmutableList.of("Mug"), productDetectionData.getLabels());
+    Assert.assertEquals(ImmutableList.of("Red", "Blue"), productDetectionData.getColors());
+  }
+}
@@ -0,0 +1,90 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests {@link ImageBuffer}, checking that every view of the buffer sees the wrapped bytes.
+ */
+@RunWith(JUnit4.class)
+public final class ImageBufferTest {
+  private static final byte[] IMAGE_BYTES = {1, 2, 3, 4, 5, 6, 7, 8};
+
+  @Test
+  public void viewsHoldTheWrappedBytes() throws Exception {
+    ImageBuffer image = ImageBuffer.wrap(IMAGE_BYTES);
+
+    Assert.assertEquals(IMAGE_BYTES.length, image.size());
+    Assert.assertArrayEquals(IMAGE_BYTES, image.toByteString().toByteArray());
+    Assert.assertArrayEquals(IMAGE_BYTES, ByteStreams.toByteArray(image.newInputStream()));
+    Assert.assertSame(IMAGE_BYTES, image.array());
+  }
+
+  @Test
+  public void digestIsComputedOnce() {
+    ImageBuffer image = ImageBuffer.wrap(IMAGE_BYTES);
+
+    String digest = image.getSha256();
+
+    Assert.assertEquals(Hashing.sha256().hashBytes(IMAGE_BYTES).toString(), digest);
+    Assert.assertSame(digest, image.getSha256());
+  }
+
+  @Test
+  public void imageInputStreamSeeksWithinTheBytes() throws Exception {
+    try (ImageInputStream imageInputStream =
+        ImageBuffer.wrap(IMAGE_BYTES).newImageInputStream()) {
+      byte[] readBytes = new byte[3];
+
+      imageInputStream.seek(5);
+      Assert.assertEquals(3, imageInputStream.read(readBytes));
+      Assert.assertArrayEquals(new byte[] {6, 7, 8}, readBytes);
+      Assert.assertEquals(-1, imageInputStream.read());
+
+      imageInputStream.seek(1);
+      Assert.assertEquals(2, imageInputStream.read());
+      Assert.assertEquals(IMAGE_BYTES.length, imageInputStream.length());
+    }
+  }
+
+  @Test
+  public void imageIsDecodedFromImageInputStream() throws IOException {
+    BufferedImage image = new BufferedImage(30, 20, BufferedImage.TYPE_INT_RGB);
+    image.setRGB(10, 5, 0xFF8000);
+    ByteArrayOutputStream imageBytes = new ByteArrayOutputStream();
+    ImageIO.write(image, "png", imageBytes);
+
+    BufferedImage decodedImage;
+    try (ImageInputStream imageInputStream =
+        ImageBuffer.wrap(imageBytes.toByteArray()).newImageInputStream()) {
+      decodedImage = ImageIO.read(imageInputStream);
+    }
+
+    Assert.assertEquals(30, decodedImage.getWidth());
+    Assert.assertEquals(20, decodedImage.getHeight());
+    Assert.assertEquals(0xFF8000, decodedImage.getRGB(10, 5) & 0xFFFFFF);
+  }
+}
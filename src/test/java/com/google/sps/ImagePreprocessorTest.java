@@ -0,0 +1,148 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests {@link ImagePreprocessor}, checking that photos are shrunk and turned upright, and that
+ * the ones with nothing to gain are left unchanged.
+ */
+@RunWith(JUnit4.class)
+public final class ImagePreprocessorTest {
+  private final ImagePreprocessor imagePreprocessor = new ImagePreprocessor(640, 0.85f);
+
+  /** Returns an image whose left half is red and right half is blue. */
+  private static BufferedImage createImage(int width, int height) {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Graphics2D graphics = image.createGraphics();
+    graphics.setColor(Color.RED);
+    graphics.fillRect(0, 0, width / 2, height);
+    graphics.setColor(Color.BLUE);
+    graphics.fillRect(width / 2, 0, width - width / 2, height);
+    graphics.dispose();
+    return image;
+  }
+
+  private static byte[] encode(BufferedImage image, String format) throws IOException {
+    ByteArrayOutputStream imageBytes = new ByteArrayOutputStream();
+    ImageIO.write(image, format, imageBytes);
+    return imageBytes.toByteArray();
+  }
+
+  private static BufferedImage decode(byte[] imageBytes) throws IOException {
+    return ImageIO.read(new ByteArrayInputStream(imageBytes));
+  }
+
+  /** Returns the JPEG image with an EXIF segment holding the orientation, right after SOI. */
+  private static byte[] addExifOrientation(byte[] jpegBytes, int orientation, boolean isLittleEndian) {
+    byte[] tiff = isLittleEndian
+        ? new byte[] {'I', 'I', 0x2A, 0, 8, 0, 0, 0,
+            1, 0, 0x12, 0x01, 3, 0, 1, 0, 0, 0, (byte) orientation, 0, 0, 0, 0, 0, 0, 0}
+        : new byte[] {'M', 'M', 0, 0x2A, 0, 0, 0, 8,
+            0, 1, 0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, (byte) orientation, 0, 0, 0, 0, 0, 0};
+    byte[] exifHeader = {'E', 'x', 'i', 'f', 0, 0};
+    int segmentLength = 2 + exifHeader.length + tiff.length;
+
+    ByteArrayOutputStream imageBytes = new ByteArrayOutputStream();
+    imageBytes.write(jpegBytes, 0, 2);
+    imageBytes.write(0xFF);
+    imageBytes.write(0xE1);
+    imageBytes.write(segmentLength >> 8);
+    imageBytes.write(segmentLength & 0xFF);
+    imageBytes.write(exifHeader, 0, exifHeader.length);
+    imageBytes.write(tiff, 0, tiff.length);
+    imageBytes.write(jpegBytes, 2, jpegBytes.length - 2);
+    return imageBytes.toByteArray();
+  }
+
+  @Test
+  public void smallUprightImageIsUnchanged() throws Exception {
+    byte[] imageBytes = encode(createImage(320, 200), "png");
+
+    Assert.assertSame(imageBytes, imagePreprocessor.preprocess(imageBytes));
+    Assert.assertEquals(1, imagePreprocessor.getSkippedImageCount());
+  }
+
+  @Test
+  public void unchangedImageKeepsItsBuffer() throws Exception {
+    ImageBuffer image = ImageBuffer.wrap(encode(createImage(320, 200), "png"));
+
+    // The same buffer is handed on, so its digest is not computed again.
+    Assert.assertSame(image, imagePreprocessor.preprocess(image));
+  }
+
+  @Test
+  public void largeImageIsShrunkToMaxEdge() throws Exception {
+    byte[] imageBytes = encode(createImage(3000, 2000), "png");
+
+    byte[] preprocessedBytes = imagePreprocessor.preprocess(imageBytes);
+    BufferedImage preprocessedImage = decode(preprocessedBytes);
+
+    Assert.assertEquals(640, preprocessedImage.getWidth());
+    Assert.assertEquals(427, preprocessedImage.getHeight());
+    Assert.assertTrue(preprocessedBytes.length < imageBytes.length);
+    Assert.assertEquals(1, imagePreprocessor.getProcessedImageCount());
+    Assert.assertEquals(preprocessedBytes.length, imagePreprocessor.getOutputByteCount());
+  }
+
+  @Test
+  public void rotatedImageIsTurnedUpright() throws Exception {
+    // Orientation 6 means the image needs a 90 degrees clockwise rotation, which moves its left
+    // (red) half to the top.
+    byte[] imageBytes = addExifOrientation(encode(createImage(400, 200), "jpg"), 6, false);
+
+    BufferedImage preprocessedImage = decode(imagePreprocessor.preprocess(imageBytes));
+
+    Assert.assertEquals(200, preprocessedImage.getWidth());
+    Assert.assertEquals(400, preprocessedImage.getHeight());
+    Color top = new Color(preprocessedImage.getRGB(100, 50));
+    Color bottom = new Color(preprocessedImage.getRGB(100, 350));
+    Assert.assertTrue(top.getRed() > 200 && top.getBlue() < 50);
+    Assert.assertTrue(bottom.getBlue() > 200 && bottom.getRed() < 50);
+  }
+
+  @Test
+  public void exifOrientationIsRead() throws Exception {
+    byte[] jpegBytes = encode(createImage(40, 20), "jpg");
+
+    Assert.assertEquals(1, ImagePreprocessor.readExifOrientation(jpegBytes));
+    Assert.assertEquals(
+        6, ImagePreprocessor.readExifOrientation(addExifOrientation(jpegBytes, 6, false)));
+    Assert.assertEquals(
+        8, ImagePreprocessor.readExifOrientation(addExifOrientation(jpegBytes, 8, true)));
+    Assert.assertEquals(
+        1, ImagePreprocessor.readExifOrientation(encode(createImage(40, 20), "png")));
+  }
+
+  @Test
+  public void undecodableImageIsUnchanged() {
+    byte[] imageBytes = {1, 2, 3, 4, 5};
+
+    Assert.assertSame(imageBytes, imagePreprocessor.preprocess(imageBytes));
+  }
+}
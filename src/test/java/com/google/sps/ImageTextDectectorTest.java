@@ -28,8 +28,8 @@ import org.junit.runners.JUnit4;
 @RunWith(JUnit4.class)
 public final class ImageTextDectectorTest {
 
-  private static final byte[] NULL_IMAGE_BYTES = new byte[0];
-  private static final byte[] IMAGE_BYTES = new byte[1];
+  private static final ImageBuffer NULL_IMAGE = ImageBuffer.wrap(new byte[0]);
+  private static final ImageBuffer IMAGE = ImageBuffer.wrap(new byte[1]);
 
   private FakeTextDetectionAPIImpl fakeTextDetectionAPIImpl;
 
@@ -66,7 +66,7 @@ public final class ImageTextDectectorTest {
         Assertions.assertThrows(
             PhotoDetectionException.class,
             () -> {
-              imageTextDectector.extractShoppingList(NULL_IMAGE_BYTES);
+              imageTextDectector.extractShoppingList(NULL_IMAGE);
             });
 
     String expectedMessage = exceptionMessage;
@@ -84,7 +84,7 @@ public final class ImageTextDectectorTest {
         Assertions.assertThrows(
             PhotoDetectionException.class,
             () -> {
-              imageTextDectector.extractShoppingList(IMAGE_BYTES);
+              imageTextDectector.extractShoppingList(IMAGE);
             });
 
     String expectedMessage = "Shopping List doesn't contain any text";
@@ -101,7 +101,7 @@ public final class ImageTextDectectorTest {
 
     List<String> expectedShoppingQuery = new ArrayList<>();
     expectedShoppingQuery.add("Bag");
-    List<String> actualShoppingQuery = imageTextDectector.extractShoppingList(IMAGE_BYTES);
+    List<String> actualShoppingQuery = imageTextDectector.extractShoppingList(IMAGE);
     Assert.assertEquals(expectedShoppingQuery, actualShoppingQuery);
   }
 
@@ -117,7 +117,7 @@ public final class ImageTextDectectorTest {
 
     List<String> expectedShoppingQuery = new ArrayList<>();
     expectedShoppingQuery.add("Blue Shoes For Boys");
-    List<String> actualShoppingQuery = imageTextDectector.extractShoppingList(IMAGE_BYTES);
+    List<String> actualShoppingQuery = imageTextDectector.extractShoppingList(IMAGE);
     Assert.assertEquals(expectedShoppingQuery, actualShoppingQuery);
   }
 
@@ -133,7 +133,7 @@ public final class ImageTextDectectorTest {
 
     List<String> expectedShoppingQuery = new ArrayList<>();
     expectedShoppingQuery.add("Blue Shoes");
-    List<String> actualShoppingQuery = imageTextDectector.extractShoppingList(IMAGE_BYTES);
+    List<String> actualShoppingQuery = imageTextDectector.extractShoppingList(IMAGE);
     Assert.assertEquals(expectedShoppingQuery, actualShoppingQuery);
   }
 
@@ -150,7 +150,7 @@ public final class ImageTextDectectorTest {
     List<String> expectedShoppingQuery = new ArrayList<>();
     expectedShoppingQuery.add("Canon Camera");
     expectedShoppingQuery.add("Pink shoes");
-    List<String> actualShoppingQuery = imageTextDectector.extractShoppingList(IMAGE_BYTES);
+    List<String> actualShoppingQuery = imageTextDectector.extractShoppingList(IMAGE);
     Assert.assertEquals(expectedShoppingQuery, actualShoppingQuery);
   }
 
@@ -165,7 +165,7 @@ public final class ImageTextDectectorTest {
     List<String> expectedShoppingQuery = new ArrayList<>();
     expectedShoppingQuery.add("NoteBook");
     expectedShoppingQuery.add("Tea");
-    List<String> actualShoppingQuery = imageTextDectector.extractShoppingList(IMAGE_BYTES);
+    List<String> actualShoppingQuery = imageTextDectector.extractShoppingList(IMAGE);
     Assert.assertEquals(expectedShoppingQuery, actualShoppingQuery);
   }
 }
@@ -0,0 +1,117 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import javax.imageio.ImageIO;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests {@link LuminancePlaneSource}, checking that the luminance of a JPEG is read from its Y
+ * channel, that large images are read subsampled, and that the luminance is cropped and turned
+ * as ZXing expects.
+ */
+@RunWith(JUnit4.class)
+public final class LuminancePlaneSourceTest {
+  private static ImageBuffer encode(BufferedImage image, String format) throws Exception {
+    ByteArrayOutputStream imageBytes = new ByteArrayOutputStream();
+    ImageIO.write(image, format, imageBytes);
+    return ImageBuffer.wrap(imageBytes.toByteArray());
+  }
+
+  private static BufferedImage createFilledImage(Color color, int width, int height) {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Graphics2D graphics = image.createGraphics();
+    graphics.setColor(color);
+    graphics.fillRect(0, 0, width, height);
+    graphics.dispose();
+    return image;
+  }
+
+  @Test
+  public void jpegLuminanceIsReadFromYChannel() throws Exception {
+    ImageBuffer image = encode(createFilledImage(Color.RED, 64, 32), "jpg");
+
+    LuminancePlaneSource luminance = LuminancePlaneSource.read(image, 1024);
+
+    Assert.assertEquals(64, luminance.getWidth());
+    Assert.assertEquals(32, luminance.getHeight());
+    Assert.assertEquals(1, luminance.getSubsampling());
+    // Pure red has a luminance of 0.299 * 255.
+    for (byte pixel : luminance.getMatrix()) {
+      Assert.assertEquals(76, pixel & 0xFF, 3);
+    }
+  }
+
+  @Test
+  public void pngLuminanceIsComputedFromColors() throws Exception {
+    ImageBuffer image = encode(createFilledImage(Color.BLUE, 64, 32), "png");
+
+    LuminancePlaneSource luminance = LuminancePlaneSource.read(image, 1024);
+
+    // Pure blue has a luminance of 0.114 * 255.
+    for (byte pixel : luminance.getMatrix()) {
+      Assert.assertEquals(29, pixel & 0xFF, 1);
+    }
+  }
+
+  @Test
+  public void largeImageIsReadSubsampled() throws Exception {
+    ImageBuffer image = encode(createFilledImage(Color.WHITE, 3000, 1000), "jpg");
+
+    LuminancePlaneSource luminance = LuminancePlaneSource.read(image, 1024);
+
+    Assert.assertEquals(3, luminance.getSubsampling());
+    Assert.assertEquals(1000, luminance.getWidth());
+    Assert.assertEquals(334, luminance.getHeight());
+
+    LuminancePlaneSource fullLuminance = LuminancePlaneSource.read(image, Integer.MAX_VALUE);
+    Assert.assertEquals(1, fullLuminance.getSubsampling());
+    Assert.assertEquals(3000, fullLuminance.getWidth());
+  }
+
+  @Test
+  public void croppedAndTurnedLuminanceMatchesZxing() throws Exception {
+    BufferedImage image = new BufferedImage(7, 5, BufferedImage.TYPE_BYTE_GRAY);
+    Random random = new Random(7);
+    for (int y = 0; y < image.getHeight(); y++) {
+      for (int x = 0; x < image.getWidth(); x++) {
+        int gray = random.nextInt(256);
+        image.setRGB(x, y, new Color(gray, gray, gray).getRGB());
+      }
+    }
+    LuminanceSource expected = new BufferedImageLuminanceSource(image);
+    LuminanceSource luminance = LuminancePlaneSource.fromImage(image, 1);
+
+    Assert.assertArrayEquals(expected.getMatrix(), luminance.getMatrix());
+    Assert.assertArrayEquals(
+        expected.crop(1, 2, 4, 3).getMatrix(), luminance.crop(1, 2, 4, 3).getMatrix());
+    Assert.assertArrayEquals(
+        expected.rotateCounterClockwise().getMatrix(),
+        luminance.rotateCounterClockwise().getMatrix());
+    Assert.assertArrayEquals(
+        expected.crop(1, 2, 4, 3).rotateCounterClockwise().getRow(1, null),
+        luminance.crop(1, 2, 4, 3).rotateCounterClockwise().getRow(1, null));
+  }
+}
@@ -0,0 +1,100 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests {@link NearDuplicateIndex}, checking that the closest hash within the maximum distance
+ * is found, as by comparing the query to every hash, and that the oldest entries are evicted.
+ */
+@RunWith(JUnit4.class)
+public final class NearDuplicateIndexTest {
+  private static final long HASH = 0x0123456789ABCDEFL;
+
+  @Test
+  public void hashWithinMaxDistanceIsFound() {
+    NearDuplicateIndex<String> index = new NearDuplicateIndex<>(5, 100);
+    index.put(HASH, "mug");
+
+    Assert.assertEquals("mug", index.find(HASH));
+    // Five bits apart, spread over several chunks.
+    Assert.assertEquals("mug", index.find(HASH ^ 0x8000_0100_0010_0101L));
+    // Six bits apart.
+    Assert.assertNull(index.find(HASH ^ 0x8000_0100_0010_0103L));
+    Assert.assertEquals(3, index.getLookupCount());
+    Assert.assertEquals(2, index.getHitCount());
+  }
+
+  @Test
+  public void closestHashIsFound() {
+    NearDuplicateIndex<String> index = new NearDuplicateIndex<>(5, 100);
+    index.put(HASH ^ 0b111, "far");
+    index.put(HASH ^ 0b1, "close");
+    index.put(HASH ^ 0b11, "between");
+
+    Assert.assertEquals("close", index.find(HASH));
+  }
+
+  @Test
+  public void oldestEntryIsEvicted() {
+    NearDuplicateIndex<String> index = new NearDuplicateIndex<>(2, 2);
+    index.put(HASH, "first");
+    index.put(~HASH, "second");
+    index.put(HASH ^ 0b1, "third");
+
+    Assert.assertEquals(2, index.size());
+    Assert.assertEquals("second", index.find(~HASH));
+    // The first entry, closer to the query, is gone.
+    Assert.assertEquals("third", index.find(HASH));
+  }
+
+  @Test
+  public void lookupMatchesComparingEveryHash() {
+    int maxDistance = 6;
+    NearDuplicateIndex<Integer> index = new NearDuplicateIndex<>(maxDistance, 20000);
+    long[] hashes = new long[20000];
+    Random random = new Random(22);
+    for (int i = 0; i < hashes.length; i++) {
+      hashes[i] = random.nextLong();
+      index.put(hashes[i], i);
+    }
+
+    for (int query = 0; query < 2000; query++) {
+      // Flip a few bits of a stored hash, or query a random hash.
+      long queryHash = query % 2 == 0 ? hashes[random.nextInt(hashes.length)] : random.nextLong();
+      for (int flips = random.nextInt(2 * maxDistance); flips > 0; flips--) {
+        queryHash ^= 1L << random.nextInt(Long.SIZE);
+      }
+
+      int closestDistance = maxDistance + 1;
+      for (long hash : hashes) {
+        closestDistance = Math.min(closestDistance, PerceptualHash.distance(queryHash, hash));
+      }
+      Integer found = index.find(queryHash);
+      if (closestDistance > maxDistance) {
+        Assert.assertNull(found);
+      } else {
+        Assert.assertNotNull(found);
+        Assert.assertEquals(
+            closestDistance, PerceptualHash.distance(queryHash, hashes[found]));
+      }
+    }
+  }
+}
@@ -0,0 +1,107 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.common.collect.ImmutableList;
+import com.google.sps.data.ProductDetectionData;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests {@link NearDuplicateProductDetectionAPI}, checking that a photo looking the same as a
+ * recent one reuses its detection data, and that other photos are detected.
+ */
+@RunWith(JUnit4.class)
+public final class NearDuplicateProductDetectionAPITest {
+  private static final ProductDetectionData MUG_DATA =
+      ProductDetectionData.create(
+          ImmutableList.of("Mug"), ImmutableList.of(), ImmutableList.of("Red"));
+
+  private final AtomicInteger detectionCount = new AtomicInteger();
+  private final NearDuplicateProductDetectionAPI productDetectionAPI =
+      new NearDuplicateProductDetectionAPI(
+          image -> {
+            detectionCount.incrementAndGet();
+            return MUG_DATA;
+          },
+          new NearDuplicateIndex<>(5, 100));
+
+  /** Returns a photo of a product, shifted right and lit by the given amounts. */
+  private static BufferedImage createProductPhoto(int width, int shift, int light) {
+    int height = width * 3 / 4;
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Graphics2D graphics = image.createGraphics();
+    graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+    graphics.setColor(new Color(200 + light, 190 + light, 180 + light));
+    graphics.fillRect(0, 0, width, height);
+    graphics.setColor(new Color(160 + light, 30 + light, 30 + light));
+    graphics.fillOval(width / 4 + shift, height / 5, width / 3, height / 2);
+    graphics.setColor(new Color(40 + light, 40 + light, 90 + light));
+    graphics.fillRect(width / 2 + shift, height * 3 / 5, width / 3, height / 4);
+    graphics.dispose();
+    return image;
+  }
+
+  private static ImageBuffer encode(BufferedImage image, String format) throws Exception {
+    ByteArrayOutputStream imageBytes = new ByteArrayOutputStream();
+    ImageIO.write(image, format, imageBytes);
+    return ImageBuffer.wrap(imageBytes.toByteArray());
+  }
+
+  @Test
+  public void photoTakenAgainReusesDetection() throws Exception {
+    ImageBuffer photo = encode(createProductPhoto(800, 0, 0), "png");
+    // Taken again: slightly moved, brighter, at another resolution and encoded as JPEG.
+    ImageBuffer photoTakenAgain = encode(createProductPhoto(1000, 6, 8), "jpg");
+
+    Assert.assertEquals(MUG_DATA, productDetectionAPI.detectProductPhotoContent(photo));
+    Assert.assertEquals(MUG_DATA, productDetectionAPI.detectProductPhotoContent(photoTakenAgain));
+    Assert.assertEquals(1, detectionCount.get());
+  }
+
+  @Test
+  public void differentPhotoIsDetected() throws Exception {
+    BufferedImage otherPhoto = createProductPhoto(800, 0, 0);
+    Graphics2D graphics = otherPhoto.createGraphics();
+    graphics.setColor(Color.BLACK);
+    graphics.fillRect(0, 0, 400, 600);
+    graphics.dispose();
+
+    productDetectionAPI.detectProductPhotoContent(encode(createProductPhoto(800, 0, 0), "png"));
+    productDetectionAPI.detectProductPhotoContent(encode(otherPhoto, "png"));
+
+    Assert.assertEquals(2, detectionCount.get());
+  }
+
+  @Test
+  public void flatPhotosAreAlwaysDetected() throws Exception {
+    ImageBuffer blankPhoto = encode(new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB), "png");
+
+    productDetectionAPI.detectProductPhotoContent(blankPhoto);
+    productDetectionAPI.detectProductPhotoContent(blankPhoto);
+    productDetectionAPI.detectProductPhotoContent(ImageBuffer.wrap(new byte[] {1, 2, 3}));
+
+    Assert.assertEquals(3, detectionCount.get());
+  }
+}
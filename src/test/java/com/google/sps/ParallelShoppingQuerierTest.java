@@ -0,0 +1,237 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.common.collect.ImmutableList;
+import com.google.sps.data.Product;
+import com.google.sps.data.ShoppingQueryInput;
+import com.google.sps.data.ShoppingResult;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests {@link ParallelShoppingQuerier#query(List)}, using a fake shopping querier.
+ */
+@RunWith(JUnit4.class)
+public final class ParallelShoppingQuerierTest {
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  private static List<ShoppingQueryInput> createShoppingQueryInputs(String... shoppingQueries) {
+    List<ShoppingQueryInput> shoppingQueryInputs = new ArrayList<>();
+    for (String shoppingQuery : shoppingQueries) {
+      shoppingQueryInputs.add(new ShoppingQueryInput.Builder(shoppingQuery).build());
+    }
+    return shoppingQueryInputs;
+  }
+
+  private static List<Product> createProducts(String title) {
+    return ImmutableList.of(Product.create(title, "image", "price", "link", "shipping"));
+  }
+
+  /** Simulates a slow query, failing as a query would if it is cancelled. */
+  private static void sleep(long millis) throws IOException {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException exception) {
+      throw new IOException("Interrupted.", exception);
+    }
+  }
+
+  @Test
+  public void resultsKeepQueryOrder() throws Exception {
+    // The first query is the slowest, so it completes last.
+    ShoppingQuerier querier = shoppingQueryInput -> {
+      String shoppingQuery = shoppingQueryInput.getShoppingQuery();
+      if (shoppingQuery.equals("milk")) {
+        sleep(200);
+      }
+      return createProducts(shoppingQuery);
+    };
+    ParallelShoppingQuerier parallelQuerier = new ParallelShoppingQuerier(querier, executor, 5000);
+
+    List<ShoppingResult> actualResults =
+        parallelQuerier.query(createShoppingQueryInputs("milk", "eggs", "bread"));
+
+    List<ShoppingResult> expectedResults = ImmutableList.of(
+        ShoppingResult.create("milk", createProducts("milk")),
+        ShoppingResult.create("eggs", createProducts("eggs")),
+        ShoppingResult.create("bread", createProducts("bread")));
+    Assert.assertEquals(expectedResults, actualResults);
+  }
+
+  @Test
+  public void failedQueryGetsErrorResult() throws Exception {
+    ShoppingQuerier querier = shoppingQueryInput -> {
+      if (shoppingQueryInput.getShoppingQuery().equals("-")) {
+        throw new IllegalArgumentException("Invalid Shopping query.");
+      }
+      return createProducts(shoppingQueryInput.getShoppingQuery());
+    };
+    ParallelShoppingQuerier parallelQuerier = new ParallelShoppingQuerier(querier, executor, 5000);
+
+    List<ShoppingResult> actualResults =
+        parallelQuerier.query(createShoppingQueryInputs("milk", "-"));
+
+    List<ShoppingResult> expectedResults = ImmutableList.of(
+        ShoppingResult.create("milk", createProducts("milk")),
+        ShoppingResult.createError("-", "Invalid Shopping query."));
+    Assert.assertEquals(expectedResults, actualResults);
+  }
+
+  @Test
+  public void failureWithoutMessageGetsErrorResult() throws Exception {
+    ShoppingQuerier querier = shoppingQueryInput -> {
+      throw new NullPointerException();
+    };
+    ParallelShoppingQuerier parallelQuerier = new ParallelShoppingQuerier(querier, executor, 5000);
+
+    List<ShoppingResult> actualResults = parallelQuerier.query(createShoppingQueryInputs("milk"));
+
+    Assert.assertEquals(
+        ImmutableList.of(ShoppingResult.createError("milk", "Shopping query failed.")),
+        actualResults);
+  }
+
+  @Test
+  public void slowQueryTimesOut() throws Exception {
+    ShoppingQuerier querier = shoppingQueryInput -> {
+      if (shoppingQueryInput.getShoppingQuery().equals("eggs")) {
+        sleep(5000);
+      }
+      return createProducts(shoppingQueryInput.getShoppingQuery());
+    };
+    ParallelShoppingQuerier parallelQuerier = new ParallelShoppingQuerier(querier, executor, 100);
+
+    List<ShoppingResult> actualResults =
+        parallelQuerier.query(createShoppingQueryInputs("milk", "eggs"));
+
+    List<ShoppingResult> expectedResults = ImmutableList.of(
+        ShoppingResult.create("milk", createProducts("milk")),
+        ShoppingResult.createError("eggs", "Shopping query timed out."));
+    Assert.assertEquals(expectedResults, actualResults);
+  }
+
+  @Test
+  public void timeoutStartsWhenQueryRuns() throws Exception {
+    ShoppingQuerier querier = shoppingQueryInput -> {
+      sleep(60);
+      return createProducts(shoppingQueryInput.getShoppingQuery());
+    };
+    // With a single thread, each query waits for the ones before it, longer than its timeout.
+    ExecutorService singleThreadExecutor = Executors.newSingleThreadExecutor();
+    try {
+      ParallelShoppingQuerier parallelQuerier =
+          new ParallelShoppingQuerier(querier, singleThreadExecutor, 100);
+
+      List<ShoppingResult> actualResults =
+          parallelQuerier.query(createShoppingQueryInputs("milk", "eggs", "bread"));
+
+      List<ShoppingResult> expectedResults = ImmutableList.of(
+          ShoppingResult.create("milk", createProducts("milk")),
+          ShoppingResult.create("eggs", createProducts("eggs")),
+          ShoppingResult.create("bread", createProducts("bread")));
+      Assert.assertEquals(expectedResults, actualResults);
+    } finally {
+      singleThreadExecutor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void listenerGetsResultsInCompletionOrder() throws Exception {
+    // The first query is the slowest, so it completes last.
+    ShoppingQuerier querier = shoppingQueryInput -> {
+      String shoppingQuery = shoppingQueryInput.getShoppingQuery();
+      if (shoppingQuery.equals("milk")) {
+        sleep(200);
+      }
+      return createProducts(shoppingQuery);
+    };
+    ParallelShoppingQuerier parallelQuerier = new ParallelShoppingQuerier(querier, executor, 5000);
+
+    List<Integer> actualIndices = new ArrayList<>();
+    List<ShoppingResult> actualResults = new ArrayList<>();
+    parallelQuerier.query(
+        createShoppingQueryInputs("milk", "eggs"),
+        (index, shoppingResult) -> {
+          actualIndices.add(index);
+          actualResults.add(shoppingResult);
+        });
+
+    Assert.assertEquals(ImmutableList.of(1, 0), actualIndices);
+    Assert.assertEquals(
+        ImmutableList.of(
+            ShoppingResult.create("eggs", createProducts("eggs")),
+            ShoppingResult.create("milk", createProducts("milk"))),
+        actualResults);
+  }
+
+  @Test
+  public void failingListenerCancelsRemainingQueries() throws Exception {
+    CountDownLatch isSlowQueryStarted = new CountDownLatch(1);
+    CountDownLatch isSlowQueryCancelled = new CountDownLatch(1);
+    ShoppingQuerier querier = shoppingQueryInput -> {
+      if (shoppingQueryInput.getShoppingQuery().equals("eggs")) {
+        isSlowQueryStarted.countDown();
+        try {
+          Thread.sleep(5000);
+        } catch (InterruptedException exception) {
+          isSlowQueryCancelled.countDown();
+        }
+      }
+      return createProducts(shoppingQueryInput.getShoppingQuery());
+    };
+    ParallelShoppingQuerier parallelQuerier = new ParallelShoppingQuerier(querier, executor, 5000);
+
+    try {
+      // The client goes away after the first result.
+      parallelQuerier.query(
+          createShoppingQueryInputs("milk", "eggs"),
+          (index, shoppingResult) -> {
+            try {
+              isSlowQueryStarted.await();
+            } catch (InterruptedException exception) {
+              Thread.currentThread().interrupt();
+            }
+            throw new IOException("The client closed the connection.");
+          });
+      Assert.fail("The listener failure was not re-thrown.");
+    } catch (IOException exception) {
+      Assert.assertEquals("The client closed the connection.", exception.getMessage());
+    }
+
+    Assert.assertTrue(isSlowQueryCancelled.await(1, TimeUnit.SECONDS));
+  }
+}
@@ -17,6 +17,10 @@ package com.google.sps;
 import com.google.sps.data.Product;
 
 import java.io.File;
+import java.io.Reader;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -134,4 +138,83 @@ public final class ProductListExtractorTest {
 
     Assert.assertTrue(actualProducts.isEmpty());
   }
+
+  @Test
+  public void streamingExtractionMatchesDocumentExtraction() throws Exception {
+    // Both extraction paths should give the same products for every mock results file.
+    String[] mockResultsFileNames = {"complete-data.html", "product-rating-missing.html",
+        "empty-product-title.html", "no-data.html", "wrong-classes.html",
+        "interchange-class-names.html"};
+
+    for (String mockResultsFileName : mockResultsFileNames) {
+      File mockResultsFile = new File("./src/main/webapp/mock-shopping-results/" + mockResultsFileName);
+      List<Product> expectedProducts = productListExtractor.extract(Jsoup.parse(mockResultsFile, "UTF-8"));
+
+      List<Product> actualProducts;
+      try (Reader html = Files.newBufferedReader(mockResultsFile.toPath(), StandardCharsets.UTF_8)) {
+        actualProducts = productListExtractor.extract(html, "", 24);
+      }
+
+      Assert.assertEquals(mockResultsFileName, expectedProducts, actualProducts);
+    }
+  }
+
+  @Test
+  public void streamingExtractionStopsAtMaxResultsNumber() throws Exception {
+    List<Product> expectedProducts = new ArrayList<>();
+    expectedProducts.add(Product.create("TWSBI Eco <b>Fountain Pen</b> - Clear - Extra-Fine", 
+        "https://image-link-1.com", 
+        "<span class=\"HRLxBb\">$30.99</span> from Goldspot", 
+        "https://product-link-1.com", 
+        "+$4.95 shipping"));
+
+    File mockResultsFile = new File("./src/main/webapp/mock-shopping-results/complete-data.html");
+    List<Product> actualProducts;
+    try (Reader html = Files.newBufferedReader(mockResultsFile.toPath(), StandardCharsets.UTF_8)) {
+      actualProducts = productListExtractor.extract(html, "", 1);
+    }
+
+    Assert.assertEquals(expectedProducts, actualProducts);
+  }
+
+  @Test
+  public void singlePassExtractionMatchesSelectorExtraction() throws Exception {
+    // The single pass extraction should give the same products as running a select() for each
+    // product field, on every mock results file and on a generated page with all product variants.
+    String[] mockResultsFileNames = {"complete-data.html", "product-rating-missing.html",
+        "empty-product-title.html", "no-data.html", "wrong-classes.html",
+        "interchange-class-names.html"};
+
+    for (String mockResultsFileName : mockResultsFileNames) {
+      Document mockResultsDoc = Jsoup.parse(
+          new File("./src/main/webapp/mock-shopping-results/" + mockResultsFileName), "UTF-8");
+
+      Assert.assertEquals(mockResultsFileName,
+          SelectorProductListExtractor.extract(mockResultsDoc),
+          productListExtractor.extract(mockResultsDoc));
+    }
+
+    Document generatedDoc = Jsoup.parse(ShoppingResultsPageGenerator.generate(100));
+    List<Product> expectedProducts = SelectorProductListExtractor.extract(generatedDoc);
+
+    Assert.assertEquals(85, expectedProducts.size());
+    Assert.assertEquals(expectedProducts, productListExtractor.extract(generatedDoc));
+  }
+
+  @Test
+  public void generatedPageRepeatsFixtureProducts() throws Exception {
+    // A page generated from a mock results file should hold its products, repeated in order.
+    String fixtureHtml = new String(Files.readAllBytes(
+        new File("./src/main/webapp/mock-shopping-results/complete-data.html").toPath()),
+        StandardCharsets.UTF_8);
+    List<Product> fixtureProducts = productListExtractor.extract(Jsoup.parse(fixtureHtml));
+
+    List<Product> actualProducts = productListExtractor.extract(
+        Jsoup.parse(ShoppingResultsPageGenerator.generateFromFixture(fixtureHtml, 5)));
+
+    Assert.assertEquals(5, actualProducts.size());
+    for (int i = 0; i < actualProducts.size(); i++) {
+      Assert.assertEquals(fixtureProducts.get(i % fixtureProducts.size()), actualProducts.get(i));
+    }
+  }
 }
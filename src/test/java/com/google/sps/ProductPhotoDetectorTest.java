@@ -28,13 +28,13 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 /** 
- * Tests the behaviour of {@link ProductPhotoDetector#buildShoppingQuery(byte[])}.
+ * Tests the behaviour of {@link ProductPhotoDetector#buildShoppingQuery(ImageBuffer)}.
  */
 @RunWith(JUnit4.class)
 public final class ProductPhotoDetectorTest {
 
-  private static final byte[] NULL_IMAGE_BYTES = new byte[0];
-  private static final byte[] IMAGE_BYTES = new byte[1];
+  private static final ImageBuffer NULL_IMAGE = ImageBuffer.wrap(new byte[0]);
+  private static final ImageBuffer IMAGE = ImageBuffer.wrap(new byte[1]);
 
   private FakeProductDetectionAPIImpl fakeProductDetection;
   private ProductPhotoDetector productPhotoDetector;
@@ -66,7 +66,7 @@ public final class ProductPhotoDetectorTest {
 
     String expectedShoppingQuery = "Black Nike Shoe";
     String actualShoppingQuery = 
-        productPhotoDetector.buildShoppingQuery(IMAGE_BYTES);
+        productPhotoDetector.buildShoppingQuery(IMAGE);
 
     Assert.assertEquals(expectedShoppingQuery, actualShoppingQuery);
   }
@@ -80,7 +80,7 @@ public final class ProductPhotoDetectorTest {
     initProductPhotoDetector(labels, logos, colors);
 
     Exception exception = Assertions.assertThrows(PhotoDetectionException.class, () -> {
-        productPhotoDetector.buildShoppingQuery(IMAGE_BYTES);
+        productPhotoDetector.buildShoppingQuery(IMAGE);
     });
 
     String expectedMessage = "Missing labels for image detection.";
@@ -98,7 +98,7 @@ public final class ProductPhotoDetectorTest {
 
     String expectedShoppingQuery = "Black Shoe";
     String actualShoppingQuery = 
-        productPhotoDetector.buildShoppingQuery(IMAGE_BYTES);
+        productPhotoDetector.buildShoppingQuery(IMAGE);
 
     Assert.assertEquals(expectedShoppingQuery, actualShoppingQuery);
   }
@@ -113,7 +113,7 @@ public final class ProductPhotoDetectorTest {
 
     exceptionRule.expect(PhotoDetectionException.class);
     exceptionRule.expectMessage("Missing labels for image detection.");
-    productPhotoDetector.buildShoppingQuery(IMAGE_BYTES);
+    productPhotoDetector.buildShoppingQuery(IMAGE);
   }
 
   @Test
@@ -126,7 +126,7 @@ public final class ProductPhotoDetectorTest {
 
     String expectedShoppingQuery = "Nike Shoe";
     String actualShoppingQuery = 
-        productPhotoDetector.buildShoppingQuery(IMAGE_BYTES);
+        productPhotoDetector.buildShoppingQuery(IMAGE);
 
     Assert.assertEquals(expectedShoppingQuery, actualShoppingQuery);
   }
@@ -138,7 +138,7 @@ public final class ProductPhotoDetectorTest {
 
     // The exception should be re-thrown.
     Assertions.assertThrows(PhotoDetectionException.class, () -> {
-        productPhotoDetector.buildShoppingQuery(IMAGE_BYTES);
+        productPhotoDetector.buildShoppingQuery(IMAGE);
     });
   }
 
@@ -148,6 +148,6 @@ public final class ProductPhotoDetectorTest {
   
     exceptionRule.expect(PhotoDetectionException.class);
     exceptionRule.expectMessage("Empty byte array.");
-    productPhotoDetector.buildShoppingQuery(NULL_IMAGE_BYTES);
+    productPhotoDetector.buildShoppingQuery(NULL_IMAGE);
   }
 }
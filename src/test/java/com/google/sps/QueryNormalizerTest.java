@@ -0,0 +1,135 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.net.URLDecoder;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests {@link QueryNormalizer}, checking on random queries that it formats and validates them as
+ * the regular expressions used before did, and that the encoded queries decode to the formatted
+ * ones.
+ */
+@RunWith(JUnit4.class)
+public final class QueryNormalizerTest {
+  private static final int TRIAL_COUNT = 20000;
+  // Letters, digits, whitespace, special characters, line terminators, control characters,
+  // characters reserved in URLs, non-ASCII characters and a surrogate pair.
+  private static final String[] QUERY_PARTS = {
+    "a", "Z", "0", "1", "9", " ", "\t", "\n", "\u000B", "\f", "\r", "-", "+", "=", ",", ".", "_",
+    "^", "\"", ";", ":", "~", "#", ">", "<", "/", "|", "!", "*", "\u0085", " ", " ",
+    "\u0000", "\u0001", "\u001F", " ", "&", "?", "'", "(", "é", "€", "🛒"
+  };
+
+  private static String createRandomQuery(Random random) {
+    StringBuilder query = new StringBuilder();
+    for (int length = random.nextInt(12); length > 0; length--) {
+      query.append(QUERY_PARTS[random.nextInt(QUERY_PARTS.length)]);
+    }
+    return query.toString();
+  }
+
+  // The formatting of PhotoShoppingUtil.formatQuery before.
+  private static String formatWithRegex(String query) {
+    return query.replaceAll("\\s+", " ").replaceAll("[-+=,\n._^\";:~#></|!*]", "").trim();
+  }
+
+  // The formatting and space encoding of GoogleShoppingQuerier.polishShoppingQuery before.
+  private static String polishWithRegex(String query) {
+    return query
+        .replaceAll("\\s+", " ")
+        .trim()
+        .replaceAll(" ", "%20")
+        .replaceAll("[-+=,\n._^\";:~#></|!*]", "");
+  }
+
+  // The validation of GoogleShoppingQuerier before.
+  private static boolean isValidWithRegex(String query) {
+    return query.matches(".*[a-zA-Z1-9].*");
+  }
+
+  @Test
+  public void formatsAsRegex() {
+    Random random = new Random(25);
+    for (int trial = 0; trial < TRIAL_COUNT; trial++) {
+      String query = createRandomQuery(random);
+      Assert.assertEquals(query, formatWithRegex(query), QueryNormalizer.format(query));
+    }
+  }
+
+  @Test
+  public void validatesAsRegex() {
+    Random random = new Random(25);
+    for (int trial = 0; trial < TRIAL_COUNT; trial++) {
+      String query = createRandomQuery(random);
+      Assert.assertEquals(query, isValidWithRegex(query), QueryNormalizer.isValid(query));
+      Assert.assertEquals(
+          query, isValidWithRegex(query), QueryNormalizer.toUrlParameter(query) != null);
+    }
+  }
+
+  @Test
+  public void urlParameterDecodesToFormattedQuery() throws Exception {
+    Random random = new Random(25);
+    for (int trial = 0; trial < TRIAL_COUNT; trial++) {
+      String query = createRandomQuery(random);
+      String urlParameter = QueryNormalizer.toUrlParameter(query);
+      if (urlParameter == null) {
+        continue;
+      }
+
+      Assert.assertTrue(query, urlParameter.matches("[A-Za-z0-9%]*"));
+      Assert.assertEquals(
+          query, QueryNormalizer.format(query), URLDecoder.decode(urlParameter, "UTF-8"));
+      // The regular expressions encoded the spaces only, and trimmed the query before removing
+      // the special characters.
+      Assert.assertEquals(
+          query,
+          polishWithRegex(query).replace("%20", " ").trim(),
+          URLDecoder.decode(urlParameter, "UTF-8"));
+    }
+  }
+
+  @Test
+  public void asciiQueryIsEncodedAsBefore() {
+    String query = "  TWSBI   Eco - Fountain Pen, Clear; Extra-Fine!  ";
+
+    Assert.assertEquals(polishWithRegex(query), QueryNormalizer.toUrlParameter(query));
+    Assert.assertEquals(
+        "TWSBI%20Eco%20%20Fountain%20Pen%20Clear%20ExtraFine",
+        QueryNormalizer.toUrlParameter(query));
+  }
+
+  @Test
+  public void reservedAndNonAsciiCharactersAreEncoded() {
+    Assert.assertEquals(
+        "M%26M%27s%20caf%C3%A9%2050%25%20%F0%9F%9B%92",
+        QueryNormalizer.toUrlParameter("M&M's café 50% 🛒"));
+    // A lone surrogate is encoded as "?".
+    Assert.assertEquals("Pen%3F", QueryNormalizer.toUrlParameter("Pen\uD83D"));
+  }
+
+  @Test
+  public void formattedQueryIsReturnedAsIs() {
+    String query = "Canon Camera";
+
+    Assert.assertSame(query, QueryNormalizer.format(query));
+  }
+}
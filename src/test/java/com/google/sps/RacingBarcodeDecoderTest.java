@@ -0,0 +1,150 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.common.collect.ImmutableList;
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.MultiFormatWriter;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.client.j2se.MatrixToImageWriter;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import javax.imageio.ImageIO;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests {@link RacingBarcodeDecoder}, checking that the barcode found first is returned, and that
+ * the search gives up at the end of its budget.
+ */
+@RunWith(JUnit4.class)
+public final class RacingBarcodeDecoderTest {
+  private static final String EAN_13_CODE = "5901234123457";
+  private static final ImmutableList<BarcodeFormat> FORMATS =
+      ImmutableList.of(BarcodeFormat.EAN_13, BarcodeFormat.CODE_128);
+
+  private final ForkJoinPool pool = new ForkJoinPool(4);
+
+  @After
+  public void tearDown() {
+    pool.shutdownNow();
+  }
+
+  private static BufferedImage createBarcodeImage(int width, int height) throws Exception {
+    return MatrixToImageWriter.toBufferedImage(
+        new MultiFormatWriter().encode(EAN_13_CODE, BarcodeFormat.EAN_13, width, height));
+  }
+
+  /** Returns the image turned a quarter clockwise. */
+  private static BufferedImage rotate(BufferedImage image) {
+    BufferedImage rotatedImage =
+        new BufferedImage(image.getHeight(), image.getWidth(), BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < image.getHeight(); y++) {
+      for (int x = 0; x < image.getWidth(); x++) {
+        rotatedImage.setRGB(image.getHeight() - 1 - y, x, image.getRGB(x, y));
+      }
+    }
+    return rotatedImage;
+  }
+
+  @Test
+  public void barcodeIsFoundInAnyVariant() throws Exception {
+    RacingBarcodeDecoder decoder = new RacingBarcodeDecoder(pool, FORMATS, 5000);
+
+    Assert.assertEquals(EAN_13_CODE, decoder.decode(createBarcodeImage(400, 200)).getText());
+    Assert.assertEquals(
+        EAN_13_CODE, decoder.decode(rotate(createBarcodeImage(400, 200))).getText());
+
+    Assert.assertEquals(2, decoder.getFoundCount());
+    Assert.assertEquals(
+        2, decoder.getWinCounts().values().stream().mapToLong(Long::longValue).sum());
+  }
+
+  @Test
+  public void missingBarcodeIsNotFoundOnceEveryVariantIsSearched() throws Exception {
+    RacingBarcodeDecoder decoder = new RacingBarcodeDecoder(pool, FORMATS, 5000);
+
+    try {
+      decoder.decode(new BufferedImage(200, 100, BufferedImage.TYPE_INT_RGB));
+      Assert.fail("Expected NotFoundException.");
+    } catch (NotFoundException expected) {
+      // The search ends when the last variant is searched, not at the end of the budget.
+    }
+    Assert.assertEquals(0, decoder.getTimeoutCount());
+    Assert.assertEquals(0, decoder.getFoundCount());
+    // Variants still running as the race ends were searched, so none of them is abandoned.
+    Assert.assertEquals(0, decoder.getAbandonedVariantCount());
+  }
+
+  @Test
+  public void searchIsAbandonedAtEndOfBudget() throws Exception {
+    ForkJoinPool busyPool = new ForkJoinPool(1);
+    CountDownLatch release = new CountDownLatch(1);
+    try {
+      // Keep the only thread busy, so that no variant is searched within the budget.
+      busyPool.submit(() -> {
+        release.await();
+        return null;
+      });
+      RacingBarcodeDecoder decoder = new RacingBarcodeDecoder(busyPool, FORMATS, 50);
+
+      try {
+        decoder.decode(createBarcodeImage(400, 200));
+        Assert.fail("Expected NotFoundException.");
+      } catch (NotFoundException expected) {
+        // The barcode is reported as not found.
+      }
+      Assert.assertEquals(1, decoder.getTimeoutCount());
+      // None of the 15 variants was searched.
+      Assert.assertEquals(15, decoder.getAbandonedVariantCount());
+    } finally {
+      release.countDown();
+      busyPool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void detectorSearchesInRacingMode() throws Exception {
+    RacingBarcodeDecoder decoder = new RacingBarcodeDecoder(pool, FORMATS, 5000);
+    BarcodeImageDetector barcodeImageDetector = new BarcodeImageDetector(FORMATS, decoder);
+    ByteArrayOutputStream imageBytes = new ByteArrayOutputStream();
+    ImageIO.write(rotate(createBarcodeImage(400, 200)), "png", imageBytes);
+
+    Assert.assertEquals(
+        EAN_13_CODE, barcodeImageDetector.detect(ImageBuffer.wrap(imageBytes.toByteArray())));
+    Assert.assertEquals(1, decoder.getRaceCount());
+    Assert.assertEquals(
+        0, barcodeImageDetector.getAttemptCount(BarcodeImageDetector.DecodeTier.FAST));
+  }
+
+  @Test
+  public void detectorRejectsUnsupportedImageInRacingMode() throws Exception {
+    RacingBarcodeDecoder decoder = new RacingBarcodeDecoder(pool, FORMATS, 5000);
+    BarcodeImageDetector barcodeImageDetector = new BarcodeImageDetector(FORMATS, decoder);
+
+    PhotoDetectionException exception =
+        Assertions.assertThrows(
+            PhotoDetectionException.class,
+            () -> barcodeImageDetector.detect(ImageBuffer.wrap(new byte[] {1, 2, 3})));
+    Assert.assertEquals("Unsupported image format.", exception.getMessage());
+    Assert.assertEquals(0, decoder.getRaceCount());
+  }
+}
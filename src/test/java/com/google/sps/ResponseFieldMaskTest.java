@@ -0,0 +1,185 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.cloud.vision.v1.AnnotateImageResponse;
+import com.google.cloud.vision.v1.BatchAnnotateImagesResponse;
+import com.google.cloud.vision.v1.BoundingPoly;
+import com.google.cloud.vision.v1.ColorInfo;
+import com.google.cloud.vision.v1.DominantColorsAnnotation;
+import com.google.cloud.vision.v1.EntityAnnotation;
+import com.google.cloud.vision.v1.ImageProperties;
+import com.google.cloud.vision.v1.Page;
+import com.google.cloud.vision.v1.TextAnnotation;
+import com.google.cloud.vision.v1.Vertex;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Message;
+import com.google.rpc.Status;
+import com.google.type.Color;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests {@link Constants#RESPONSE_FIELD_MASK}, checking that the queries built from a Cloud
+ * Vision API response left with only the fields of the mask are the same as from the whole
+ * response. The mask is applied as Cloud Vision API applies it, each path going through the
+ * elements of the repeated fields it names.
+ */
+@RunWith(JUnit4.class)
+public final class ResponseFieldMaskTest {
+
+  private static List<List<String>> getFieldMaskPaths() {
+    List<List<String>> paths = new ArrayList<>();
+    for (String path : Constants.RESPONSE_FIELD_MASK.split(",")) {
+      paths.add(Arrays.asList(path.split("\\.")));
+    }
+    return paths;
+  }
+
+  private static FieldDescriptor findField(Descriptor descriptor, String jsonName) {
+    for (FieldDescriptor field : descriptor.getFields()) {
+      if (field.getJsonName().equals(jsonName)) {
+        return field;
+      }
+    }
+    return null;
+  }
+
+  private static BatchAnnotateImagesResponse applyFieldMask(BatchAnnotateImagesResponse response) {
+    return (BatchAnnotateImagesResponse) applyFieldMask(response, getFieldMaskPaths());
+  }
+
+  /** Returns the message with only the fields named by the paths. */
+  private static Message applyFieldMask(Message message, List<List<String>> paths) {
+    // The remaining paths of each field, or null if the whole field is kept.
+    Map<String, List<List<String>>> fieldPaths = new LinkedHashMap<>();
+    for (List<String> path : paths) {
+      if (path.size() == 1) {
+        fieldPaths.put(path.get(0), null);
+      } else if (!fieldPaths.containsKey(path.get(0)) || fieldPaths.get(path.get(0)) != null) {
+        fieldPaths.computeIfAbsent(path.get(0), name -> new ArrayList<>())
+            .add(path.subList(1, path.size()));
+      }
+    }
+
+    Message.Builder maskedMessage = message.newBuilderForType();
+    for (Map.Entry<String, List<List<String>>> entry : fieldPaths.entrySet()) {
+      FieldDescriptor field = findField(message.getDescriptorForType(), entry.getKey());
+      List<List<String>> subPaths = entry.getValue();
+      if (field.isRepeated()) {
+        for (int i = 0; i < message.getRepeatedFieldCount(field); i++) {
+          Object element = message.getRepeatedField(field, i);
+          maskedMessage.addRepeatedField(
+              field, subPaths == null ? element : applyFieldMask((Message) element, subPaths));
+        }
+      } else if (message.hasField(field)) {
+        Object value = message.getField(field);
+        maskedMessage.setField(
+            field, subPaths == null ? value : applyFieldMask((Message) value, subPaths));
+      }
+    }
+    return maskedMessage.build();
+  }
+
+  private static EntityAnnotation createAnnotation(String description, int upperY, int lowerY) {
+    return EntityAnnotation.newBuilder()
+        .setDescription(description)
+        .setMid("/m/0" + description.length())
+        .setScore(0.9f)
+        .setBoundingPoly(
+            BoundingPoly.newBuilder()
+                .addVertices(Vertex.newBuilder().setX(10).setY(upperY))
+                .addVertices(Vertex.newBuilder().setX(50).setY(upperY))
+                .addVertices(Vertex.newBuilder().setX(50).setY(lowerY))
+                .addVertices(Vertex.newBuilder().setX(10).setY(lowerY)))
+        .build();
+  }
+
+  @Test
+  public void fieldMaskNamesResponseFields() {
+    for (List<String> path : getFieldMaskPaths()) {
+      Descriptor descriptor = BatchAnnotateImagesResponse.getDescriptor();
+      for (int i = 0; i < path.size(); i++) {
+        FieldDescriptor field = findField(descriptor, path.get(i));
+        Assert.assertNotNull(path.toString(), field);
+        if (i < path.size() - 1) {
+          Assert.assertEquals(
+              path.toString(), FieldDescriptor.JavaType.MESSAGE, field.getJavaType());
+          descriptor = field.getMessageType();
+        }
+      }
+    }
+  }
+
+  @Test
+  public void maskedResponseGivesSameResults() throws Exception {
+    AnnotateImageResponse response =
+        AnnotateImageResponse.newBuilder()
+            .addLabelAnnotations(createAnnotation("Mug", 0, 0))
+            .addLogoAnnotations(createAnnotation("Acme", 0, 0))
+            .setImagePropertiesAnnotation(
+                ImageProperties.newBuilder()
+                    .setDominantColors(
+                        DominantColorsAnnotation.newBuilder()
+                            .addColors(
+                                ColorInfo.newBuilder()
+                                    .setColor(Color.newBuilder().setRed(250).setGreen(10))
+                                    .setScore(0.8f)
+                                    .setPixelFraction(0.5f))))
+            .addTextAnnotations(createAnnotation("Acme Mug", 10, 40))
+            .addTextAnnotations(createAnnotation("Acme", 10, 20))
+            .addTextAnnotations(createAnnotation("Mug", 30, 40))
+            .setFullTextAnnotation(
+                TextAnnotation.newBuilder().setText("Acme Mug").addPages(Page.newBuilder()))
+            .build();
+
+    BatchAnnotateImagesResponse maskedBatchResponse =
+        applyFieldMask(BatchAnnotateImagesResponse.newBuilder().addResponses(response).build());
+    AnnotateImageResponse maskedResponse = maskedBatchResponse.getResponses(0);
+
+    Assert.assertFalse(maskedResponse.hasFullTextAnnotation());
+    Assert.assertTrue(maskedResponse.getSerializedSize() < response.getSerializedSize());
+    Assert.assertEquals(
+        ProductDetectionAPIImpl.parseProductDetectionData(response),
+        ProductDetectionAPIImpl.parseProductDetectionData(maskedResponse));
+    Assert.assertEquals(
+        TextDetectionAPIImpl.parseAnnotateImageResponse(response),
+        TextDetectionAPIImpl.parseAnnotateImageResponse(maskedResponse));
+  }
+
+  @Test
+  public void maskedResponseKeepsError() {
+    AnnotateImageResponse response =
+        AnnotateImageResponse.newBuilder()
+            .setError(Status.newBuilder().setCode(3).setMessage("Bad image data."))
+            .build();
+
+    AnnotateImageResponse maskedResponse =
+        applyFieldMask(BatchAnnotateImagesResponse.newBuilder().addResponses(response).build())
+            .getResponses(0);
+
+    Assert.assertEquals("Bad image data.", maskedResponse.getError().getMessage());
+  }
+}
@@ -0,0 +1,91 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.sps.data.Product;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The previous implementation of {@link ProductListExtractor#extract(Document)}, running a
+ * separate select() over each product container for every product field. Kept as the reference
+ * the single pass extraction is checked and benchmarked against.
+ */
+final class SelectorProductListExtractor {
+
+  private SelectorProductListExtractor() {}
+
+  static List<Product> extract(Document doc) {
+    Elements productElements = doc.select(".u30d4");
+
+    List<Product> products = new ArrayList<>();
+    Iterator<Element> iterator = productElements.iterator();
+    while (iterator.hasNext()) {
+      Element currentProduct = iterator.next();
+
+      // Do not consider the last element with class ".u30d4", as this does not define a product.
+      if (!iterator.hasNext()) { 
+        continue;
+      }
+
+      Product product = extractProduct(currentProduct);
+      if (product != null) {
+        products.add(product);
+      }
+    }
+
+    return products;
+  }
+
+  private static Product extractProduct(Element currentProduct) {
+    String productTitle = currentProduct.select(".rgHvZc > a").html();
+    if (productTitle.isEmpty()) {
+      return null;
+    }
+
+    String productImageLink = currentProduct.select(".oR27Gd > img").attr("src");
+    
+    String extractedProductLink = currentProduct.select(".rgHvZc > a").attr("href");
+    String wrongStartOfLink = "/url?q=";
+    String productLink;
+    if (extractedProductLink.length() >= wrongStartOfLink.length() &&
+        extractedProductLink.substring(0, wrongStartOfLink.length()).equals(wrongStartOfLink)) {
+      productLink = extractedProductLink.substring(wrongStartOfLink.length());
+    } else {
+      productLink = extractedProductLink;
+    }
+
+    String productPriceAndSeller;
+    if (currentProduct.select(".dD8iuc:nth-of-type(3)").html().isEmpty()) {
+      productPriceAndSeller = currentProduct.select(".dD8iuc:nth-of-type(2)").html();
+    } else {
+      productPriceAndSeller = currentProduct.select(".dD8iuc:nth-of-type(3)").html();
+    }
+
+    String productShippingPrice = currentProduct.select(".dD8iuc:nth-of-type(1)").text();
+
+    return Product.create(productTitle, 
+                          productImageLink, 
+                          productPriceAndSeller, 
+                          productLink, 
+                          productShippingPrice);
+  }
+}
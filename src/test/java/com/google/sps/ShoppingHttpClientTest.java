@@ -0,0 +1,132 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpServer;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests {@link ShoppingHttpClient#get(String, ShoppingHttpClient.ResponseBodyReader)} against a
+ * local HTTP server.
+ */
+@RunWith(JUnit4.class)
+public final class ShoppingHttpClientTest {
+  private HttpServer server;
+  private String baseUrl;
+  private ShoppingHttpClient httpClient;
+
+  @Before
+  public void setUp() throws Exception {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    addPage("/page", 200, "text/html; charset=UTF-8", "<div class='u30d4'>Milk</div>");
+    addPage("/missing", 404, "text/html", "Not found");
+    addPage("/image", 200, "image/png", "png");
+    addPage(
+        "/large", 200, "text/html", "<div class='u30d4'>Milk</div>" + Strings.repeat(" ", 4096));
+    server.start();
+    baseUrl = "http://localhost:" + server.getAddress().getPort();
+
+    httpClient = new ShoppingHttpClient(10, 5, 1000, 1000, 1000, 10000, 1024);
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+  }
+
+  private void addPage(String path, int statusCode, String contentType, String body) {
+    server.createContext(path, exchange -> {
+      byte[] bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", contentType);
+      exchange.sendResponseHeaders(statusCode, bodyBytes.length);
+      try (OutputStream responseBody = exchange.getResponseBody()) {
+        responseBody.write(bodyBytes);
+      }
+    });
+  }
+
+  @Test
+  public void pageIsParsedAndConnectionReused() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      Document doc = httpClient.get(baseUrl + "/page", (body, charset, url) ->
+          Jsoup.parse(body, charset.name(), url));
+
+      Assert.assertEquals("Milk", doc.select(".u30d4").text());
+    }
+
+    // The single connection is back in the pool, kept alive.
+    Assert.assertEquals(0, httpClient.getLeasedConnectionCount());
+    Assert.assertEquals(1, httpClient.getAvailableConnectionCount());
+  }
+
+  @Test
+  public void connectionIsReusedIfReaderStopsNearEnd() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      int firstByte = httpClient.get(baseUrl + "/page", (body, charset, url) -> body.read());
+
+      Assert.assertEquals('<', firstByte);
+    }
+
+    // The rest of each page was drained, so the single connection is back in the pool.
+    Assert.assertEquals(0, httpClient.getLeasedConnectionCount());
+    Assert.assertEquals(1, httpClient.getAvailableConnectionCount());
+  }
+
+  @Test
+  public void connectionIsClosedIfLargeRestIsNotRead() throws Exception {
+    int firstByte = httpClient.get(baseUrl + "/large", (body, charset, url) -> body.read());
+
+    Assert.assertEquals('<', firstByte);
+    Assert.assertEquals(0, httpClient.getLeasedConnectionCount());
+    Assert.assertEquals(0, httpClient.getAvailableConnectionCount());
+  }
+
+  @Test
+  public void errorStatusIsConnectionException() throws Exception {
+    ShoppingQuerierConnectionException exception =
+        Assertions.assertThrows(ShoppingQuerierConnectionException.class, () -> {
+            httpClient.get(baseUrl + "/missing", (body, charset, url) -> "");
+        });
+
+    Assert.assertEquals("Failed to fetch from Google Search.", exception.getMessage());
+  }
+
+  @Test
+  public void nonHtmlPageIsConnectionException() throws Exception {
+    Assertions.assertThrows(ShoppingQuerierConnectionException.class, () -> {
+        httpClient.get(baseUrl + "/image", (body, charset, url) -> ByteStreams.toByteArray(body));
+    });
+  }
+
+  @Test
+  public void malformedUrlIsConnectionException() throws Exception {
+    Assertions.assertThrows(ShoppingQuerierConnectionException.class, () -> {
+        httpClient.get("https://www.google.com/search?q=a b", (body, charset, url) -> "");
+    });
+  }
+}
@@ -0,0 +1,122 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.common.collect.ImmutableList;
+import com.google.sps.data.ShoppingListTextEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests {@link ShoppingListLineAssembler}, checking that words are grouped by their position on
+ * both axes, and that the lines are formatted as {@link PhotoShoppingUtil#formatQuery(String)}
+ * formats them.
+ */
+@RunWith(JUnit4.class)
+public final class ShoppingListLineAssemblerTest {
+
+  @Test
+  public void columnsOfListAreSeparateLines() {
+    // Two columns, read row by row.
+    List<ShoppingListTextEntry> words =
+        ImmutableList.of(
+            ShoppingListTextEntry.create("Whole", 10, 30, 10, 70),
+            ShoppingListTextEntry.create("milk", 11, 30, 80, 130),
+            ShoppingListTextEntry.create("Rye", 10, 30, 400, 440),
+            ShoppingListTextEntry.create("bread", 10, 31, 450, 520),
+            ShoppingListTextEntry.create("Eggs", 40, 60, 10, 60),
+            ShoppingListTextEntry.create("Butter", 41, 60, 400, 480));
+
+    Assert.assertEquals(
+        ImmutableList.of("Whole milk", "Rye bread", "Eggs", "Butter"),
+        ShoppingListLineAssembler.assembleLines(words));
+  }
+
+  @Test
+  public void touchingLinesAreNotMerged() {
+    // Handwritten lines, whose boxes touch.
+    List<ShoppingListTextEntry> words =
+        ImmutableList.of(
+            ShoppingListTextEntry.create("Tea", 10, 30, 10, 50),
+            ShoppingListTextEntry.create("Honey", 30, 50, 12, 80));
+
+    Assert.assertEquals(
+        ImmutableList.of("Tea", "Honey"), ShoppingListLineAssembler.assembleLines(words));
+  }
+
+  @Test
+  public void wordsWithoutHorizontalPositionAreGroupedByRows() {
+    List<ShoppingListTextEntry> words =
+        ImmutableList.of(
+            ShoppingListTextEntry.create("Canon", 63, 71),
+            ShoppingListTextEntry.create("Camera", 63, 71),
+            ShoppingListTextEntry.create("Pink", 78, 86),
+            ShoppingListTextEntry.create("shoes", 78, 86));
+
+    Assert.assertEquals(
+        ImmutableList.of("Canon Camera", "Pink shoes"),
+        ShoppingListLineAssembler.assembleLines(words));
+  }
+
+  @Test
+  public void linesAreFormattedAsQueries() {
+    // Words made of letters, whitespace and special characters, on a single line.
+    String alphabet = "ab \t\n\r-+=,._^\";:~#></|!*\u0001";
+    Random random = new Random(23);
+    for (int trial = 0; trial < 2000; trial++) {
+      List<ShoppingListTextEntry> words = new ArrayList<>();
+      StringBuilder sentence = new StringBuilder();
+      for (int wordCount = 1 + random.nextInt(4); wordCount > 0; wordCount--) {
+        StringBuilder word = new StringBuilder();
+        for (int length = random.nextInt(5); length > 0; length--) {
+          word.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        words.add(ShoppingListTextEntry.create(word.toString(), 10, 13));
+        sentence.append(word).append(' ');
+      }
+
+      String query = PhotoShoppingUtil.formatQuery(sentence.toString());
+      Assert.assertEquals(
+          sentence.toString(),
+          query.isEmpty() ? Collections.emptyList() : ImmutableList.of(query),
+          ShoppingListLineAssembler.assembleLines(words));
+    }
+  }
+
+  @Test
+  public void longReceiptIsAssembled() {
+    // A receipt of 2500 lines of 4 words each: a product name, and a price far to the right.
+    List<ShoppingListTextEntry> words = new ArrayList<>();
+    for (int row = 0; row < 2500; row++) {
+      int top = row * 20;
+      words.add(ShoppingListTextEntry.create("Organic", top, top + 15, 10, 80));
+      words.add(ShoppingListTextEntry.create("whole", top + 1, top + 15, 88, 140));
+      words.add(ShoppingListTextEntry.create("milk", top, top + 16, 148, 190));
+      words.add(ShoppingListTextEntry.create("2.99", top, top + 15, 600, 640));
+    }
+
+    List<String> lines = ShoppingListLineAssembler.assembleLines(words);
+
+    Assert.assertEquals(5000, lines.size());
+    Assert.assertEquals("Organic whole milk", lines.get(0));
+    Assert.assertEquals("299", lines.get(1));
+  }
+}
@@ -0,0 +1,112 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+
+/**
+ * Builds Google Shopping results pages with any number of products, following the structure of
+ * the mock shopping results files, for testing and benchmarking the product extraction on pages
+ * of realistic size.
+ */
+final class ShoppingResultsPageGenerator {
+
+  private ShoppingResultsPageGenerator() {}
+
+  /**
+   * Returns a results page with {@code productCount} product containers, followed by the empty
+   * container that ends the results. Every third product has no rating, every fifth has a link
+   * which does not start with "/url?q=", and every seventh has no title.
+   */
+  static String generate(int productCount) {
+    StringBuilder page = new StringBuilder();
+    page.append("<!doctype html>\n<html lang=\"en\">\n<head>\n")
+        .append("  <title>Fountain Pen - Google Shopping</title>\n</head>\n<body>\n")
+        .append("  <div class=\"PR0QIb\"><div class=\"vWbPpb\">")
+        .append("<div class=\"yQBGUe\">Shop for Fountain Pens</div></div></div>\n");
+
+    for (int i = 0; i < productCount; i++) {
+      String productLink =
+          (i % 5 == 0 ? "https://" : "/url?q=https://") + "product-link-" + i + ".com";
+      page.append("  <div class=\"xcR77\">\n    <div class=\"u30d4\">\n")
+          .append("      <div class=\"eUQRje\">\n")
+          .append("        <a href=\"").append(productLink).append("\" aria-hidden=\"true\">\n")
+          .append("          <div class=\"oR27Gd\" style=\"width:75px;height:75px\">\n")
+          .append("            <img src=\"https://image-link-").append(i).append(".com\">\n")
+          .append("          </div>\n        </a>\n      </div>\n")
+          .append("      <div class=\"P8xhZc\">\n        <div class=\"rgHvZc\">\n");
+      if (i % 7 != 0) {
+        page.append("          <a href=\"").append(productLink).append("\">Fountain Pen <b>")
+            .append(i).append("</b> - Extra-Fine</a>\n");
+      }
+      page.append("        </div>\n");
+      if (i % 3 != 0) {
+        page.append("        <div class=\"dD8iuc d1BlKc\">\n")
+            .append("          <div class=\"m0amQc DApVsf\" aria-label=\"4.5 out of 5 stars\">")
+            .append("</div>\n")
+            .append("          <span aria-label=\"").append(i).append(" product reviews\">(")
+            .append(i).append(")</span>\n        </div>\n");
+      }
+      page.append("        <div class=\"dD8iuc\">\n")
+          .append("          <span class=\"HRLxBb\">$").append(10 + i).append(".99</span>")
+          .append(" from Seller ").append(i).append("\n        </div>\n")
+          .append("        <span class=\"dD8iuc\">+$").append(i % 10).append(".95 shipping</span>\n")
+          .append("      </div>\n    </div>\n  </div>\n");
+    }
+
+    page.append("  <footer>\n    <div class=\"xcR77\">\n      <div class=\"u30d4\">\n")
+        .append("      </div>\n    </div>\n  </footer>\n</body>\n</html>\n");
+    return page.toString();
+  }
+
+  /**
+   * Returns the {@code fixtureHtml} mock results page, with its products repeated until the page
+   * holds {@code productCount} of them, followed by the empty container that ends the results.
+   * The products of the fixture are expected to be siblings, as in the mock shopping results
+   * files.
+   */
+  static String generateFromFixture(String fixtureHtml, int productCount) {
+    Document doc = Jsoup.parse(fixtureHtml);
+    Elements productContainers = doc.select(".u30d4");
+    if (productContainers.size() < 2) {
+      throw new IllegalArgumentException("The fixture does not contain any product.");
+    }
+
+    // The last ".u30d4" container does not define a product, so it is kept as it is.
+    List<Element> products = new ArrayList<>();
+    for (Element productContainer : productContainers.subList(0, productContainers.size() - 1)) {
+      products.add(productContainer.parent());
+    }
+    Element productsParent = products.get(0).parent();
+    int productsIndex = products.get(0).siblingIndex();
+    for (Element product : products) {
+      product.remove();
+    }
+
+    List<Element> repeatedProducts = new ArrayList<>();
+    for (int i = 0; i < productCount; i++) {
+      repeatedProducts.add(products.get(i % products.size()).clone());
+    }
+    productsParent.insertChildren(productsIndex, repeatedProducts);
+
+    return doc.outerHtml();
+  }
+}
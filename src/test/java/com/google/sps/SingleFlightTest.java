@@ -0,0 +1,148 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests {@link SingleFlight#execute(Object, Callable)} and
+ * {@link SingleFlight#executeAsync(Object, Callable, java.util.concurrent.Executor)} with
+ * concurrent callers.
+ */
+@RunWith(JUnit4.class)
+public final class SingleFlightTest {
+  private static final int FOLLOWER_COUNT = 3;
+
+  private ExecutorService executor;
+  private SingleFlight<String, String> singleFlight;
+  private AtomicInteger callCount;
+  private CountDownLatch releaseCall;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(FOLLOWER_COUNT + 1);
+    singleFlight = new SingleFlight<>();
+    callCount = new AtomicInteger();
+    releaseCall = new CountDownLatch(1);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Starts a first call for "milk", blocked until {@code releaseCall} is counted down, then
+   * {@code FOLLOWER_COUNT} more calls for "milk", and returns the futures of all the calls once
+   * the followers wait for the first one.
+   */
+  private List<Future<String>> startConcurrentCalls(Callable<String> call) throws Exception {
+    Callable<String> blockedCall = () -> {
+      callCount.incrementAndGet();
+      releaseCall.await();
+      return call.call();
+    };
+
+    List<Future<String>> futures = new ArrayList<>();
+    futures.add(executor.submit(() -> singleFlight.execute("milk", blockedCall)));
+    while (singleFlight.getInFlightCallCount() == 0) {
+      Thread.sleep(1);
+    }
+    for (int i = 0; i < FOLLOWER_COUNT; i++) {
+      futures.add(executor.submit(() -> singleFlight.execute("milk", blockedCall)));
+    }
+    while (singleFlight.getCoalescedCallCount() < FOLLOWER_COUNT) {
+      Thread.sleep(1);
+    }
+    return futures;
+  }
+
+  @Test
+  public void concurrentCallersShareResult() throws Exception {
+    List<Future<String>> futures = startConcurrentCalls(() -> "result");
+    releaseCall.countDown();
+
+    for (Future<String> future : futures) {
+      Assert.assertEquals("result", future.get());
+    }
+    Assert.assertEquals(1, callCount.get());
+    Assert.assertEquals(0, singleFlight.getInFlightCallCount());
+  }
+
+  @Test
+  public void concurrentCallersShareException() throws Exception {
+    List<Future<String>> futures = startConcurrentCalls(() -> {
+      throw new PhotoDetectionException("Fake error.");
+    });
+    releaseCall.countDown();
+
+    for (Future<String> future : futures) {
+      ExecutionException exception =
+          Assertions.assertThrows(ExecutionException.class, () -> future.get());
+      // The future wraps the ExecutionException thrown by SingleFlight#execute.
+      Throwable cause = exception.getCause().getCause();
+      Assert.assertTrue(cause instanceof PhotoDetectionException);
+      Assert.assertEquals("Fake error.", cause.getMessage());
+    }
+    Assert.assertEquals(1, callCount.get());
+  }
+
+  @Test
+  public void sequentialCallsAreNotShared() throws Exception {
+    releaseCall.countDown();
+    Callable<String> call = () -> String.valueOf(callCount.incrementAndGet());
+
+    Assert.assertEquals("1", singleFlight.execute("milk", call));
+    Assert.assertEquals("2", singleFlight.execute("milk", call));
+    Assert.assertEquals(0, singleFlight.getCoalescedCallCount());
+  }
+
+  @Test
+  public void cancelledCallerDoesNotCancelAsyncCall() throws Exception {
+    Callable<String> blockedCall = () -> {
+      callCount.incrementAndGet();
+      releaseCall.await();
+      return "result";
+    };
+
+    CompletableFuture<String> leaderResult =
+        singleFlight.executeAsync("milk", blockedCall, executor);
+    CompletableFuture<String> followerResult =
+        singleFlight.executeAsync("milk", blockedCall, executor);
+    leaderResult.cancel(true);
+    releaseCall.countDown();
+
+    Assert.assertEquals("result", followerResult.get());
+    Assert.assertTrue(leaderResult.isCancelled());
+    Assert.assertEquals(1, callCount.get());
+    Assert.assertEquals(1, singleFlight.getCoalescedCallCount());
+  }
+}
@@ -0,0 +1,216 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.cloud.vision.v1.AnnotateImageRequest;
+import com.google.cloud.vision.v1.AnnotateImageResponse;
+import com.google.cloud.vision.v1.BatchAnnotateImagesResponse;
+import com.google.cloud.vision.v1.EntityAnnotation;
+import com.google.cloud.vision.v1.Image;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.protobuf.ByteString;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests {@link VisionBatchDispatcher}, with a fake sender answering each request with a label
+ * naming its image, checking that concurrent requests share calls and get their own responses.
+ */
+@RunWith(JUnit4.class)
+public final class VisionBatchDispatcherTest {
+  private static final long LONG_LINGER_MILLIS = 2000;
+
+  private List<Integer> batchSizes;
+  private ExecutorService callers;
+  private VisionBatchDispatcher dispatcher;
+
+  @Before
+  public void setUp() {
+    batchSizes = Collections.synchronizedList(new ArrayList<>());
+    callers = Executors.newFixedThreadPool(8);
+  }
+
+  @After
+  public void tearDown() {
+    if (dispatcher != null) {
+      dispatcher.stop();
+    }
+    callers.shutdownNow();
+  }
+
+  /** Answers each request with a label holding the content of its image. */
+  private BatchAnnotateImagesResponse labelImages(List<AnnotateImageRequest> requests) {
+    batchSizes.add(requests.size());
+    BatchAnnotateImagesResponse.Builder response = BatchAnnotateImagesResponse.newBuilder();
+    for (AnnotateImageRequest request : requests) {
+      response.addResponses(
+          AnnotateImageResponse.newBuilder()
+              .addLabelAnnotations(
+                  EntityAnnotation.newBuilder()
+                      .setDescription(request.getImage().getContent().toStringUtf8())));
+    }
+    return response.build();
+  }
+
+  private static AnnotateImageRequest createRequest(String imageContent) {
+    return AnnotateImageRequest.newBuilder()
+        .setImage(Image.newBuilder().setContent(ByteString.copyFromUtf8(imageContent)))
+        .addAllFeatures(Constants.PRODUCT_DETECTION_FEATURES)
+        .build();
+  }
+
+  /** Annotates {@code count} images concurrently and returns the label of each response. */
+  private List<String> annotateConcurrently(int count) throws Exception {
+    List<Future<AnnotateImageResponse>> responses = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      AnnotateImageRequest request = createRequest("image-" + i);
+      responses.add(callers.submit(() -> dispatcher.annotate(request)));
+    }
+
+    List<String> labels = new ArrayList<>();
+    for (Future<AnnotateImageResponse> response : responses) {
+      labels.add(response.get().getLabelAnnotations(0).getDescription());
+    }
+    return labels;
+  }
+
+  @Test
+  public void concurrentRequestsShareOneCall() throws Exception {
+    // The batch is sent as soon as it is full, long before the linger time.
+    dispatcher = new VisionBatchDispatcher(this::labelImages, 4, LONG_LINGER_MILLIS, Long.MAX_VALUE);
+
+    List<String> labels = annotateConcurrently(4);
+
+    Assert.assertEquals(Collections.singletonList(4), batchSizes);
+    for (int i = 0; i < 4; i++) {
+      Assert.assertEquals("image-" + i, labels.get(i));
+    }
+    Assert.assertEquals(1, dispatcher.getBatchCount());
+    Assert.assertEquals(4, dispatcher.getRequestCount());
+  }
+
+  @Test
+  public void batchesDoNotExceedMaxSize() throws Exception {
+    dispatcher = new VisionBatchDispatcher(this::labelImages, 4, 100, Long.MAX_VALUE);
+
+    List<String> labels = annotateConcurrently(8);
+
+    for (int i = 0; i < 8; i++) {
+      Assert.assertEquals("image-" + i, labels.get(i));
+    }
+    Assert.assertEquals(8, batchSizes.stream().mapToInt(Integer::intValue).sum());
+    Assert.assertTrue(batchSizes.stream().allMatch(batchSize -> batchSize <= 4));
+  }
+
+  @Test
+  public void batchesDoNotExceedMaxBytes() throws Exception {
+    // Each request alone fills the byte budget, so each is sent in its own call.
+    int requestBytes = createRequest("image-0").getSerializedSize();
+    dispatcher = new VisionBatchDispatcher(this::labelImages, 4, 100, requestBytes);
+
+    List<String> labels = annotateConcurrently(4);
+
+    for (int i = 0; i < 4; i++) {
+      Assert.assertEquals("image-" + i, labels.get(i));
+    }
+    Assert.assertEquals(4, batchSizes.size());
+    Assert.assertTrue(batchSizes.stream().allMatch(batchSize -> batchSize == 1));
+  }
+
+  @Test
+  public void loneRequestIsSentAfterLingerTime() throws Exception {
+    dispatcher = new VisionBatchDispatcher(this::labelImages, 16, 10, Long.MAX_VALUE);
+
+    AnnotateImageResponse response = dispatcher.annotate(createRequest("image-0"));
+
+    Assert.assertEquals("image-0", response.getLabelAnnotations(0).getDescription());
+    Assert.assertEquals(Collections.singletonList(1), batchSizes);
+  }
+
+  @Test
+  public void senderFailureIsThrownToEveryCaller() throws Exception {
+    dispatcher = new VisionBatchDispatcher(
+        requests -> {
+          throw new PhotoDetectionException("Quota exceeded.");
+        },
+        2,
+        LONG_LINGER_MILLIS,
+        Long.MAX_VALUE);
+
+    try {
+      annotateConcurrently(2);
+      Assert.fail();
+    } catch (ExecutionException exception) {
+      Assert.assertTrue(exception.getCause() instanceof PhotoDetectionException);
+      Assert.assertEquals("Quota exceeded.", exception.getCause().getMessage());
+    }
+  }
+
+  @Test(expected = PhotoDetectionException.class)
+  public void missingResponsesAreAnError() throws Exception {
+    dispatcher = new VisionBatchDispatcher(
+        requests -> BatchAnnotateImagesResponse.getDefaultInstance(), 16, 10, Long.MAX_VALUE);
+
+    dispatcher.annotate(createRequest("image-0"));
+  }
+
+  @Test(expected = PhotoDetectionException.class)
+  public void stoppedDispatcherRejectsRequests() throws Exception {
+    dispatcher = new VisionBatchDispatcher(this::labelImages, 16, 10, Long.MAX_VALUE);
+    dispatcher.stop();
+
+    dispatcher.annotate(createRequest("image-0"));
+  }
+
+  @Test
+  public void callerStopsWaitingAfterTimeout() throws Exception {
+    CountDownLatch releaseSender = new CountDownLatch(1);
+    dispatcher = new VisionBatchDispatcher(
+        requests -> {
+          // A batch which never completes.
+          Uninterruptibles.awaitUninterruptibly(releaseSender);
+          throw new PhotoDetectionException("Released.");
+        },
+        16,
+        10,
+        Long.MAX_VALUE,
+        100);
+
+    try {
+      PhotoDetectionException exception =
+          Assertions.assertThrows(
+              PhotoDetectionException.class,
+              () -> dispatcher.annotate(createRequest("image-0")));
+      Assert.assertEquals("Timed out waiting for Cloud Vision API.", exception.getMessage());
+    } finally {
+      releaseSender.countDown();
+    }
+  }
+}
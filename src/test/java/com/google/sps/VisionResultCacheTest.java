@@ -0,0 +1,143 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.common.collect.ImmutableList;
+import com.google.sps.data.ProductDetectionData;
+import com.google.sps.data.ShoppingListTextEntry;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.jupiter.api.Assertions;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests {@link CachingProductDetectionAPI} and {@link CachingTextDetectionAPI}, checking that
+ * repeated images are answered from the {@link VisionResultCache}.
+ */
+@RunWith(JUnit4.class)
+public final class VisionResultCacheTest {
+  private static final ImageBuffer IMAGE = ImageBuffer.wrap(new byte[] {1, 2, 3});
+  private static final ImageBuffer OTHER_IMAGE = ImageBuffer.wrap(new byte[] {4, 5, 6});
+
+  private static final ProductDetectionData PRODUCT_DETECTION_DATA =
+      ProductDetectionData.create(
+          ImmutableList.of("Shoe"), ImmutableList.of("Nike"), ImmutableList.of("Black"));
+
+  private FakeProductDetectionAPIImpl fakeProductDetection;
+  private int detectionCallCount;
+  private ProductDetectionAPI countingProductDetection;
+
+  @Before
+  public void setUp() {
+    fakeProductDetection = new FakeProductDetectionAPIImpl();
+    fakeProductDetection.setReturnValue(PRODUCT_DETECTION_DATA);
+    detectionCallCount = 0;
+    countingProductDetection = image -> {
+      detectionCallCount++;
+      return fakeProductDetection.detectProductPhotoContent(image);
+    };
+  }
+
+  private CachingProductDetectionAPI createCachingProductDetection(long maxEntries) {
+    return new CachingProductDetectionAPI(
+        countingProductDetection,
+        new VisionResultCache<>(Constants.PRODUCT_DETECTION_FEATURES, maxEntries, 60, 60));
+  }
+
+  @Test
+  public void repeatedImageIsDetectedOnce() throws Exception {
+    CachingProductDetectionAPI cachingProductDetection = createCachingProductDetection(10);
+
+    Assert.assertEquals(
+        PRODUCT_DETECTION_DATA, cachingProductDetection.detectProductPhotoContent(IMAGE));
+    Assert.assertEquals(
+        PRODUCT_DETECTION_DATA,
+        cachingProductDetection.detectProductPhotoContent(ImageBuffer.wrap(new byte[] {1, 2, 3})));
+
+    Assert.assertEquals(1, detectionCallCount);
+  }
+
+  @Test
+  public void differentImagesAreDetectedSeparately() throws Exception {
+    CachingProductDetectionAPI cachingProductDetection = createCachingProductDetection(10);
+
+    cachingProductDetection.detectProductPhotoContent(IMAGE);
+    cachingProductDetection.detectProductPhotoContent(OTHER_IMAGE);
+
+    Assert.assertEquals(2, detectionCallCount);
+  }
+
+  @Test
+  public void failureIsCached() throws Exception {
+    fakeProductDetection.setException(new PhotoDetectionException("Fake error."));
+    CachingProductDetectionAPI cachingProductDetection = createCachingProductDetection(10);
+
+    List<Exception> exceptions = new ArrayList<>();
+    for (int i = 0; i < 2; i++) {
+      Exception exception = Assertions.assertThrows(PhotoDetectionException.class, () -> {
+          cachingProductDetection.detectProductPhotoContent(IMAGE);
+      });
+      Assert.assertEquals("Fake error.", exception.getMessage());
+      exceptions.add(exception);
+    }
+
+    Assert.assertEquals(1, detectionCallCount);
+    // Each request gets its own exception.
+    Assert.assertNotSame(exceptions.get(0), exceptions.get(1));
+  }
+
+  @Test
+  public void cacheIsBoundedBySize() throws Exception {
+    VisionResultCache<ProductDetectionData> cache =
+        new VisionResultCache<>(Constants.PRODUCT_DETECTION_FEATURES, 1, 60, 60);
+    CachingProductDetectionAPI cachingProductDetection =
+        new CachingProductDetectionAPI(countingProductDetection, cache);
+
+    cachingProductDetection.detectProductPhotoContent(IMAGE);
+    cachingProductDetection.detectProductPhotoContent(OTHER_IMAGE);
+    cachingProductDetection.detectProductPhotoContent(IMAGE);
+
+    Assert.assertEquals(3, detectionCallCount);
+    Assert.assertEquals(0, cache.getHitCount());
+    Assert.assertEquals(3, cache.getMissCount());
+    Assert.assertEquals(2, cache.getEvictionCount());
+  }
+
+  @Test
+  public void cachedTextEntriesAreNotModifiedByCallers() throws Exception {
+    List<ShoppingListTextEntry> shoppingListText = new ArrayList<>();
+    shoppingListText.add(ShoppingListTextEntry.create("Milk Eggs", 10, 25));
+    shoppingListText.add(ShoppingListTextEntry.create("Milk", 10, 13));
+    shoppingListText.add(ShoppingListTextEntry.create("Eggs", 22, 25));
+    FakeTextDetectionAPIImpl fakeTextDetection = new FakeTextDetectionAPIImpl();
+    fakeTextDetection.setReturnValue(shoppingListText);
+
+    VisionResultCache<ImmutableList<ShoppingListTextEntry>> cache =
+        new VisionResultCache<>(Constants.TEXT_DETECTION_FEATURES, 10, 60, 60);
+    ImageTextDectector imageTextDectector =
+        new ImageTextDectector(new CachingTextDetectionAPI(fakeTextDetection, cache));
+
+    List<String> expectedShoppingQueries = ImmutableList.of("Milk", "Eggs");
+    Assert.assertEquals(
+        expectedShoppingQueries, imageTextDectector.extractShoppingList(IMAGE));
+    Assert.assertEquals(
+        expectedShoppingQueries, imageTextDectector.extractShoppingList(IMAGE));
+    Assert.assertEquals(1, cache.getHitCount());
+  }
+}